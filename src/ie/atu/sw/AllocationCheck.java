@@ -0,0 +1,193 @@
+package ie.atu.sw;
+
+import static java.lang.System.out;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Regression check for the allocation-free hot path of EngineSnapshot. Simplifies a sample text
+ * over and over on one thread and reads the bytes that thread allocated from the JVM's
+ * ThreadMXBean. After a warm-up, the steady state must stay within a budget of bytes per token,
+ * otherwise the check fails with exit status 1, so it can guard a build.
+ *
+ * Three paths are measured: processText into a discarding Writer (lines, words and output),
+ * simplifyLine into a reused builder, and findReplacementWord on every word. The text read from
+ * disk is not counted.
+ *
+ * Only the calling platform thread is measured, as the JVM does not report the allocation of a
+ * virtual thread. The batch, server and job paths run each text on a new virtual thread, where
+ * processText borrows a pooled scratch instead of keeping one per thread (see EngineSnapshot), so
+ * only their thread-local entry is allocated per text; simplifyLine and findReplacementWord 
+ * called directly on a new virtual thread allocate that thread's scratch once.
+ *
+ * @see EngineSnapshot
+ */
+public class AllocationCheck {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final double DEFAULT_BUDGET = 0.1; //Bytes per token
+	private static final int DEFAULT_ROUNDS = 20;
+	private static final int WARMUP_ROUNDS = 20; //Enough for the hot path to be compiled
+
+	private final EngineSnapshot snapshot;
+	private final String text;
+	private final com.sun.management.ThreadMXBean threads;
+	private final StringBuilder line = new StringBuilder();
+	private long tokens = 0; //Tokens in one pass over the text
+
+	/**
+	 * Bytes allocated per token by one path
+	 * @param path the name of the path
+	 * @param bytesPerToken the average over the measured rounds
+	 */
+	private record Result(String path, double bytesPerToken) {}
+
+	@FunctionalInterface
+	private interface Pass {
+		void run() throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface RangeConsumer {
+		void accept(int start, int end);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Initialises the check for one snapshot and sample text
+	 * @param snapshot the loaded snapshot to measure
+	 * @param text the sample text
+	 * @throws IllegalStateException if the JVM cannot measure allocation per thread
+	 */
+	public AllocationCheck(EngineSnapshot snapshot, String text) {
+		this.snapshot = snapshot;
+		this.text = text;
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean)
+				|| !bean.isThreadAllocatedMemorySupported()) {
+			throw new IllegalStateException("This JVM cannot measure allocation per thread");
+		}
+		bean.setThreadAllocatedMemoryEnabled(true);
+		this.threads = bean;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Runs the check. Required options are --embeddings, --replacements and --text (the sample
+	 * text). Optional options are --metric, --rounds and --budget (bytes per token).
+	 *
+	 * @param options the parsed command line options
+	 * @param fileManager injected instance of filemanager
+	 * @throws Exception if a file cannot be read
+	 */
+	public static void run(CommandLineOptions options, FileManagerService fileManager) throws Exception {
+		String text = Files.readString(Paths.get(options.require("text")), StandardCharsets.UTF_8);
+		SnapshotSimplifier textSimplifier = new TextFileSimplifier();
+		Runner.loadModel(options, fileManager, textSimplifier);
+		double budget = Double.parseDouble(options.get("budget", String.valueOf(DEFAULT_BUDGET)));
+
+		AllocationCheck check = new AllocationCheck(textSimplifier.getSnapshot(), text);
+		boolean passed = true;
+		for (Result result : check.measure(options.getInt("rounds", DEFAULT_ROUNDS))) {
+			boolean withinBudget = result.bytesPerToken() <= budget;
+			passed &= withinBudget;
+			out.printf("%s[INFO] %-20s %.4f bytes/token %s%s%n", withinBudget ? "" : ConsoleColour.RED,
+					result.path(), result.bytesPerToken(), withinBudget ? "ok" : "over budget",
+					withinBudget ? "" : ConsoleColour.RESET);
+		}
+		if (!passed) {
+			System.err.println(ConsoleColour.RED + "[Error] Allocation budget of " + budget
+					+ " bytes/token exceeded" + ConsoleColour.RESET);
+			System.exit(1);
+		}
+		out.println("[INFO] Allocation check passed (" + check.tokens + " tokens per round, budget "
+				+ budget + " bytes/token)");
+	}
+
+	/**
+	 * Measures every path
+	 * Time Complexity: O(r*n*m), where r is the number of rounds, n the number of words and m the
+	 * number of replacement words
+	 *
+	 * @param rounds the number of measured passes over the text per path
+	 * @return the bytes allocated per token by each path
+	 * @throws IOException never, the output is discarded
+	 */
+	private Result[] measure(int rounds) throws IOException {
+		Writer discard = Writer.nullWriter();
+		tokens = 0;
+		forEachWord((start, end) -> tokens++);
+		return new Result[] {
+				measure("processText", rounds, () -> snapshot.processText(text, discard)),
+				measure("simplifyLine", rounds, () -> forEachLine((start, end) ->
+						snapshot.simplifyLine(text, start, end, line))),
+				measure("findReplacementWord", rounds, () -> forEachWord((start, end) ->
+						snapshot.findReplacementWord(text, start, end)))
+		};
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Warms a path up, then averages the bytes it allocates per token
+	 */
+	private Result measure(String path, int rounds, Pass pass) throws IOException {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			pass.run();
+		}
+		long before = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < rounds; i++) {
+			pass.run();
+		}
+		long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+		return new Result(path, tokens == 0 ? 0.0d : (double) allocated / (tokens * rounds));
+	}
+
+	/**
+	 * Calls the consumer with the range of every line, split on \n
+	 */
+	private void forEachLine(RangeConsumer consumer) {
+		int start = 0;
+		while (start <= text.length()) {
+			int end = text.indexOf('\n', start);
+			end = end < 0 ? text.length() : end;
+			consumer.accept(start, end);
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Calls the consumer with the range of every whitespace separated word
+	 */
+	private void forEachWord(RangeConsumer consumer) {
+		int position = 0;
+		while (position < text.length()) {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+			int start = position;
+			while (position < text.length() && !Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+			if (position > start) {
+				consumer.accept(start, position);
+			}
+		}
+	}
+
+}
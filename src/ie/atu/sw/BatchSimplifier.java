@@ -0,0 +1,317 @@
+package ie.atu.sw;
+
+import static java.lang.System.out;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Non-interactive batch mode. Loads the word embeddings and replacement words once and then
+ * simplifies every file below an input directory (or matching a glob) concurrently on virtual
+ * threads, writing the results into a mirrored directory tree below the output directory.
+ * Reports throughput for every file and for the whole batch. With --output-format edits each file
+ * gets an edit script instead of its simplified text (see EditScriptWriter).
+ *
+ * @see FileManagerService
+ * @see TextSimplifier
+ */
+public class BatchSimplifier {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final int DEFAULT_PARALLELISM = 256; //Max files open at the same time
+
+	private final FileManagerService fileManager;
+	private final TextSimplifier textSimplifier;
+	private IncrementalSimplifier incremental; //null unless --chunk-store is given
+	private SimplificationPipeline pipeline; //null unless --workers is given
+	private boolean editScripts = false; //Whether edit scripts are written instead of text
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Initialises the batch simplifier with dependency injection
+	 * @param fileManager injected instance of filemanager
+	 * @param textSimplifier injected instance of textsimplifier, shared by every file
+	 */
+	public BatchSimplifier(FileManagerService fileManager, TextSimplifier textSimplifier) {
+		this.fileManager = fileManager;
+		this.textSimplifier = textSimplifier;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Runs the batch described by the command line options. Required options are --embeddings,
+	 * --replacements, --input and --output. Optional options are --metric (defaults to dot
+	 * product), --parallelism (the number of files processed at the same time) and --chunk-store
+	 * (a directory of previously simplified chunks, which enables incremental, resumable runs).
+	 * --workers n runs each file through a SimplificationPipeline with n simplify workers and 
+	 * --queue-depth batches per queue (default 16), reporting each file's stage utilisation.
+	 * --output-format edits writes an edit script per file and the shared replacement table 
+	 * instead of the simplified text, which Runner apply-edits turns back into text.
+	 * Time Complexity: O(f*n*m), where f is the number of files, n the number of words per file
+	 * and m the number of replacement words
+	 *
+	 * @param options the parsed command line options
+	 * @throws Exception if the configuration is invalid or the input cannot be listed
+	 */
+	public void run(CommandLineOptions options) throws Exception {
+		Path outputRoot = Paths.get(options.require("output"));
+		int parallelism = options.getInt("parallelism", DEFAULT_PARALLELISM);
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("--parallelism must be at least 1");
+		}
+		String format = options.get("output-format", "text");
+		if (!format.equals("text") && !format.equals("edits")) {
+			throw new IllegalArgumentException("--output-format must be text or edits");
+		}
+		editScripts = format.equals("edits");
+		if (editScripts && (options.has("chunk-store") || options.has("workers"))) {
+			throw new IllegalArgumentException("--output-format edits cannot be combined with --chunk-store or --workers");
+		}
+
+		List<Path> inputFiles = new ArrayList<>();
+		Path inputRoot = resolveInputs(options.require("input"), inputFiles);
+		if (inputFiles.isEmpty()) {
+			throw new IllegalArgumentException("No input files matched: " + options.require("input"));
+		}
+
+		//Load the model once for the whole batch
+		Runner.loadModel(options, fileManager, textSimplifier);
+		if (options.has("chunk-store")) {
+			//Chunks simplified with a prefilter, phrases or a candidate budget get their own keys
+			incremental = new IncrementalSimplifier(new ChunkStore(options.require("chunk-store")),
+					FileFingerprint.modelKey(fileManager.getEmbeddingsFilePath(),
+							fileManager.getReplacementWordsFilePath(),
+							local().getSnapshot().getCalculatorType())
+					+ local().getSnapshot().getOutputKey());
+		}
+
+		if (options.has("workers")) {
+			pipeline = new SimplificationPipeline(local(), options.getInt("workers", 1),
+					options.getInt("queue-depth", SimplificationPipeline.DEFAULT_QUEUE_DEPTH));
+		}
+
+		if (editScripts) {
+			Files.createDirectories(outputRoot);
+			EditScriptWriter.writeTable(local().getSnapshot(), outputRoot.resolve(EditScriptWriter.TABLE_FILE));
+		}
+		processFiles(inputRoot, inputFiles, outputRoot, parallelism);
+		if (options.has("token-budget") || options.has("text-budget-ms")) {
+			out.println("[INFO] Lookup " + local().getSnapshot().getBudget());
+		}
+		if (options.has("coalesce-window-us") || options.has("coalesce-words")) {
+			out.println("[INFO] " + local().getSnapshot().getCoalescer());
+		}
+	}
+
+	/**
+	 * Simplifies every input file on its own virtual thread. A semaphore limits how many files
+	 * are being read and written at the same time so large batches do not exhaust file handles.
+	 *
+	 * @param inputRoot the directory the input files are relative to
+	 * @param inputFiles the files to simplify
+	 * @param outputRoot the directory the mirrored output tree is written to
+	 * @param parallelism the maximum number of files processed at the same time
+	 * @throws InterruptedException if interrupted while waiting for the batch to finish
+	 */
+	private void processFiles(Path inputRoot, List<Path> inputFiles, Path outputRoot, int parallelism)
+			throws InterruptedException {
+		Semaphore permits = new Semaphore(parallelism);
+		AtomicInteger failures = new AtomicInteger();
+		AtomicLong totalWords = new AtomicLong();
+		AtomicLong totalBytes = new AtomicLong();
+
+		long batchStart = System.nanoTime();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (Path inputFile : inputFiles) {
+				executor.submit(() -> {
+					permits.acquireUninterruptibly();
+					try {
+						Path relative = inputRoot.relativize(inputFile);
+						long start = System.nanoTime();
+						Path outputFile = outputRoot.resolve(relative.toString());
+						Files.createDirectories(outputFile.toAbsolutePath().getParent());
+
+						long words;
+						String detail = "";
+						if (incremental != null) {
+							IncrementalSimplifier.Result result = incremental.simplify(inputFile, outputFile,
+									local().getSnapshot());
+							words = result.words();
+							detail = String.format(", %d/%d chunks reused", result.reusedChunks(), result.chunks());
+						} else if (pipeline != null) {
+							SimplificationPipeline.Stats stats;
+							try (Writer writer = fileManager.openOutput(outputFile.toString())) {
+								stats = pipeline.run(inputFile, writer);
+							}
+							words = stats.words();
+							detail = "; " + stats;
+						} else if (editScripts) {
+							//The script is applied to the file as it is, so it is read without trimming
+							String content = new String(Files.readAllBytes(inputFile), StandardCharsets.UTF_8);
+							EditScriptWriter edits = new EditScriptWriter(
+									Files.newOutputStream(Paths.get(outputFile + EditScriptWriter.SUFFIX)), local().getSnapshot());
+							try (edits) {
+								edits.write(content);
+							}
+							words = countWords(content);
+							detail = ", " + edits;
+						} else {
+							String content = fileManager.readFile(inputFile.toString());
+							try (Writer writer = fileManager.openOutput(outputFile.toString())) {
+								textSimplifier.processText(content, writer);
+							}
+							words = countWords(content);
+						}
+
+						totalWords.addAndGet(words);
+						totalBytes.addAndGet(Files.size(inputFile));
+						long millis = Math.max(1, elapsedMillis(start));
+						out.printf("[INFO] %s: %d words in %d ms (%.0f words/s%s)%n",
+								relative, words, millis, words * 1000.0d / millis, detail);
+					} catch (Exception e) {
+						failures.incrementAndGet();
+						System.err.println("[Error] " + inputFile + ": " + e.getMessage());
+					} finally {
+						permits.release();
+					}
+				});
+			}
+		} //close() waits for every file to finish
+
+		double seconds = Math.max(1, elapsedMillis(batchStart)) / 1000.0d;
+		out.println(ConsoleColour.GREEN);
+		out.printf("[INFO] Batch complete: %d files (%d failed), %d words, %.2f MB in %.2f s%n",
+				inputFiles.size(), failures.get(), totalWords.get(),
+				totalBytes.get() / 1_000_000.0d, seconds);
+		out.printf("[INFO] Throughput: %.1f files/s, %.0f words/s, %.2f MB/s%n",
+				inputFiles.size() / seconds, totalWords.get() / seconds,
+				totalBytes.get() / 1_000_000.0d / seconds);
+		out.print(ConsoleColour.RESET);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * The simplifier as a SnapshotSimplifier, for the options that work on its snapshot
+	 * @throws IllegalStateException if it is sharded, which Runner rejects for those options
+	 */
+	private SnapshotSimplifier local() {
+		if (textSimplifier instanceof SnapshotSimplifier local) {
+			return local;
+		}
+		throw new IllegalStateException("A sharded simplifier has no local snapshot");
+	}
+
+	/**
+	 * Resolves the --input option to a list of files. A directory selects every .txt file below
+	 * it, a single file selects itself and a glob (e.g. corpus/**&#47;*.txt) selects every file
+	 * below its fixed leading directories that matches the rest of the pattern.
+	 * Time Complexity: O(n), where n is the number of files below the root directory
+	 *
+	 * @param input the directory, file or glob given on the command line
+	 * @param files list the matching files are added to
+	 * @return the root directory that output paths are mirrored from
+	 * @throws IOException if the directory tree cannot be walked
+	 */
+	static Path resolveInputs(String input, List<Path> files) throws IOException {
+		Path root;
+		PathMatcher matcher;
+
+		int globStart = indexOfGlob(input);
+		if (globStart >= 0) {
+			//Split the pattern into its fixed leading directories and the glob itself
+			int separator = Math.max(input.lastIndexOf('/', globStart), input.lastIndexOf('\\', globStart));
+			root = Paths.get(separator >= 0 ? input.substring(0, separator + 1) : ".");
+			matcher = FileSystems.getDefault().getPathMatcher("glob:" + input.substring(separator + 1));
+		} else {
+			Path path = Paths.get(input);
+			if (Files.isRegularFile(path)) {
+				path = path.toAbsolutePath(); //Absolute so it can be relativized against its parent
+				files.add(path);
+				return path.getParent();
+			}
+			root = path;
+			matcher = p -> p.toString().endsWith(".txt");
+		}
+
+		if (!Files.isDirectory(root)) {
+			throw new IllegalArgumentException("Input directory not found: " + root);
+		}
+		try (Stream<Path> walk = Files.walk(root)) {
+			walk.filter(Files::isRegularFile)
+				.filter(p -> matcher.matches(root.relativize(p)))
+				.sorted()
+				.forEach(files::add);
+		}
+		return root;
+	}
+
+	/**
+	 * Finds the first glob metacharacter in a path
+	 * @param input the path to search
+	 * @return the index of the first glob character, or -1 if it is a plain path
+	 */
+	private static int indexOfGlob(String input) {
+		for (int i = 0; i < input.length(); i++) {
+			char c = input.charAt(i);
+			if (c == '*' || c == '?' || c == '[' || c == '{') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Counts the whitespace separated words in a text without splitting it
+	 * Time Complexity: O(n), where n is the number of characters
+	 * @param text the text to count
+	 * @return the number of words
+	 */
+	private static long countWords(String text) {
+		long words = 0;
+		boolean inWord = false;
+		for (int i = 0; i < text.length(); i++) {
+			boolean whitespace = Character.isWhitespace(text.charAt(i));
+			if (!whitespace && !inWord) {
+				words++;
+			}
+			inWord = !whitespace;
+		}
+		return words;
+	}
+
+	/**
+	 * Calculates the time passed since a starting point
+	 * @param startNanos the value of System.nanoTime() at the start
+	 * @return the elapsed time in milliseconds
+	 */
+	private static long elapsedMillis(long startNanos) {
+		return (System.nanoTime() - startNanos) / 1_000_000;
+	}
+
+}
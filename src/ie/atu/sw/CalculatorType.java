@@ -6,6 +6,29 @@ package ie.atu.sw;
 public enum CalculatorType {
 	DOT_PRODUCT,
 	COSINE,
-	EUCLIDEAN
+	EUCLIDEAN;
+
+	/**
+	 * Parses a calculator type from a command line value. Accepts the enum names in any case
+	 * along with the short forms "dot" and "euclid".
+	 * Time Complexity: O(1). Simple string comparison
+	 * 
+	 * @param name the name of the calculator type
+	 * @return the matching calculator type
+	 * @throws IllegalArgumentException if the name does not match a calculator type
+	 */
+	public static CalculatorType fromString(String name) {
+		String normalised = name.trim().toUpperCase().replace('-', '_');
+		switch (normalised) {
+			case "DOT", "DOT_PRODUCT": 
+				return DOT_PRODUCT;
+			case "COSINE": 
+				return COSINE;
+			case "EUCLID", "EUCLIDEAN": 
+				return EUCLIDEAN;
+			default:
+				throw new IllegalArgumentException("Unknown calculator type: " + name);
+		}
+	}
 
 }
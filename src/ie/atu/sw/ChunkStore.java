@@ -0,0 +1,122 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content-addressed on-disk store of simplified text chunks. Each entry is a file named after
+ * the SHA-256 of the chunk's input text together with the fingerprint of the model and metric
+ * that simplified it, so a chunk is only reused when both the text and the model are unchanged.
+ *
+ * Entries are written to a temporary file and moved into place, so readers (including other
+ * processes sharing the store) never see a partly written chunk.
+ *
+ * @see IncrementalSimplifier
+ */
+public class ChunkStore {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private final Path directory;
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Opens (and creates if needed) a chunk store
+	 * @param directory the directory holding the store
+	 * @throws IOException if the directory cannot be created
+	 */
+	public ChunkStore(String directory) throws IOException {
+		this.directory = Paths.get(directory);
+		Files.createDirectories(this.directory);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Calculates the key of a chunk
+	 * Time Complexity: O(n), where n is the length of the chunk
+	 *
+	 * @param modelKey fingerprint of the model and metric
+	 * @param chunk the input text of the chunk
+	 * @return the hex encoded SHA-256 key
+	 */
+	public static String key(String modelKey, String chunk) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(modelKey.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0); //Separator so the model key and chunk cannot run together
+			digest.update(chunk.getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e); //Required by every JDK
+		}
+	}
+
+	/**
+	 * Looks up a simplified chunk
+	 * Time Complexity: O(n), where n is the length of the stored chunk
+	 *
+	 * @param key the chunk key
+	 * @return the simplified chunk, or null if it is not in the store
+	 * @throws IOException if the entry exists but cannot be read
+	 */
+	public String get(String key) throws IOException {
+		try {
+			return Files.readString(pathOf(key), StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a simplified chunk
+	 * Time Complexity: O(n), where n is the length of the chunk
+	 *
+	 * @param key the chunk key
+	 * @param simplified the simplified chunk
+	 * @throws IOException if the entry cannot be written
+	 */
+	public void put(String key, String simplified) throws IOException {
+		Path target = pathOf(key);
+		Files.createDirectories(target.getParent());
+		Path temp = Files.createTempFile(target.getParent(), key, ".tmp");
+		try {
+			Files.writeString(temp, simplified, StandardCharsets.UTF_8);
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Entries are spread over 256 subdirectories by the first two characters of their key
+	 */
+	private Path pathOf(String key) {
+		return directory.resolve(key.substring(0, 2)).resolve(key);
+	}
+
+}
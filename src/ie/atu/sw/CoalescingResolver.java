@@ -0,0 +1,210 @@
+package ie.atu.sw;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Coalescing front end for the replacement search. When many threads simplify small texts at the
+ * same time, each one would scan every replacement vector for each of its unresolved words, so
+ * the same memory is streamed once per caller. Instead, callers hand their unresolved words to
+ * this resolver, which gathers the words of concurrent callers for a short window, removes
+ * duplicates, and scores the whole batch in one blocked pass over the replacement vectors (see
+ * EngineSnapshot#resolveAll). Each caller waits on a future that completes when its words are in
+ * the snapshot's memo.
+ *
+ * A batch is dispatched when the window closes or it reaches the word limit, whichever comes
+ * first, so a caller with many new words does not wait for the window. Callers announce that
+ * they are collecting words before they submit them, and the window also closes as soon as no
+ * caller is collecting: nobody is about to join, so a lone caller pays little more than a hand
+ * off. Batches are scored on a pool of one thread per core, so several batches can be scored at
+ * the same time.
+ *
+ * @see EngineSnapshot#withCoalescer(CoalescingResolver)
+ */
+public final class CoalescingResolver implements AutoCloseable {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	public static final int DEFAULT_WINDOW_MICROS = 200;
+	public static final int DEFAULT_MAX_WORDS = 256;
+	private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(50); //How often the window checks for collecting callers
+
+	private final long windowNanos;
+	private final int maxWords; //Dispatch a batch as soon as it holds this many words
+	private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final ExecutorService scorers;
+	private final Thread gatherer;
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder wordsRequested = new LongAdder();
+	private final LongAdder wordsScored = new LongAdder(); //After removing duplicates
+	private final AtomicInteger collecting = new AtomicInteger(); //Callers about to submit words
+	private volatile boolean closed = false;
+
+	/**
+	 * The unresolved words of one caller
+	 * @param snapshot the snapshot whose memo receives the results
+	 * @param rows the rows of the words in the snapshot's word index
+	 * @param done completed when every word is resolved
+	 */
+	private record Request(EngineSnapshot snapshot, int[] rows, CompletableFuture<Void> done) {}
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Starts the resolver's gathering thread and scoring pool
+	 * @param windowMicros how long the first request of a batch waits for others to join it
+	 * @param maxWords the number of words that dispatches a batch at once
+	 * @throws IllegalArgumentException if the window is negative or the word limit below 1
+	 */
+	public CoalescingResolver(int windowMicros, int maxWords) {
+		if (windowMicros < 0 || maxWords < 1) {
+			throw new IllegalArgumentException("The coalescing window cannot be negative and a batch needs a word");
+		}
+		this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+		this.maxWords = maxWords;
+		this.scorers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+			Thread thread = new Thread(runnable, "coalesced-scorer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.gatherer = Thread.ofPlatform().name("coalescer").daemon().start(this::gather);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Queues words to be resolved into a snapshot's memo with the words of concurrent callers
+	 * Time Complexity: O(1) to queue, see EngineSnapshot#resolveAll for the batch
+	 *
+	 * @param snapshot the snapshot to resolve the words for, which must have a memo
+	 * @param rows the rows of the words in the snapshot's word index
+	 * @return a future completed when every word is resolved, or exceptionally if scoring failed
+	 * @throws IllegalStateException if the resolver is closed
+	 */
+	public CompletableFuture<Void> resolve(EngineSnapshot snapshot, int[] rows) {
+		if (closed) {
+			throw new IllegalStateException("The coalescing resolver is closed");
+		}
+		Request request = new Request(snapshot, rows, new CompletableFuture<>());
+		requests.increment();
+		wordsRequested.add(rows.length);
+		queue.add(request);
+		return request.done();
+	}
+
+	/**
+	 * Announces that the calling thread is collecting words to submit, so an open window waits 
+	 * for them. Every call must be followed by one call to {@link #withdraw()}, after the words 
+	 * are submitted or if there are none.
+	 */
+	void announce() {
+		collecting.incrementAndGet();
+	}
+
+	/**
+	 * Ends an {@link #announce()}
+	 */
+	void withdraw() {
+		collecting.decrementAndGet();
+	}
+
+	/**
+	 * Formats the counters as one "name value" pair per line, as the server's /metrics does
+	 * @return the metrics text
+	 */
+	public String metrics() {
+		return "coalesced_requests " + requests.sum() + '\n'
+				+ "coalesced_batches " + batches.sum() + '\n'
+				+ "coalesced_words_requested " + wordsRequested.sum() + '\n'
+				+ "coalesced_words_scored " + wordsScored.sum() + '\n';
+	}
+
+	@Override
+	public String toString() {
+		long batchCount = batches.sum();
+		return String.format("coalescer(%d us, %d words): %d requests in %d batches, %.1f words/batch",
+				TimeUnit.NANOSECONDS.toMicros(windowNanos), maxWords, requests.sum(), batchCount,
+				batchCount == 0 ? 0.0d : (double) wordsScored.sum() / batchCount);
+	}
+
+	/**
+	 * Stops gathering and scoring. Requests still queued are completed exceptionally.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		gatherer.interrupt();
+		scorers.shutdownNow();
+		for (Request request; (request = queue.poll()) != null;) {
+			request.done().completeExceptionally(new IllegalStateException("The coalescing resolver is closed"));
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Gathering loop: waits for a request, collects the requests that arrive within the window
+	 * or until the word limit, then hands each snapshot's share of the batch to the scorers
+	 */
+	private void gather() {
+		try {
+			while (!closed) {
+				Request first = queue.take();
+				Map<EngineSnapshot, List<Request>> batch = new LinkedHashMap<>();
+				batch.computeIfAbsent(first.snapshot(), snapshot -> new ArrayList<>()).add(first);
+				int words = first.rows().length;
+				long deadline = System.nanoTime() + windowNanos;
+				while (words < maxWords) {
+					long remaining = deadline - System.nanoTime();
+					boolean waiting = remaining > 0 && collecting.get() > 0; //Someone may still join
+					Request next = waiting ? queue.poll(Math.min(remaining, POLL_NANOS), TimeUnit.NANOSECONDS) 
+							: queue.poll(); //Only what has already arrived
+					if (next != null) {
+						batch.computeIfAbsent(next.snapshot(), snapshot -> new ArrayList<>()).add(next);
+						words += next.rows().length;
+					} else if (!waiting) {
+						break;
+					}
+				}
+				batch.forEach((snapshot, requests) -> scorers.execute(() -> score(snapshot, requests)));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); //Closed
+		}
+	}
+
+	/**
+	 * Scores the distinct words of a batch for one snapshot and completes its requests
+	 */
+	private void score(EngineSnapshot snapshot, List<Request> requests) {
+		try {
+			int[] rows = requests.stream().flatMapToInt(request -> IntStream.of(request.rows()))
+					.distinct().toArray();
+			wordsScored.add(snapshot.resolveAll(rows));
+			batches.increment();
+			requests.forEach(request -> request.done().complete(null));
+		} catch (RuntimeException e) {
+			requests.forEach(request -> request.done().completeExceptionally(e));
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package ie.atu.sw;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Parses command line arguments of the form {@code <mode> --key value --flag} into a mode name
+ * and a map of options. Used by Runner to configure the non-interactive modes.
+ */
+public class CommandLineOptions {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private final String mode; //First argument, selects the mode to run
+	private final HashMap<String, String> options = new HashMap<>(); //key:value pairs
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Parses the arguments passed to main. Options without a value (or followed by another
+	 * option) are stored as flags with the value "true".
+	 * Time Complexity: O(n), where n is the number of arguments
+	 *
+	 * @param args the command line arguments
+	 * @throws IllegalArgumentException if an argument is not in the form --key
+	 */
+	public CommandLineOptions(String[] args) {
+		this.mode = args.length > 0 ? args[0] : "";
+
+		for (int i = 1; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+			}
+			String key = args[i].substring(2);
+			//Flag if this is the last argument or the next argument is another option
+			if (i + 1 >= args.length || args[i + 1].startsWith("--")) {
+				options.put(key, "true");
+			} else {
+				options.put(key, args[++i]);
+			}
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the selected mode
+	 * @return the first command line argument, or an empty string if there were none
+	 */
+	public String getMode() {
+		return mode;
+	}
+
+	/**
+	 * Checks whether an option or flag was given
+	 * @param key the option name without the leading "--"
+	 * @return true if the option was given
+	 */
+	public boolean has(String key) {
+		return options.containsKey(key);
+	}
+
+	/**
+	 * Getter for a mandatory option
+	 * @param key the option name without the leading "--"
+	 * @return the option value
+	 * @throws IllegalArgumentException if the option was not given
+	 */
+	public String require(String key) {
+		String value = options.get(key);
+		if (value == null) {
+			throw new IllegalArgumentException("Missing required option --" + key);
+		}
+		return value;
+	}
+
+	/**
+	 * Getter for an optional option
+	 * @param key the option name without the leading "--"
+	 * @param defaultValue value returned if the option was not given
+	 * @return the option value or the default
+	 */
+	public String get(String key, String defaultValue) {
+		return options.getOrDefault(key, defaultValue);
+	}
+
+	/**
+	 * Getter for an optional integer option
+	 * @param key the option name without the leading "--"
+	 * @param defaultValue value returned if the option was not given
+	 * @return the option value or the default
+	 * @throws IllegalArgumentException if the value is not an integer
+	 */
+	public int getInt(String key, int defaultValue) {
+		String value = options.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Option --" + key + " must be an integer: " + value);
+		}
+	}
+
+	/**
+	 * Formats the mode and options as a command line, options sorted by name
+	 * @return e.g. "serve --metric cosine --port 8080"
+	 */
+	@Override
+	public String toString() {
+		StringBuilder line = new StringBuilder(mode);
+		new TreeMap<>(options).forEach((key, value) -> {
+			line.append(" --").append(key);
+			if (!value.equals("true")) {
+				line.append(' ').append(value);
+			}
+		});
+		return line.toString();
+	}
+
+}
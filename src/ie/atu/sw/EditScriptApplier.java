@@ -0,0 +1,182 @@
+package ie.atu.sw;
+
+import static java.lang.System.out;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rebuilds simplified text from an input text and the edit script EditScriptWriter wrote for it.
+ * The input, the script and the output are all streamed, so memory use does not depend on the
+ * size of the text: unchanged characters are copied from the input to the output in blocks and
+ * each edit skips the characters it replaces and writes its replacement, looked up in the shared
+ * replacement table. The script's header and trailer are checked against the table and the
+ * input, so a script applied to the wrong input or table fails instead of producing wrong text.
+ *
+ * @see EditScriptWriter
+ */
+public class EditScriptApplier {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final int BUFFER_SIZE = 8 * 1024; //Characters copied at a time
+
+	private final List<String> table;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private long hash; //Hash of the input read so far
+	private long position; //Characters of the input read so far
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates an applier for scripts written against a replacement table
+	 * @param table the replacement table, see EditScriptWriter#table
+	 */
+	public EditScriptApplier(List<String> table) {
+		this.table = table;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Rebuilds the input files below --input from the edit scripts below --edits, which also
+	 * holds the shared replacement table, into a mirrored tree below --output. --input accepts a
+	 * directory, a file or a glob, as the batch mode does, and must name the files the scripts
+	 * were written for.
+	 * Time Complexity: O(n), where n is the total length of the input files
+	 *
+	 * @param options the parsed command line options
+	 * @throws Exception if an option is missing or the table cannot be read
+	 */
+	public static void run(CommandLineOptions options) throws Exception {
+		Path scriptRoot = Paths.get(options.require("edits"));
+		Path outputRoot = Paths.get(options.require("output"));
+		List<Path> inputFiles = new ArrayList<>();
+		Path inputRoot = BatchSimplifier.resolveInputs(options.require("input"), inputFiles);
+		EditScriptApplier applier = new EditScriptApplier(readTable(scriptRoot.resolve(EditScriptWriter.TABLE_FILE)));
+		FileManagerService fileManager = new FileManager();
+
+		long start = System.nanoTime();
+		int failures = 0;
+		long edits = 0;
+		for (Path inputFile : inputFiles) {
+			String relative = inputRoot.relativize(inputFile).toString();
+			Path outputFile = outputRoot.resolve(relative);
+			try (Reader input = new InputStreamReader(Files.newInputStream(inputFile), StandardCharsets.UTF_8);
+					InputStream script = Files.newInputStream(scriptRoot.resolve(relative + EditScriptWriter.SUFFIX))) {
+				Files.createDirectories(outputFile.toAbsolutePath().getParent());
+				try (Writer output = fileManager.openOutput(outputFile.toString())) {
+					edits += applier.apply(input, script, output);
+				}
+			} catch (IOException e) {
+				failures++;
+				System.err.println("[Error] " + inputFile + ": " + e.getMessage());
+			}
+		}
+		out.printf("[INFO] Applied %d edits to %d files (%d failed) in %d ms%n", edits, inputFiles.size(), failures,
+				(System.nanoTime() - start) / 1_000_000);
+	}
+
+	/**
+	 * Applies an edit script to its input
+	 * Time Complexity: O(n + e), where n is the length of the input and e the number of edits
+	 *
+	 * @param input the text the script was written for
+	 * @param script the edit script
+	 * @param output receives the simplified text
+	 * @return the number of edits applied
+	 * @throws IOException if a stream fails, or the script does not belong to the input or table
+	 */
+	public long apply(Reader input, InputStream script, Writer output) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(script, 64 * 1024));
+		if (in.readInt() != EditScriptWriter.MAGIC) {
+			throw new IOException("Not an edit script");
+		}
+		if (WorkloadRecorder.readVarLong(in) != table.size() || in.readLong() != EditScriptWriter.tableHash(table)) {
+			throw new IOException("The edit script was written for another replacement table");
+		}
+
+		hash = 0;
+		position = 0;
+		long edits = 0;
+		for (long gap; (gap = WorkloadRecorder.readVarLong(in)) != EditScriptWriter.END;) {
+			long length = WorkloadRecorder.readVarLong(in);
+			int id = (int) WorkloadRecorder.readVarLong(in);
+			String replacement = switch (id) {
+				case EditScriptWriter.LITERAL -> in.readUTF();
+				case EditScriptWriter.DELETE -> "";
+				case EditScriptWriter.SPACE -> " ";
+				default -> table.get(id - EditScriptWriter.FIRST_TABLE_ID);
+			};
+			copy(input, gap - 1, output);
+			copy(input, length, null);
+			output.write(replacement);
+			edits++;
+		}
+		long inputLength = WorkloadRecorder.readVarLong(in);
+		long inputHash = in.readLong();
+		copy(input, -1, output);
+		if (position != inputLength || hash != inputHash) {
+			throw new IOException("The edit script was written for another input");
+		}
+		return edits;
+	}
+
+	/**
+	 * Reads a replacement table written by EditScriptWriter#writeTable
+	 * @param path the table file
+	 * @return the table
+	 * @throws IOException if the file cannot be read
+	 */
+	public static List<String> readTable(Path path) throws IOException {
+		return Files.readAllLines(path, StandardCharsets.UTF_8);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Reads a number of characters of the input, or all that are left if the number is 
+	 * negative, hashing them as EditScriptWriter does and copying them to the output unless it 
+	 * is null
+	 */
+	private void copy(Reader input, long count, Writer output) throws IOException {
+		boolean toEnd = count < 0;
+		while (toEnd || count > 0) {
+			int read = input.read(buffer, 0, toEnd ? buffer.length : (int) Math.min(buffer.length, count));
+			if (read < 0) {
+				if (toEnd) {
+					return;
+				}
+				throw new IOException("The edit script was written for another input");
+			}
+			for (int i = 0; i < read; i++) {
+				hash = 31 * hash + buffer[i];
+			}
+			if (output != null) {
+				output.write(buffer, 0, read);
+			}
+			position += read;
+			count -= read;
+		}
+	}
+
+}
@@ -0,0 +1,455 @@
+package ie.atu.sw;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the simplification of a text as an edit script against the text instead of the whole
+ * simplified text. Most tokens of a large corpus pass through unchanged, so a script holding only
+ * the changes is a fraction of the size of the output it describes, and downstream consumers get
+ * the changes without diffing the output against the input again. EditScriptApplier rebuilds the
+ * simplified text from the input and the script, exactly as TextSimplifier#processText writes it.
+ *
+ * A script is a header followed by one record per edit, in order of offset:
+ * <ul>
+ * <li>the number of unchanged characters since the previous edit, plus one</li>
+ * <li>the number of characters replaced</li>
+ * <li>the replacement: DELETE, SPACE, an id into the shared replacement table, or LITERAL
+ * followed by the text</li>
+ * </ul>
+ * all as variable length numbers, so a replaced word usually costs four or five bytes and a
+ * deletion three. The shared table lists the snapshot's replacement words in scan order
+ * followed by its phrase replacements; it is written once per corpus with
+ * {@link #writeTable(EngineSnapshot, Path)}. Whitespace the simplification normalises is edited
+ * as little as possible: extra spaces, leading and trailing whitespace and whitespace-only
+ * lines are deleted, and only line breaks other than the platform's line separator need the
+ * text between two lines to be rewritten. A trailer holds the length and a hash of the
+ * input, so the applier can refuse a script applied to the wrong text.
+ *
+ * Text can be written in successive blocks, each ending at a line break (or the end of the
+ * text), and the script is streamed as it is produced, so a writer can follow a text that is
+ * read a block at a time. Words are searched one by one with the snapshot's lookups.
+ *
+ * @see EditScriptApplier
+ */
+public class EditScriptWriter implements AutoCloseable {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	public static final String SUFFIX = ".edits"; //Script of an input file, beside its mirrored path
+	public static final String TABLE_FILE = "replacements.table"; //Shared table in the output directory
+	static final int MAGIC = 0x57455331; //"WES1"
+	static final int LITERAL = 0; //Replacement id of a literal replacement, which follows it
+	static final int DELETE = 1; //Replacement id of the empty string
+	static final int SPACE = 2; //Replacement id of a single space
+	static final int FIRST_TABLE_ID = 3; //Replacement id of the first table entry
+	static final int END = 0; //Gap value that ends the edits
+
+	private final EngineSnapshot snapshot;
+	private final PhraseAutomaton phrases; //The snapshot's phrases, or null
+	private final int phraseIdBase; //Table id of the first phrase replacement
+	private final DataOutputStream out;
+	private final String separator = System.lineSeparator();
+	private final StringBuilder line = new StringBuilder(256); //Fallback simplification of a line
+
+	private long base = 0; //Offset of the block being written
+	private long lastEditEnd = 0; //Offset after the last edit
+	private long hash = 0; //Hash of the input so far
+	private boolean wroteContent = false; //Whether a non-empty line has been written
+	private long regionStart = 0; //Start of the text between the last content and the next
+	private boolean regionBreaksCanonical = true; //Whether its line breaks are all line separators
+	private long[] deletions = new long[16]; //Start and end of the whitespace to delete from it
+	private int deletionCount = 0;
+	private int emptyLines = 0; //Lines in that text that simplify to nothing
+	private long edits = 0;
+	private long replacedWords = 0;
+
+	private int[] starts = new int[64]; //Words of the line being edited
+	private int[] ends = new int[64];
+	private int[] phraseLengths = new int[64];
+	private int[] phraseIds = new int[64];
+	private long[] pieceStarts = new long[64]; //Non-empty outputs of the line, absolute offsets
+	private long[] pieceEnds = new long[64];
+	private String[] pieceOutputs = new String[64]; //Replacement of each piece, null if kept
+	private int[] pieceWords = new int[64]; //Words each piece replaces
+	private int[] pieceIds = new int[64]; //Table id of each replacement, LITERAL if not known yet
+	private int pieces = 0;
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Starts a script and writes its header
+	 * @param output where the script is written, closed with the writer
+	 * @param snapshot the snapshot that simplifies the text, whose table the script refers to
+	 * @throws IOException if the header cannot be written
+	 */
+	public EditScriptWriter(OutputStream output, EngineSnapshot snapshot) throws IOException {
+		this.snapshot = snapshot;
+		this.phrases = snapshot.getPhrases();
+		this.phraseIdBase = snapshot.getVocabulary().size();
+		this.out = new DataOutputStream(new BufferedOutputStream(output, 64 * 1024));
+		List<String> table = table(snapshot);
+		out.writeInt(MAGIC);
+		WorkloadRecorder.writeVarLong(out, table.size());
+		out.writeLong(tableHash(table));
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Simplifies the next block of the text into edits. Lines are split as
+	 * EngineSnapshot#processText splits them, so a block must not end between the \r and \n of
+	 * a line break.
+	 * Time Complexity: O(n), where n is the length of the block, plus the word searches
+	 *
+	 * @param text the block
+	 * @throws IOException if the script cannot be written
+	 */
+	public void write(String text) throws IOException {
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + text.charAt(i);
+		}
+		int start = 0;
+		while (start < length) {
+			int end = start;
+			while (end < length && !EngineSnapshot.isLineBreak(text.charAt(end))) {
+				end++;
+			}
+			editLine(text, start, end);
+			if (end == length) {
+				break;
+			}
+			boolean crlf = text.charAt(end) == '\r' && end + 1 < length && text.charAt(end + 1) == '\n';
+			int next = end + (crlf ? 2 : 1);
+			regionBreaksCanonical &= next - end == separator.length() && text.startsWith(separator, end);
+			start = next;
+		}
+		base += length;
+	}
+
+	/**
+	 * Deletes whatever follows the last non-empty line, then ends the script with the trailer
+	 * @throws IOException if the script cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (regionStart < base) {
+				edit(regionStart, base, ""); //Trailing empty lines and whitespace are dropped
+			}
+			WorkloadRecorder.writeVarLong(out, END);
+			WorkloadRecorder.writeVarLong(out, base);
+			out.writeLong(hash);
+		} finally {
+			out.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return edits + " edits (" + replacedWords + " words replaced)";
+	}
+
+	/**
+	 * Lists the replacement table of a snapshot: its replacement words in scan order, then its
+	 * phrase replacements
+	 * Time Complexity: O(m + p), where m is the number of replacement words and p of phrases
+	 *
+	 * @param snapshot the snapshot
+	 * @return the table, whose entry i has replacement id FIRST_TABLE_ID + i
+	 */
+	public static List<String> table(EngineSnapshot snapshot) {
+		List<String> table = new ArrayList<>(Arrays.asList(snapshot.getVocabulary().getWords()));
+		PhraseAutomaton phrases = snapshot.getPhrases();
+		for (int phrase = 0; phrases != null && phrase < phrases.size(); phrase++) {
+			table.add(phrases.getReplacement(phrase));
+		}
+		return table;
+	}
+
+	/**
+	 * Writes the replacement table of a snapshot, one entry per line in UTF-8
+	 * Time Complexity: O(m + p), see table
+	 *
+	 * @param snapshot the snapshot
+	 * @param path the table file, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void writeTable(EngineSnapshot snapshot, Path path) throws IOException {
+		Files.write(path, table(snapshot), StandardCharsets.UTF_8);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Edits one line: the text since the last non-empty line becomes the separators the output
+	 * has there, each replaced word or phrase becomes its replacement and the whitespace between
+	 * them a single space. A line whose output starts or ends with a character trim() would drop
+	 * is replaced whole by its simplification instead.
+	 */
+	private void editLine(String text, int start, int end) throws IOException {
+		int count = splitWords(text, start, end);
+		if (phrases != null) {
+			phrases.match(text, starts, ends, count, phraseLengths, phraseIds);
+		} else {
+			Arrays.fill(phraseLengths, 0, count, 0);
+		}
+
+		pieces = 0;
+		for (int i = 0; i < count; i++) {
+			if (phraseLengths[i] == 0) {
+				addPiece(starts[i], ends[i], snapshot.findReplacementWord(text, starts[i], ends[i]), 1, LITERAL);
+				continue;
+			}
+			int last = i + phraseLengths[i] - 1;
+			String replacement = phrases.getReplacement(phraseIds[i]);
+			if (!replacement.isEmpty()) {
+				addPiece(starts[i], ends[last], replacement, phraseLengths[i], FIRST_TABLE_ID + phraseIdBase + phraseIds[i]);
+			}
+			i = last;
+		}
+		if (pieces == 0) {
+			lineIsEmpty(start, end);
+			return;
+		}
+		if (firstChar(text, 0) <= ' ' || lastChar(text, pieces - 1) <= ' ') {
+			editWholeLine(text, start, end); //Only control characters or empty words trip this
+			return;
+		}
+
+		closeRegion(base + start, pieceStarts[0]);
+		for (int piece = 0; piece < pieces; piece++) {
+			String replacement = pieceOutputs[piece];
+			int wordStart = (int) (pieceStarts[piece] - base);
+			int wordLength = (int) (pieceEnds[piece] - pieceStarts[piece]);
+			if (replacement != null && (replacement.length() != wordLength 
+					|| !text.regionMatches(wordStart, replacement, 0, wordLength))) {
+				replacedWords += pieceWords[piece];
+				edit(pieceStarts[piece], pieceEnds[piece], replacement, 
+						pieceIds[piece] != LITERAL ? pieceIds[piece] : tableId(replacement));
+			}
+			//Whitespace up to the next output, including deleted phrases, becomes one space
+			if (piece + 1 < pieces) {
+				long gapStart = pieceEnds[piece];
+				long gapEnd = pieceStarts[piece + 1];
+				if (text.charAt((int) (gapStart - base)) != ' ') {
+					edit(gapStart, gapEnd, " ");
+				} else if (gapEnd - gapStart > 1) {
+					edit(gapStart + 1, gapEnd, "");
+				}
+			}
+		}
+		regionStart = pieceEnds[pieces - 1];
+		addDeletion(regionStart, base + end); //Trailing whitespace
+	}
+
+	/**
+	 * Replaces a line whose output trim() cuts into with its simplification, computed by the
+	 * snapshot itself
+	 */
+	private void editWholeLine(String text, int start, int end) throws IOException {
+		snapshot.simplifyLine(text, start, end, line);
+		if (line.isEmpty()) {
+			lineIsEmpty(start, end);
+			return;
+		}
+		closeRegion(base + start, base + start);
+		edit(base + start, base + end, line.toString());
+		regionStart = base + end;
+	}
+
+	/**
+	 * Counts a line that simplifies to nothing into the current region
+	 */
+	private void lineIsEmpty(int start, int end) {
+		if (wroteContent) {
+			emptyLines++;
+		}
+		addDeletion(base + start, base + end);
+	}
+
+	/**
+	 * Ends the region before a non-empty line whose output starts at an offset. Before the first
+	 * line the region is deleted. Otherwise it must become one line separator per line break of 
+	 * the output: if its line breaks already are, the whitespace around them is deleted, and if
+	 * not the region is rewritten.
+	 */
+	private void closeRegion(long lineStart, long contentStart) throws IOException {
+		addDeletion(lineStart, contentStart); //Leading whitespace
+		if (!wroteContent) {
+			if (contentStart > regionStart) {
+				edit(regionStart, contentStart, "");
+			}
+		} else if (regionBreaksCanonical) {
+			for (int i = 0; i < deletionCount; i += 2) {
+				edit(deletions[i], deletions[i + 1], "");
+			}
+		} else {
+			edit(regionStart, contentStart, separator.repeat(emptyLines + 1));
+		}
+		wroteContent = true;
+		regionBreaksCanonical = true;
+		deletionCount = 0;
+		emptyLines = 0;
+	}
+
+	/**
+	 * Records whitespace of the region to delete if its line breaks stay
+	 */
+	private void addDeletion(long start, long end) {
+		if (start == end) {
+			return;
+		}
+		if (deletionCount == deletions.length) {
+			deletions = Arrays.copyOf(deletions, deletionCount * 2);
+		}
+		deletions[deletionCount++] = start;
+		deletions[deletionCount++] = end;
+	}
+
+	/**
+	 * Writes an edit with a literal replacement
+	 */
+	private void edit(long start, long end, String replacement) throws IOException {
+		edit(start, end, replacement, LITERAL);
+	}
+
+	/**
+	 * Writes an edit, with the replacement's table id or LITERAL
+	 */
+	private void edit(long start, long end, String replacement, int id) throws IOException {
+		if (id == LITERAL && replacement.length() <= 1) {
+			id = replacement.isEmpty() ? DELETE : replacement.equals(" ") ? SPACE : LITERAL;
+		}
+		WorkloadRecorder.writeVarLong(out, start - lastEditEnd + 1);
+		WorkloadRecorder.writeVarLong(out, end - start);
+		WorkloadRecorder.writeVarLong(out, id);
+		if (id == LITERAL) {
+			out.writeUTF(replacement);
+		}
+		lastEditEnd = end;
+		edits++;
+	}
+
+	/**
+	 * Finds the words of a line as EngineSnapshot#simplifyLine does, without the empty first
+	 * word of a line starting with whitespace
+	 * @return the number of words
+	 */
+	private int splitWords(String text, int start, int end) {
+		int count = 0;
+		int position = start;
+		while (position < end) {
+			while (position < end && EngineSnapshot.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+			if (position == end) {
+				break;
+			}
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+				phraseLengths = new int[count * 2];
+				phraseIds = new int[count * 2];
+			}
+			starts[count] = position;
+			while (position < end && !EngineSnapshot.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+			ends[count++] = position;
+		}
+		return count;
+	}
+
+	/**
+	 * Adds an output of the line: the range of input it replaces, the replacement (null if the 
+	 * word is kept), the number of words it replaces and its table id if known
+	 */
+	private void addPiece(int start, int end, String replacement, int words, int id) {
+		if (pieces == pieceStarts.length) {
+			pieceStarts = Arrays.copyOf(pieceStarts, pieces * 2);
+			pieceEnds = Arrays.copyOf(pieceEnds, pieces * 2);
+			pieceOutputs = Arrays.copyOf(pieceOutputs, pieces * 2);
+			pieceWords = Arrays.copyOf(pieceWords, pieces * 2);
+			pieceIds = Arrays.copyOf(pieceIds, pieces * 2);
+		}
+		pieceStarts[pieces] = base + start;
+		pieceEnds[pieces] = base + end;
+		pieceOutputs[pieces] = replacement;
+		pieceWords[pieces] = words;
+		pieceIds[pieces++] = id;
+	}
+
+	/**
+	 * The first character a piece writes, or a space if it writes nothing
+	 */
+	private char firstChar(String text, int piece) {
+		String output = pieceOutputs[piece];
+		if (output == null) {
+			return text.charAt((int) (pieceStarts[piece] - base));
+		}
+		return output.isEmpty() ? ' ' : output.charAt(0);
+	}
+
+	/**
+	 * The last character a piece writes, or a space if it writes nothing
+	 */
+	private char lastChar(String text, int piece) {
+		String output = pieceOutputs[piece];
+		if (output == null) {
+			return text.charAt((int) (pieceEnds[piece] - base) - 1);
+		}
+		return output.isEmpty() ? ' ' : output.charAt(output.length() - 1);
+	}
+
+	/**
+	 * Finds the table id of a replacement word, or LITERAL if it is not one of the snapshot's 
+	 * replacement words
+	 */
+	private int tableId(String replacement) {
+		int row = snapshot.getWordIndex().find(replacement);
+		int position = row >= 0 ? snapshot.getVocabulary().indexOf(row) : -1;
+		return position >= 0 ? FIRST_TABLE_ID + position : LITERAL;
+	}
+
+	/**
+	 * Hashes a replacement table, so a script is only applied with the table it was written for
+	 */
+	static long tableHash(List<String> table) {
+		long hash = table.size();
+		for (String entry : table) {
+			hash = 31 * hash + entry.hashCode();
+		}
+		return hash;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the number of edits
+	 * @return the number of edits written so far
+	 */
+	public long getEdits() {
+		return edits;
+	}
+
+}
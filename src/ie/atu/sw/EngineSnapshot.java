@@ -0,0 +1,1267 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Immutable, thread-safe snapshot of everything needed to simplify text: the word embeddings,
+ * the vocabulary of replacement words with its scan index, and the similarity metric.
+ *
+ * A snapshot never changes after construction, so any number of threads can share one without
+ * locking. Reconfiguring produces a new snapshot; {@link #withCalculator(CalculatorType)} and
+ * {@link #withVocabulary(Vocabulary)} reuse the maps and word index of the original, so the
+ * memory used does not grow with the number of snapshots, vocabularies or callers. The maps
+ * passed in are wrapped, not copied, and must not be modified afterwards (FileVectorMapper
+ * always builds new maps when reloading).
+ *
+ * Simplifying allocates nothing per token once a thread has warmed up: lines and words are found
+ * by scanning the characters of the input, looked up by character range in a WordIndex, and the
+ * simplified line is built in a per-thread scratch buffer that is reused. Only the results that
+ * are returned as Strings (and the prefilter's shortlist or replacement cache, if enabled)
+ * allocate. AllocationCheck measures this on a platform thread. Batch files, server requests and
+ * jobs each run on a new virtual thread, so processText borrows the scratch of a virtual thread
+ * from a shared pool for the length of the text and returns it afterwards; such a thread only
+ * allocates its thread-local entry.
+ *
+ * @see TextFileSimplifier
+ */
+public final class EngineSnapshot {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private final Map<String, double[]> embeddingsMap;
+	private final WordIndex wordIndex; //Every word, for lookups by character range
+	private final Vocabulary vocabulary; //The replacement words
+	private final String[] replacementWords; //Index: replacement words in scan order
+	private final double[][] replacementVectors; //Index: vectors matching replacementWords
+	private final CalculatorType calcType;
+	private final SimilarityCalculator similarityCalculator;
+	private final ReplacementCache replacementCache; //Optional persistent results, may be null
+	private final ProjectedIndex prefilter; //Optional candidate prefilter, may be null
+	private final ReplacementMemo memo; //Optional in-memory results, may be null
+	private final int generation; //Generation of the vocabulary in the memo
+	private final LookupBudget budget; //Optional latency budget, may be null
+	private final int[] budgetOrder; //Scan positions in the budget's priority order
+	private final CoalescingResolver coalescer; //Optional batched search of new words, may be null
+	private final PhraseAutomaton phrases; //Optional phrase replacement before the word search, may be null
+	private final ParallelScan parallelScan; //Optional intra-query parallel search, may be null
+	private volatile double[] replacementNormsSquared; //Computed on first fused scan
+
+	/**
+	 * The closest replacement word for a vector
+	 * @param word the replacement word
+	 * @param score its score under the snapshot's metric
+	 */
+	public record Match(String word, double score) {}
+
+	/**
+	 * Buffers reused by every line a thread simplifies, kept by a platform thread and lent to a
+	 * virtual thread for each text, see borrowScratch
+	 */
+	private static final class Scratch {
+		private final StringBuilder line = new StringBuilder(256);
+		private char[] chars = new char[256];
+		private long deadline = Long.MAX_VALUE; //When the budget of the text being processed runs out
+		private boolean approximate; //Whether the last budgeted search was cut short
+		private int approximateTokens; //Searches cut short in the text being processed
+		private int[] wordStarts = new int[64]; //Words of the line being matched against the phrases
+		private int[] wordEnds = new int[64];
+		private int[] phraseLengths = new int[64]; //Words replaced by the phrase starting at each word
+		private int[] phraseIds = new int[64];
+	}
+
+	private static final int SCORING_BLOCK = 32; //Replacement vectors scored against a whole batch at a time
+
+	private static final int SCRATCH_POOL_SIZE = 256; //Texts in flight on virtual threads that reuse buffers
+
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<>(); //See scratch()
+	private static final ArrayBlockingQueue<Scratch> SCRATCH_POOL = new ArrayBlockingQueue<>(SCRATCH_POOL_SIZE);
+	private static final ThreadLocal<Integer> LAST_APPROXIMATE_TOKENS = ThreadLocal.withInitial(() -> 0); //Of a borrowed scratch
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTORS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Builds a snapshot, its word index and its default vocabulary from a pair of vector maps.
+	 * The replacement words are scanned in the map's iteration order and share the vectors of
+	 * the embeddings; a replacement word without an embedding is skipped, as FileVectorMapper
+	 * never produces one.
+	 * Time Complexity: O(n + m), where n is the number of embeddings and m the number of 
+	 * replacement words
+	 *
+	 * @param embeddingsMap map of every known word to its vector
+	 * @param replacementWordsMap map of the words that may be used as replacements
+	 * @param calcType the similarity metric to use
+	 */
+	public EngineSnapshot(Map<String, double[]> embeddingsMap, Map<String, double[]> replacementWordsMap,
+			CalculatorType calcType) {
+		this.embeddingsMap = Collections.unmodifiableMap(embeddingsMap);
+		this.wordIndex = new WordIndex(embeddingsMap);
+		this.vocabulary = new Vocabulary(Vocabulary.DEFAULT, wordIndex, replacementWordsMap.keySet());
+		this.replacementWords = vocabulary.getWords();
+		this.replacementVectors = vocabulary.getVectors();
+		this.calcType = calcType;
+		this.similarityCalculator = createCalculator(calcType);
+		this.replacementCache = null;
+		this.prefilter = null;
+		this.memo = null;
+		this.generation = ReplacementMemo.FIRST_GENERATION;
+		this.budget = null;
+		this.budgetOrder = null;
+		this.coalescer = null;
+		this.phrases = null;
+		this.parallelScan = null;
+	}
+
+	/**
+	 * Copies an existing snapshot with a different vocabulary, metric, cache, prefilter, memo, 
+	 * budget or coalescer, sharing its maps, word index, phrases and parallel scan
+	 */
+	private EngineSnapshot(EngineSnapshot original, Vocabulary vocabulary, CalculatorType calcType,
+			ReplacementCache replacementCache, ProjectedIndex prefilter, ReplacementMemo memo, int generation,
+			LookupBudget budget, CoalescingResolver coalescer) {
+		this(original, vocabulary, calcType, replacementCache, prefilter, memo, generation, budget, coalescer,
+				original.phrases, original.parallelScan);
+	}
+
+	/**
+	 * Copies an existing snapshot with different phrases or parallel scan as well, sharing its 
+	 * maps and word index
+	 */
+	private EngineSnapshot(EngineSnapshot original, Vocabulary vocabulary, CalculatorType calcType,
+			ReplacementCache replacementCache, ProjectedIndex prefilter, ReplacementMemo memo, int generation,
+			LookupBudget budget, CoalescingResolver coalescer, PhraseAutomaton phrases, ParallelScan parallelScan) {
+		this.embeddingsMap = original.embeddingsMap;
+		this.wordIndex = original.wordIndex;
+		this.vocabulary = vocabulary;
+		this.replacementWords = vocabulary.getWords();
+		this.replacementVectors = vocabulary.getVectors();
+		this.calcType = calcType;
+		this.similarityCalculator = createCalculator(calcType);
+		this.replacementCache = replacementCache;
+		this.prefilter = prefilter;
+		this.memo = memo;
+		this.generation = generation;
+		this.budget = budget;
+		this.budgetOrder = budget != null ? scanOrder(vocabulary, budget) : null;
+		this.coalescer = coalescer;
+		this.phrases = phrases;
+		this.parallelScan = parallelScan;
+	}
+
+	/**
+	 * Builds a snapshot from the maps currently held by a VectorMapperService
+	 * Time Complexity: O(n + m), see the constructor
+	 *
+	 * @param vectorMapper a mapper that has already loaded both maps
+	 * @param calcType the similarity metric to use
+	 * @return the new snapshot
+	 * @throws IllegalStateException if the mapper has not loaded both maps
+	 */
+	public static EngineSnapshot from(VectorMapperService vectorMapper, CalculatorType calcType) {
+		if (vectorMapper.getEmbeddingsMap() == null || vectorMapper.getReplacementWordsMap() == null) {
+			throw new IllegalStateException("Vector maps have not been loaded");
+		}
+		return new EngineSnapshot(vectorMapper.getEmbeddingsMap(), vectorMapper.getReplacementWordsMap(),
+				calcType);
+	}
+
+	/**
+	 * Returns a snapshot that uses a different metric. The maps and index are shared. Cached 
+	 * results belong to the old metric, so the new snapshot has no replacement cache and starts 
+	 * an empty memo if this one has a memo. The prefilter does not depend on the metric and is 
+	 * kept.
+	 * Time Complexity: O(1), O(c) with a memo, where c is the capacity of the word index
+	 *
+	 * @param calcType the similarity metric to use
+	 * @return this snapshot if the metric is unchanged, otherwise a new snapshot
+	 */
+	public EngineSnapshot withCalculator(CalculatorType calcType) {
+		return calcType == this.calcType ? this 
+				: new EngineSnapshot(this, vocabulary, calcType, null, prefilter, newMemo(), ReplacementMemo.FIRST_GENERATION, budget, coalescer);
+	}
+
+	/**
+	 * Returns a snapshot that replaces words with the words of another vocabulary built over 
+	 * the same word index. The maps and word index are shared, so this costs only the 
+	 * vocabulary itself. A replacement cache and prefilter belong to the old vocabulary, so the 
+	 * new snapshot has neither, and it starts an empty memo if this one has a memo. To edit a 
+	 * few words of the current vocabulary, {@link #withVocabularyChanges} keeps what it can.
+	 * Time Complexity: O(1), O(c) with a memo, where c is the capacity of the word index
+	 *
+	 * @see Vocabulary
+	 * @param vocabulary the replacement words to use
+	 * @return this snapshot if the vocabulary is unchanged, otherwise a new snapshot
+	 * @throws IllegalArgumentException if the vocabulary belongs to another word index
+	 */
+	public EngineSnapshot withVocabulary(Vocabulary vocabulary) {
+		if (vocabulary.getIndex() != wordIndex) {
+			throw new IllegalArgumentException("Vocabulary " + vocabulary.getName() + " belongs to another model");
+		}
+		return vocabulary == this.vocabulary ? this 
+				: new EngineSnapshot(this, vocabulary, calcType, null, null, newMemo(), ReplacementMemo.FIRST_GENERATION, budget, coalescer);
+	}
+
+	/**
+	 * Returns a snapshot whose vocabulary has words added and removed, without rebuilding 
+	 * anything the edit does not affect. The vocabulary is edited in place of being reloaded 
+	 * (see Vocabulary#edit), and the memo moves to a new generation: every resolved word is 
+	 * scored against the added words only, and only the words whose replacement was removed 
+	 * are searched again, lazily. This snapshot keeps answering with the old vocabulary.
+	 *
+	 * A prefilter is rebuilt over the edited vocabulary and its memo starts empty, as a 
+	 * shortlist does not decide ties as a full scan does. A persistent replacement cache holds 
+	 * results for the old vocabulary, so the new snapshot has none.
+	 * Time Complexity: O(m + c + r*a*d), where m is the number of replacement words, c the 
+	 * capacity of the word index, r the number of resolved words, a the number of added words 
+	 * and d the number of dimensions
+	 *
+	 * @see ReplacementMemo#update
+	 * @param added the words to add, appended to the scan order
+	 * @param removed the words to remove
+	 * @return the new snapshot
+	 */
+	public EngineSnapshot withVocabularyChanges(Collection<String> added, Collection<String> removed) {
+		Vocabulary edited = vocabulary.edit(added, removed);
+		if (prefilter != null) {
+			return new EngineSnapshot(this, edited, calcType, null, prefilter.rebuild(edited.getVectors()), 
+					newMemo(), ReplacementMemo.FIRST_GENERATION, budget, coalescer);
+		}
+		if (memo == null) {
+			return new EngineSnapshot(this, edited, calcType, null, null, null, generation, budget, coalescer);
+		}
+
+		int[] addedRows = Arrays.stream(edited.getRows()).filter(row -> !vocabulary.contains(row)).toArray();
+		int[] removedRows = Arrays.stream(vocabulary.getRows()).filter(row -> !edited.contains(row)).toArray();
+		int next = memo.update(wordIndex, generation, addedRows, removedRows, similarityCalculator, 
+				isHigherBetter(calcType));
+		return new EngineSnapshot(this, edited, calcType, null, null, memo, next, budget, coalescer);
+	}
+
+	/**
+	 * Returns a snapshot that remembers the replacement of every word it resolves in memory, so 
+	 * each distinct word is searched once for the life of the snapshot and the snapshots 
+	 * derived from it by {@link #withVocabularyChanges} and {@link #withReplacementCache}. 
+	 * Reading the memo allocates nothing.
+	 * Time Complexity: O(c), where c is the capacity of the word index
+	 *
+	 * @see ReplacementMemo
+	 * @param enabled whether to memoise results
+	 * @return this snapshot if unchanged, otherwise a new snapshot
+	 */
+	public EngineSnapshot withMemo(boolean enabled) {
+		if (enabled == (memo != null)) {
+			return this;
+		}
+		return new EngineSnapshot(this, vocabulary, calcType, replacementCache, prefilter, 
+				enabled ? new ReplacementMemo(wordIndex) : null, ReplacementMemo.FIRST_GENERATION, budget, coalescer);
+	}
+
+	/**
+	 * Returns a snapshot that searches within a latency budget: replacement words are scanned 
+	 * in the budget's priority order, and once the budget is spent the best word so far is 
+	 * returned and counted as approximate. A search within the budget returns exactly what a 
+	 * full scan returns. Approximate results are neither memoised nor cached. A prefilter 
+	 * already bounds the work per token, so a prefiltered snapshot does not use the budget.
+	 * Time Complexity: O(m + p*k), where m is the number of replacement words and p the number 
+	 * of priority words of length k
+	 *
+	 * @see LookupBudget
+	 * @param budget the budget, or null for none
+	 * @return the new snapshot, sharing the maps, index and memo
+	 */
+	public EngineSnapshot withBudget(LookupBudget budget) {
+		return budget == this.budget ? this 
+				: new EngineSnapshot(this, vocabulary, calcType, replacementCache, prefilter, memo, generation, budget, coalescer);
+	}
+
+	/**
+	 * Returns a snapshot that resolves the new words of each text through a coalescing resolver 
+	 * before simplifying it, so concurrent texts share one blocked pass over the replacement 
+	 * vectors. The results land in the memo, which the snapshot must have; a prefilter or 
+	 * budget searches word by word, so such snapshots do not coalesce.
+	 * Time Complexity: O(1)
+	 *
+	 * @see CoalescingResolver
+	 * @param coalescer the resolver, or null to search each word when it is met
+	 * @return the new snapshot, sharing the maps, index and memo
+	 * @throws IllegalStateException if a resolver is given and the snapshot has no memo
+	 */
+	public EngineSnapshot withCoalescer(CoalescingResolver coalescer) {
+		if (coalescer != null && memo == null) {
+			throw new IllegalStateException("Coalesced results are kept in the memo, which is not enabled");
+		}
+		return coalescer == this.coalescer ? this 
+				: new EngineSnapshot(this, vocabulary, calcType, replacementCache, prefilter, memo, generation, budget, coalescer);
+	}
+
+	/**
+	 * Returns a snapshot that replaces multi-word phrases before searching for word replacements.
+	 * Each line is matched against the phrases in one pass over its words, a matched phrase is 
+	 * written as its replacement, and only the words outside phrases are replaced by the 
+	 * nearest replacement word. The replacement of a word does not depend on the phrases, so 
+	 * the memo, cache and prefilter are shared.
+	 * Time Complexity: O(1)
+	 *
+	 * @see PhraseAutomaton
+	 * @param phrases the phrases, or null for none
+	 * @return this snapshot if the phrases are unchanged, otherwise a new snapshot
+	 */
+	public EngineSnapshot withPhrases(PhraseAutomaton phrases) {
+		return phrases == this.phrases ? this 
+				: new EngineSnapshot(this, vocabulary, calcType, replacementCache, prefilter, memo, generation, budget, 
+						coalescer, phrases, parallelScan);
+	}
+
+	/**
+	 * Returns a snapshot that splits each search over the replacement words into partitions 
+	 * scanned in parallel, when the vocabulary is large enough for the split to pay off. The 
+	 * parallel search chooses exactly the word the sequential scan chooses, so the memo and 
+	 * cache are shared. A prefilter or budget bounds the work per token instead, so such 
+	 * snapshots scan sequentially.
+	 * Time Complexity: O(1)
+	 *
+	 * @see ParallelScan
+	 * @param parallelScan the parallel scan, or null to scan sequentially
+	 * @return this snapshot if the parallel scan is unchanged, otherwise a new snapshot
+	 */
+	public EngineSnapshot withParallelScan(ParallelScan parallelScan) {
+		return parallelScan == this.parallelScan ? this 
+				: new EngineSnapshot(this, vocabulary, calcType, replacementCache, prefilter, memo, generation, budget, 
+						coalescer, phrases, parallelScan);
+	}
+
+	/**
+	 * Returns a snapshot that consults a persistent replacement cache before searching and 
+	 * records newly resolved words in it. The cache must belong to this snapshot's model and 
+	 * metric. The maps and index are shared.
+	 * Time Complexity: O(1)
+	 *
+	 * @see ReplacementCache
+	 * @param replacementCache the cache to use, or null for none
+	 * @return the new snapshot
+	 */
+	public EngineSnapshot withReplacementCache(ReplacementCache replacementCache) {
+		return new EngineSnapshot(this, vocabulary, calcType, replacementCache, prefilter, memo, generation, budget, coalescer);
+	}
+
+	/**
+	 * Returns a snapshot that shortlists candidates in a randomly projected lower dimension and 
+	 * only re-ranks the shortlist with the exact calculator. Results are approximate, so a 
+	 * replacement cache should not be shared with exact snapshots.
+	 * Time Complexity: O(m*d*k), see ProjectedIndex
+	 *
+	 * @see ProjectedIndex
+	 * @param dims the reduced dimension
+	 * @param candidates the number of candidates re-ranked on the full vectors
+	 * @param seed seed of the random projection
+	 * @return the new snapshot, sharing the maps and index
+	 */
+	public EngineSnapshot withPrefilter(int dims, int candidates, long seed) {
+		return new EngineSnapshot(this, vocabulary, calcType, replacementCache, 
+				new ProjectedIndex(replacementVectors, dims, candidates, seed), newMemo(), ReplacementMemo.FIRST_GENERATION, budget, coalescer);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Simplifies a text line by line. See TextSimplifier#processText(String).
+	 *
+	 * Time complexity: O(n*m). Splitting file into lines takes O(n), where n is the number of lines.
+	 * Each line is then split into m words O(m)
+	 *
+	 * @param inputText the text to be simplified
+	 * @return the simplified text
+	 */
+	public String processText(String inputText) {
+		StringWriter simplifiedContent = new StringWriter(inputText.length());
+		try {
+			processText(inputText, simplifiedContent);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); //A StringWriter never throws
+		}
+		return simplifiedContent.toString();
+	}
+
+	/**
+	 * Simplifies a text line by line, writing each line as soon as it is simplified instead of
+	 * building the whole result first. Lines are split as split("\\R") splits them, and the
+	 * output is the simplified lines joined with the line separator and trimmed: empty lines are
+	 * held back until the next non-empty line, so leading and trailing empty lines are dropped.
+	 *
+	 * Time complexity: O(n*m), see {@link #processText(String)}
+	 *
+	 * @param inputText the text to be simplified
+	 * @param output where the simplified text is written
+	 * @throws IOException if the output cannot be written
+	 */
+	public void processText(String inputText, Writer output) throws IOException {
+		if (coalescer != null && prefilter == null && budget == null) {
+			resolveNewWords(inputText);
+		}
+		Scratch borrowed = borrowScratch();
+		Scratch scratch = scratch();
+		scratch.approximateTokens = 0;
+		try {
+			if (budget == null) {
+				processLines(inputText, output, scratch);
+				return;
+			}
+			scratch.deadline = budget.getNanosPerText() == LookupBudget.UNLIMITED ? Long.MAX_VALUE 
+					: System.nanoTime() + budget.getNanosPerText();
+			try {
+				processLines(inputText, output, scratch);
+			} finally {
+				scratch.deadline = Long.MAX_VALUE; //Words looked up outside a text have no deadline
+				budget.recordText(scratch.approximateTokens);
+			}
+		} finally {
+			returnScratch(borrowed);
+		}
+	}
+
+	/**
+	 * Searches for the replacements of a batch of words in one blocked pass over the replacement 
+	 * vectors and records them in the memo. Each block of replacement vectors is scored against 
+	 * every word before moving on, so it is read from memory once per batch instead of once per 
+	 * word. Each word still meets the candidates in scan order and is scored by the same 
+	 * calculator, so it gets exactly the replacement findReplacementWord would find. Words 
+	 * resolved meanwhile are skipped.
+	 * Time complexity: O(w*m*d), where w is the number of words, m the number of replacement 
+	 * words and d the number of dimensions
+	 *
+	 * @see CoalescingResolver
+	 * @param rows the rows of the words in the word index, without duplicates
+	 * @return the number of words scored
+	 */
+	int resolveAll(int[] rows) {
+		int[] pending = Arrays.stream(rows).filter(row -> memo.get(row, generation) == ReplacementMemo.MISS).toArray();
+		double[][] targets = new double[pending.length][];
+		for (int q = 0; q < pending.length; q++) {
+			targets[q] = wordIndex.getVector(pending[q]);
+		}
+		int[] closest = new int[pending.length];
+		double[] bestScores = new double[pending.length];
+		boolean higherIsBetter = isHigherBetter(calcType);
+		Arrays.fill(closest, -1);
+		Arrays.fill(bestScores, higherIsBetter ? Double.MIN_VALUE : Double.MAX_VALUE); //As findClosestIndex
+
+		for (int blockStart = 0; blockStart < replacementVectors.length; blockStart += SCORING_BLOCK) {
+			int blockEnd = Math.min(replacementVectors.length, blockStart + SCORING_BLOCK);
+			for (int q = 0; q < pending.length; q++) {
+				double[] targetVector = targets[q];
+				for (int i = blockStart; i < blockEnd; i++) {
+					double similarityScore = similarityCalculator.calculate(targetVector, replacementVectors[i]);
+					if (higherIsBetter ? similarityScore > bestScores[q] : similarityScore < bestScores[q]) {
+						bestScores[q] = similarityScore;
+						closest[q] = i;
+					}
+				}
+			}
+		}
+
+		for (int q = 0; q < pending.length; q++) {
+			memo.put(pending[q], generation, closest[q] >= 0 ? vocabulary.getRows()[closest[q]] : ReplacementMemo.NONE);
+			if (replacementCache != null) {
+				String word = wordIndex.getWord(pending[q]);
+				replacementCache.put(word, closest[q] >= 0 ? replacementWords[closest[q]] : word);
+			}
+		}
+		return pending.length;
+	}
+
+	/**
+	 * Number of replacements in the last text the calling thread processed that were cut short 
+	 * by a latency budget, so a caller can flag the text as approximate
+	 * @see #withBudget(LookupBudget)
+	 * @return the number of approximate replacements, 0 without a budget
+	 */
+	public static int lastApproximateTokens() {
+		Scratch scratch = SCRATCH.get();
+		return scratch != null ? scratch.approximateTokens : LAST_APPROXIMATE_TOKENS.get();
+	}
+
+	/**
+	 * Simplifies a text line by line into a writer, see {@link #processText(String, Writer)}
+	 */
+	private void processLines(String inputText, Writer output, Scratch scratch) throws IOException {
+		int pendingEmptyLines = 0; //Simplified lines that came out empty
+		int unconfirmedLines = 0; //Empty input lines, dropped by split unless a line follows
+		boolean wroteContent = false;
+		int length = inputText.length();
+		int start = 0;
+		while (start < length || (length == 0 && start == 0)) {
+			int end = start;
+			while (end < length && !isLineBreak(inputText.charAt(end))) {
+				end++;
+			}
+			if (end == start && length > 0) {
+				unconfirmedLines++;
+			} else {
+				//Every empty line before this one is a line of its own
+				for (int i = 0; i <= unconfirmedLines; i++) {
+					int lineEnd = i < unconfirmedLines ? start : end;
+					simplifyLine(inputText, start, lineEnd, scratch.line);
+					if (scratch.line.isEmpty()) {
+						if (wroteContent) {
+							pendingEmptyLines++;
+						}
+						continue;
+					}
+					if (wroteContent) {
+						for (int j = 0; j <= pendingEmptyLines; j++) {
+							output.write(System.lineSeparator());
+						}
+					}
+					write(scratch, output);
+					wroteContent = true;
+					pendingEmptyLines = 0;
+				}
+				unconfirmedLines = 0;
+			}
+			if (end == length) {
+				break;
+			}
+			boolean crlf = inputText.charAt(end) == '\r' && end + 1 < length && inputText.charAt(end + 1) == '\n';
+			start = end + (crlf ? 2 : 1);
+		}
+	}
+
+	/**
+	 * Simplifies a single line of text by replacing words with their closest matches.
+	 *
+	 * Time complexity: O(n). Splitting lines into words O(n), where n is the number of words.
+	 * Each word is then sent to findReplacementWord() O(1), where m is the number of words in the replacement map
+	 *
+	 * @param line the line of text to be simplified
+	 * @return the simplified line of text
+	 */
+	public String simplifyLine(String line) {
+		StringBuilder simplifiedLine = scratch().line;
+		simplifyLine(line, 0, line.length(), simplifiedLine);
+		return simplifiedLine.toString();
+	}
+
+	/**
+	 * Simplifies the line made of a range of characters into a builder, without allocating.
+	 * Words are split as split("\\s+") splits them (so a line starting with whitespace has an
+	 * empty first word), and the result is the replacements joined by single spaces and trimmed.
+	 * With phrases, matched phrases are replaced first, see {@link #withPhrases(PhraseAutomaton)}.
+	 *
+	 * Time complexity: O(n), where n is the number of characters in the line
+	 *
+	 * @param text the characters holding the line
+	 * @param start index of the first character of the line
+	 * @param end index after the last character of the line
+	 * @param simplifiedLine cleared, then receives the simplified line
+	 */
+	public void simplifyLine(CharSequence text, int start, int end, StringBuilder simplifiedLine) {
+		simplifiedLine.setLength(0);
+		if (phrases != null) {
+			simplifyPhrases(text, start, end, simplifiedLine);
+			trim(simplifiedLine);
+			return;
+		}
+		int position = start;
+		while (position < end && isWhitespace(text.charAt(position))) {
+			position++;
+		}
+		if (start == end || (position > start && position < end)) {
+			appendReplacement(text, start, start, simplifiedLine); //The empty first word
+		}
+		while (position < end) {
+			int wordStart = position;
+			while (position < end && !isWhitespace(text.charAt(position))) {
+				position++;
+			}
+			appendReplacement(text, wordStart, position, simplifiedLine);
+			while (position < end && isWhitespace(text.charAt(position))) {
+				position++;
+			}
+		}
+		trim(simplifiedLine);
+	}
+
+	/**
+	 * Replaces the phrases of a line, and the words outside them, into a builder. The empty 
+	 * first word of a line starting with whitespace is left out, as it only adds a space that 
+	 * is trimmed.
+	 */
+	private void simplifyPhrases(CharSequence text, int start, int end, StringBuilder simplifiedLine) {
+		Scratch scratch = scratch();
+		int count = 0;
+		int position = start;
+		while (position < end) {
+			while (position < end && isWhitespace(text.charAt(position))) {
+				position++;
+			}
+			if (position == end) {
+				break;
+			}
+			if (count == scratch.wordStarts.length) {
+				scratch.wordStarts = Arrays.copyOf(scratch.wordStarts, count * 2);
+				scratch.wordEnds = Arrays.copyOf(scratch.wordEnds, count * 2);
+				scratch.phraseLengths = new int[count * 2];
+				scratch.phraseIds = new int[count * 2];
+			}
+			scratch.wordStarts[count] = position;
+			while (position < end && !isWhitespace(text.charAt(position))) {
+				position++;
+			}
+			scratch.wordEnds[count++] = position;
+		}
+
+		int[] lengths = scratch.phraseLengths;
+		phrases.match(text, scratch.wordStarts, scratch.wordEnds, count, lengths, scratch.phraseIds);
+		for (int i = 0; i < count; i++) {
+			if (lengths[i] == 0) {
+				appendReplacement(text, scratch.wordStarts[i], scratch.wordEnds[i], simplifiedLine);
+				continue;
+			}
+			String replacement = phrases.getReplacement(scratch.phraseIds[i]);
+			if (!replacement.isEmpty()) {
+				simplifiedLine.append(replacement).append(' ');
+			}
+			i += lengths[i] - 1; //Skip the rest of the phrase
+		}
+	}
+
+	/**
+	 * As String#trim(): drops leading and trailing characters up to and including the space
+	 */
+	private static void trim(StringBuilder simplifiedLine) {
+		int trimmedEnd = simplifiedLine.length();
+		while (trimmedEnd > 0 && simplifiedLine.charAt(trimmedEnd - 1) <= ' ') {
+			trimmedEnd--;
+		}
+		simplifiedLine.setLength(trimmedEnd);
+		int trimmedStart = 0;
+		while (trimmedStart < trimmedEnd && simplifiedLine.charAt(trimmedStart) <= ' ') {
+			trimmedStart++;
+		}
+		simplifiedLine.delete(0, trimmedStart);
+	}
+
+	/**
+	 * Finds a replacement word for a given word by searching in the vocabulary.
+	 * If the word is not found, it finds the closest word based on vector similarity, unless the
+	 * replacement cache already holds the result from an earlier search.
+	 *
+	 * Time complexity: O(1). HashMap key lookup time.
+	 *
+	 * @param word the word to find a replacement for
+	 * @return the replacement word, or the original word if no suitable replacement is found
+	 */
+	public String findReplacementWord(String word) {
+		String replacement = findReplacementWord(word, 0, word.length());
+		return replacement != null ? replacement : word;
+	}
+
+	/**
+	 * Finds a replacement word for the word made of a range of characters, as
+	 * {@link #findReplacementWord(String)} does, without allocating.
+	 *
+	 * Time complexity: O(1) expected for the lookup, O(n) for a search of the replacement index
+	 *
+	 * @param text the characters holding the word
+	 * @param start index of the first character of the word
+	 * @param end index after the last character of the word
+	 * @return the replacement word, or {@code null} if the word is kept as it is
+	 */
+	public String findReplacementWord(CharSequence text, int start, int end) {
+		// Check if the word exists in the embeddings, and then in the vocabulary
+		int row = wordIndex.find(text, start, end);
+		if (row < 0 || vocabulary.contains(row)) {
+			return null; // If not known at all, or already a replacement word, keep the word the same
+		}
+		double[] targetVector = wordIndex.getVector(row);
+
+		// Reuse the result of an earlier search by this snapshot
+		int winner = memo != null ? memo.get(row, generation) : ReplacementMemo.MISS;
+		if (winner != ReplacementMemo.MISS) {
+			return winner == ReplacementMemo.NONE ? null : wordIndex.getWord(winner);
+		}
+
+		// Reuse the result of an earlier search by this or another process
+		String word = wordIndex.getWord(row);
+		if (replacementCache != null) {
+			String cached = replacementCache.get(word);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		// Find the closest word in the vocabulary
+		int closest = findClosestIndex(targetVector);
+		String replacement = closest >= 0 ? replacementWords[closest] : word; // The closest word, or the original if none found
+		if (budgetOrder != null && prefilter == null && scratch().approximate) {
+			return replacement; // Cut short by the budget, so neither memoised nor cached
+		}
+		if (memo != null) {
+			memo.put(row, generation, closest >= 0 ? vocabulary.getRows()[closest] : ReplacementMemo.NONE);
+		}
+		if (replacementCache != null) {
+			replacementCache.put(word, replacement);
+		}
+		return replacement;
+	}
+
+	/**
+	 * Finds the closest word in the replacement index to a given target vector and its score,
+	 * so results from several indexes (e.g. shards) can be compared. With a prefilter only the
+	 * shortlisted candidates are scored.
+	 *
+	 * Time complexity: O(n) Iterates through the replacement index O(n)
+	 *
+	 * @param targetVector the vector representation of the target word
+	 * @return the closest match, or {@code null} if no suitable word is found
+	 */
+	public Match findClosestMatch(double[] targetVector) {
+		int closest = findClosestIndex(targetVector);
+		return closest >= 0 
+				? new Match(replacementWords[closest], similarityCalculator.calculate(targetVector, replacementVectors[closest]))
+				: null;
+	}
+
+	/**
+	 * Finds the closest word under every metric in one fused scan of the replacement index. Each
+	 * pair of vectors is loaded once and the dot product is shared: cosine divides it by the
+	 * norms, which are computed once per vector, and the Euclidean distance is summed in the same
+	 * loop. Every score is accumulated exactly as its SimilarityCalculator accumulates it, so the
+	 * winners are the ones a single-metric run would choose. The prefilter, if any, is not used.
+	 *
+	 * Time complexity: O(n*d), about the cost of one single-metric scan
+	 *
+	 * @param targetVector the vector representation of the target word
+	 * @return the closest match for each metric, indexed by CalculatorType#ordinal(), with
+	 * {@code null} where no suitable word is found
+	 */
+	public Match[] findClosestMatches(double[] targetVector) {
+		double[] normsSquared = replacementNormsSquared;
+		if (normsSquared == null) {
+			normsSquared = new double[replacementVectors.length];
+			for (int i = 0; i < replacementVectors.length; i++) {
+				normsSquared[i] = sumOfSquares(replacementVectors[i]);
+			}
+			replacementNormsSquared = normsSquared; //Racing threads compute the same values
+		}
+		double targetNorm = Math.sqrt(sumOfSquares(targetVector));
+
+		int bestDot = -1, bestCosine = -1, bestEuclidean = -1;
+		double bestDotScore = Double.MIN_VALUE;
+		double bestCosineScore = Double.MIN_VALUE;
+		double bestEuclideanScore = Double.MAX_VALUE;
+		for (int i = 0; i < replacementVectors.length; i++) {
+			double[] vector = replacementVectors[i];
+			if (vector.length != targetVector.length) {
+				throw new IllegalArgumentException("Error: Vectors are not same length");
+			}
+			double dot = 0.0d;
+			double squaredDistance = 0.0d;
+			for (int j = 0; j < vector.length; j++) {
+				double a = targetVector[j];
+				double b = vector[j];
+				dot += a * b;
+				squaredDistance += Math.pow(a - b, 2); //As EuclideanCalculator
+			}
+			double cosine = dot / (targetNorm * Math.sqrt(normsSquared[i]));
+			double distance = Math.sqrt(squaredDistance);
+
+			if (dot > bestDotScore) {
+				bestDotScore = dot;
+				bestDot = i;
+			}
+			if (cosine > bestCosineScore) {
+				bestCosineScore = cosine;
+				bestCosine = i;
+			}
+			if (distance < bestEuclideanScore) {
+				bestEuclideanScore = distance;
+				bestEuclidean = i;
+			}
+		}
+
+		Match[] matches = new Match[CalculatorType.values().length];
+		matches[CalculatorType.DOT_PRODUCT.ordinal()] = bestDot < 0 ? null 
+				: new Match(replacementWords[bestDot], bestDotScore);
+		matches[CalculatorType.COSINE.ordinal()] = bestCosine < 0 ? null 
+				: new Match(replacementWords[bestCosine], bestCosineScore);
+		matches[CalculatorType.EUCLIDEAN.ordinal()] = bestEuclidean < 0 ? null 
+				: new Match(replacementWords[bestEuclidean], bestEuclideanScore);
+		return matches;
+	}
+
+	/**
+	 * Describes the settings, other than the model files and metric, that change the text the 
+	 * snapshot writes: the prefilter, the phrase file and a per-token candidate budget. Work 
+	 * stored for later runs, such as simplified chunks, must be keyed by it as well as by 
+	 * FileFingerprint#modelKey, so an approximate or phrase-rewritten result is never reused by 
+	 * an exact run. A time budget depends on the machine's load rather than the settings, so 
+	 * its results must not be stored at all.
+	 * Time Complexity: O(1)
+	 *
+	 * @return an empty string for an exact snapshot without phrases, otherwise the settings
+	 */
+	public String getOutputKey() {
+		StringBuilder key = new StringBuilder();
+		if (prefilter != null) {
+			key.append('|').append(prefilter);
+		}
+		if (phrases != null) {
+			key.append("|phrases:").append(phrases.getSource());
+		}
+		if (budgetOrder != null && prefilter == null && budget.getCandidatesPerToken() != LookupBudget.UNLIMITED) {
+			key.append("|candidates:").append(budget.getCandidatesPerToken());
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Whether a higher score means a closer word for a metric
+	 * @param calcType the similarity metric
+	 * @return true for Dot Product and Cosine, false for Euclidean distance
+	 */
+	public static boolean isHigherBetter(CalculatorType calcType) {
+		return calcType == CalculatorType.DOT_PRODUCT || calcType == CalculatorType.COSINE;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Finds the position in the replacement index of the closest word to a target vector based
+	 * on the selected similarity calculator.
+	 *
+	 * Time complexity: O(n) Iterates through the replacement index O(n)
+	 *
+	 * @return the index of the closest word, or -1 if no suitable word is found
+	 */
+	private int findClosestIndex(double[] targetVector) {
+		if (budgetOrder != null && prefilter == null) {
+			return findClosestIndexWithinBudget(targetVector);
+		}
+		if (parallelScan != null && prefilter == null) {
+			int partitions = parallelScan.partitions(replacementVectors.length, targetVector.length);
+			if (partitions > 1) {
+				ScanTask scan = new ScanTask(targetVector, 0, replacementVectors.length, partitions);
+				parallelScan.getPool().invoke(scan);
+				return scan.closest;
+			}
+		}
+		int closest = -1;
+		boolean higherIsBetter = isHigherBetter(calcType);
+		double bestScore = higherIsBetter
+				? Double.MIN_VALUE  // For Cosine & Dot Product, use MIN_VALUE
+				: Double.MAX_VALUE; // For Euclidean, use MAX_VALUE
+
+		// Loop through replacement index (or the prefilter's shortlist) to find the closest word
+		int[] shortlist = prefilter != null ? prefilter.shortlist(targetVector, calcType) : null;
+		int count = shortlist != null ? shortlist.length : replacementVectors.length;
+		for (int c = 0; c < count; c++) {
+			int i = shortlist != null ? shortlist[c] : c;
+			double similarityScore = similarityCalculator.calculate(targetVector, replacementVectors[i]);
+
+			// For Cosine and Dot Product, get highest score. For Euclidean, get lowest score
+			if (higherIsBetter ? similarityScore > bestScore : similarityScore < bestScore) {
+				bestScore = similarityScore;
+				closest = i;
+			}
+		}
+
+		return closest;
+	}
+
+	/**
+	 * Finds the position of the closest word as findClosestIndex does, scanning in the budget's 
+	 * priority order until the budget is spent. Equal scores go to the earlier scan position, 
+	 * so the winner of a complete scan is the one the full scan chooses. Whether the search 
+	 * was cut short is left in the thread's scratch.
+	 *
+	 * Time complexity: O(b), where b is the number of candidates the budget allows
+	 *
+	 * @return the index of the closest word found, or -1 if no suitable word is found
+	 */
+	private int findClosestIndexWithinBudget(double[] targetVector) {
+		Scratch scratch = scratch();
+		int closest = -1;
+		boolean higherIsBetter = isHigherBetter(calcType);
+		double bestScore = higherIsBetter ? Double.MIN_VALUE : Double.MAX_VALUE; //As findClosestIndex
+
+		int count = budget.getCandidatesPerToken() == LookupBudget.UNLIMITED ? budgetOrder.length 
+				: Math.min(budgetOrder.length, budget.getCandidatesPerToken());
+		boolean approximate = count < budgetOrder.length;
+		for (int c = 0; c < count; c++) {
+			//Past the deadline every token still gets the first, most likely, candidates
+			if (c >= LookupBudget.MIN_CANDIDATES && c % LookupBudget.MIN_CANDIDATES == 0 
+					&& System.nanoTime() > scratch.deadline) {
+				approximate = true;
+				break;
+			}
+			int i = budgetOrder[c];
+			double similarityScore = similarityCalculator.calculate(targetVector, replacementVectors[i]);
+			if (higherIsBetter ? similarityScore > bestScore : similarityScore < bestScore) {
+				bestScore = similarityScore;
+				closest = i;
+			} else if (similarityScore == bestScore && i < closest) {
+				closest = i; //The full scan meets the earlier position first
+			}
+		}
+
+		scratch.approximate = approximate;
+		if (approximate) {
+			scratch.approximateTokens++;
+		}
+		budget.recordSearch(approximate);
+		return closest;
+	}
+
+	/**
+	 * Scans a range of the replacement vectors for the closest word as findClosestIndex does, 
+	 * split into partitions that are scanned as parallel ForkJoin tasks. The left half is 
+	 * forked and the right half scanned by the current thread, and the halves' winners are 
+	 * merged preferring the left on equal scores, so the earlier position wins as in the 
+	 * sequential scan.
+	 */
+	private final class ScanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L; //Never serialised, tasks only live for one search
+
+		private final double[] targetVector;
+		private final int from; //First position scanned
+		private final int to; //Position after the last one scanned
+		private final int partitions;
+		private int closest = -1; //Result: the closest position in the range, or -1
+		private double bestScore; //Result: its score
+
+		private ScanTask(double[] targetVector, int from, int to, int partitions) {
+			this.targetVector = targetVector;
+			this.from = from;
+			this.to = to;
+			this.partitions = partitions;
+		}
+
+		@Override
+		protected void compute() {
+			boolean higherIsBetter = isHigherBetter(calcType);
+			if (partitions == 1) {
+				bestScore = higherIsBetter ? Double.MIN_VALUE : Double.MAX_VALUE; //As findClosestIndex
+				for (int i = from; i < to; i++) {
+					double similarityScore = similarityCalculator.calculate(targetVector, replacementVectors[i]);
+					if (higherIsBetter ? similarityScore > bestScore : similarityScore < bestScore) {
+						bestScore = similarityScore;
+						closest = i;
+					}
+				}
+				return;
+			}
+
+			int leftPartitions = partitions / 2;
+			int middle = (int) (from + (long) (to - from) * leftPartitions / partitions);
+			ScanTask left = new ScanTask(targetVector, from, middle, leftPartitions);
+			ScanTask right = new ScanTask(targetVector, middle, to, partitions - leftPartitions);
+			left.fork();
+			right.compute();
+			left.join();
+			boolean rightWins = right.closest >= 0 && (left.closest < 0 
+					|| (higherIsBetter ? right.bestScore > left.bestScore : right.bestScore < left.bestScore));
+			ScanTask winner = rightWins ? right : left;
+			closest = winner.closest;
+			bestScore = winner.bestScore;
+		}
+	}
+
+	/**
+	 * Orders the scan positions of a vocabulary by a budget's priority words, followed by the 
+	 * words it does not list in scan order
+	 */
+	private static int[] scanOrder(Vocabulary vocabulary, LookupBudget budget) {
+		int[] order = new int[vocabulary.size()];
+		boolean[] placed = new boolean[order.length];
+		int count = 0;
+		for (String word : budget.getPriority()) {
+			int row = vocabulary.getIndex().find(word);
+			int position = row >= 0 ? vocabulary.indexOf(row) : -1;
+			if (position >= 0 && !placed[position]) {
+				placed[position] = true;
+				order[count++] = position;
+			}
+		}
+		for (int position = 0; position < order.length; position++) {
+			if (!placed[position]) {
+				order[count++] = position;
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Hands the words of a text that are not resolved yet to the coalescing resolver and waits 
+	 * until they are in the memo. Words the persistent cache holds are left to it.
+	 */
+	private void resolveNewWords(String inputText) {
+		CompletableFuture<Void> resolved = null;
+		coalescer.announce();
+		try {
+			int[] rows = collectNewWords(inputText);
+			if (rows.length > 0) {
+				resolved = coalescer.resolve(this, rows);
+			}
+		} finally {
+			coalescer.withdraw();
+		}
+		if (resolved == null) {
+			return;
+		}
+
+		try {
+			resolved.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause; //e.g. vectors of different lengths
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Finds the distinct rows of the words of a text that are neither resolved nor held by the 
+	 * persistent cache
+	 */
+	private int[] collectNewWords(String inputText) {
+		int[] rows = new int[16];
+		int count = 0;
+		int length = inputText.length();
+		int position = 0;
+		while (position < length) {
+			while (position < length && isSeparator(inputText.charAt(position))) {
+				position++;
+			}
+			int start = position;
+			while (position < length && !isSeparator(inputText.charAt(position))) {
+				position++;
+			}
+			int row = position > start ? wordIndex.find(inputText, start, position) : -1;
+			if (row >= 0 && !vocabulary.contains(row) && memo.get(row, generation) == ReplacementMemo.MISS
+					&& (replacementCache == null || replacementCache.get(wordIndex.getWord(row)) == null)) {
+				if (count == rows.length) {
+					rows = Arrays.copyOf(rows, count * 2);
+				}
+				rows[count++] = row;
+			}
+		}
+		return Arrays.stream(rows, 0, count).distinct().toArray();
+	}
+
+	/**
+	 * Whether a character separates words, either as whitespace or as a line break
+	 */
+	private static boolean isSeparator(char c) {
+		return isWhitespace(c) || isLineBreak(c);
+	}
+
+	/**
+	 * An empty memo for a derived snapshot if this snapshot memoises, otherwise null
+	 */
+	private ReplacementMemo newMemo() {
+		return memo != null ? new ReplacementMemo(wordIndex) : null;
+	}
+
+	/**
+	 * Appends the replacement for a word, or the word itself, and the separating space
+	 */
+	private void appendReplacement(CharSequence text, int start, int end, StringBuilder simplifiedLine) {
+		String replacement = findReplacementWord(text, start, end);
+		if (replacement != null) {
+			simplifiedLine.append(replacement);
+		} else {
+			simplifiedLine.append(text, start, end);
+		}
+		simplifiedLine.append(' ');
+	}
+
+	/**
+	 * The calling thread's scratch, created on first use and kept for the life of the thread
+	 */
+	private static Scratch scratch() {
+		Scratch scratch = SCRATCH.get();
+		if (scratch == null) {
+			scratch = new Scratch();
+			SCRATCH.set(scratch);
+		}
+		return scratch;
+	}
+
+	/**
+	 * Lends a pooled scratch to a virtual thread for one text, as such threads usually process
+	 * a single text and end. A platform thread keeps its own scratch, and a thread that already 
+	 * has one keeps using it.
+	 * @return the borrowed scratch to pass to returnScratch, or null if none was borrowed
+	 */
+	private static Scratch borrowScratch() {
+		if (!Thread.currentThread().isVirtual() || SCRATCH.get() != null) {
+			return null;
+		}
+		Scratch scratch = SCRATCH_POOL.poll();
+		scratch = scratch != null ? scratch : new Scratch();
+		SCRATCH.set(scratch);
+		return scratch;
+	}
+
+	/**
+	 * Gives a borrowed scratch back to the pool, keeping the count for lastApproximateTokens
+	 */
+	private void returnScratch(Scratch borrowed) {
+		if (borrowed == null) {
+			return;
+		}
+		if (budget != null) {
+			LAST_APPROXIMATE_TOKENS.set(borrowed.approximateTokens);
+		}
+		SCRATCH.remove();
+		SCRATCH_POOL.offer(borrowed); //Dropped if the pool is full
+	}
+
+	/**
+	 * Writes the scratch line through the scratch character buffer, which grows to the longest
+	 * line seen, so the Writer is given a char[] rather than a new String
+	 */
+	private static void write(Scratch scratch, Writer output) throws IOException {
+		int length = scratch.line.length();
+		if (scratch.chars.length < length) {
+			scratch.chars = new char[Math.max(length, scratch.chars.length * 2)];
+		}
+		scratch.line.getChars(0, length, scratch.chars, 0);
+		output.write(scratch.chars, 0, length);
+	}
+
+	/**
+	 * The characters \R matches on its own; \r\n is handled by the caller
+	 */
+	static boolean isLineBreak(char c) {
+		return c == '\n' || c == '\u000B' || c == '\f' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/**
+	 * The characters \s matches
+	 */
+	static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Sums the squares of a vector's components in the order CosineCalculator does
+	 */
+	private static double sumOfSquares(double[] vector) {
+		double sum = 0.0d;
+		for (double value : vector) {
+			sum += Math.pow(value, 2.0d);
+		}
+		return sum;
+	}
+
+	/**
+	 * Creates the calculator for a metric. Calculators are stateless.
+	 * @param calcType the similarity metric
+	 * @return the matching calculator
+	 */
+	private static SimilarityCalculator createCalculator(CalculatorType calcType) {
+		return switch (calcType) {
+			case DOT_PRODUCT -> new DotProductCalculator();
+			case COSINE -> new CosineCalculator();
+			case EUCLIDEAN -> new EuclideanCalculator();
+		};
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the embeddings map
+	 * @return read-only view of the embeddings map
+	 */
+	public Map<String, double[]> getEmbeddingsMap() {
+		return embeddingsMap;
+	}
+
+	/**
+	 * Getter for the shared word index
+	 * @return the index of every word of the embeddings
+	 */
+	public WordIndex getWordIndex() {
+		return wordIndex;
+	}
+
+	/**
+	 * Getter for the vocabulary of replacement words
+	 * @return the vocabulary searched by this snapshot
+	 */
+	public Vocabulary getVocabulary() {
+		return vocabulary;
+	}
+
+	/**
+	 * Getter for the candidate prefilter
+	 * @return the prefilter, or null if every candidate is scored
+	 */
+	public ProjectedIndex getPrefilter() {
+		return prefilter;
+	}
+
+	/**
+	 * Getter for the phrases
+	 * @return the phrases replaced before words, or null if only words are replaced
+	 */
+	public PhraseAutomaton getPhrases() {
+		return phrases;
+	}
+
+	/**
+	 * Getter for the latency budget
+	 * @return the budget, or null if every search is complete
+	 */
+	public LookupBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Getter for the coalescing resolver
+	 * @return the resolver, or null if words are searched when they are met
+	 */
+	public CoalescingResolver getCoalescer() {
+		return coalescer;
+	}
+
+	/**
+	 * Getter for the parallel scan
+	 * @return the parallel scan, or null if every search is sequential
+	 */
+	public ParallelScan getParallelScan() {
+		return parallelScan;
+	}
+
+	/**
+	 * Getter for the similarity metric
+	 * @return the calculator type used by this snapshot
+	 */
+	public CalculatorType getCalculatorType() {
+		return calcType;
+	}
+
+}
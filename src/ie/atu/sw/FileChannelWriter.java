@@ -0,0 +1,330 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writer that encodes text to UTF-8 into direct ByteBuffers and hands each full buffer to a
+ * background virtual thread that writes it to a FileChannel. The caller keeps encoding into the
+ * next buffer while the previous one is on its way to disk, so text can be written as it is
+ * simplified and disk I/O overlaps with the simplification instead of following it.
+ *
+ * Direct buffers and encoders are expensive to create, so they are pooled and reused by every
+ * writer in the process. An error on the writing thread is rethrown to the caller by the next
+ * write, flush or close.
+ *
+ * Instances are not thread-safe; one thread writes to a file.
+ *
+ * @see FileManagerService#openOutput(String)
+ */
+public class FileChannelWriter extends Writer {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final int BUFFER_SIZE = 64 * 1024; //Bytes per direct buffer
+	private static final int BUFFERS = 3; //One being filled, up to two being written
+	private static final ByteBuffer END = ByteBuffer.allocate(0); //Tells the writing thread to stop
+	private static final ConcurrentLinkedQueue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+	private static final ConcurrentLinkedQueue<CharsetEncoder> ENCODER_POOL = new ConcurrentLinkedQueue<>();
+
+	private final FileChannel channel;
+	private final CharsetEncoder encoder;
+	private final CharBuffer chars = CharBuffer.allocate(8 * 1024); //Text not yet encoded
+	private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFERS);
+	private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(BUFFERS + 1);
+	private final Thread writerThread;
+	private ByteBuffer current; //Buffer being filled by the caller
+	private volatile IOException failure; //First error on the writing thread
+	private volatile long writeNanos = 0; //Time spent in channel writes
+	private long stallNanos = 0; //Time the caller waited for a free buffer
+	private long bytesWritten = 0;
+	private boolean closed = false;
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates (or truncates) a file and starts its writing thread
+	 * @param path the file to write
+	 * @throws IOException if the file cannot be opened
+	 */
+	public FileChannelWriter(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		CharsetEncoder pooled = ENCODER_POOL.poll();
+		this.encoder = pooled != null ? pooled.reset() : StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		for (int i = 0; i < BUFFERS; i++) {
+			ByteBuffer buffer = BUFFER_POOL.poll();
+			free.add(buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(BUFFER_SIZE));
+		}
+		this.current = free.poll();
+		this.writerThread = Thread.ofVirtual().name("output-" + path.getFileName()).start(this::drain);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Buffers characters, encoding them once the character buffer is full
+	 * Time Complexity: O(n), where n is the number of characters
+	 */
+	@Override
+	public void write(char[] text, int offset, int length) throws IOException {
+		ensureOpen();
+		while (length > 0) {
+			int count = Math.min(length, chars.remaining());
+			chars.put(text, offset, count);
+			offset += count;
+			length -= count;
+			if (!chars.hasRemaining()) {
+				encodeChars(false);
+			}
+		}
+	}
+
+	@Override
+	public void write(String text, int offset, int length) throws IOException {
+		ensureOpen();
+		while (length > 0) {
+			int count = Math.min(length, chars.remaining());
+			chars.put(text, offset, offset + count);
+			offset += count;
+			length -= count;
+			if (!chars.hasRemaining()) {
+				encodeChars(false);
+			}
+		}
+	}
+
+	/**
+	 * Sends everything written so far to the file and waits until it has been written
+	 * @throws IOException if a write failed
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		encodeChars(false);
+		submit();
+		awaitWrites();
+		checkFailure();
+	}
+
+	/**
+	 * Writes the remaining text, waits for the writing thread and closes the file. The buffers
+	 * and encoder are returned to the pools.
+	 * @throws IOException if any write failed or the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			encodeChars(true);
+			submit();
+		} finally {
+			putUninterruptibly(full, END);
+			joinUninterruptibly();
+			BUFFER_POOL.add(current);
+			free.drainTo(BUFFER_POOL);
+			full.drainTo(BUFFER_POOL);
+			ENCODER_POOL.add(encoder);
+			channel.close();
+		}
+		checkFailure();
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Encodes the buffered characters into the current byte buffer, handing it to the writing
+	 * thread whenever it fills up. A surrogate pair split across writes is kept for the next call.
+	 */
+	private void encodeChars(boolean endOfInput) throws IOException {
+		chars.flip();
+		while (true) {
+			CoderResult result = encoder.encode(chars, current, endOfInput);
+			if (result.isOverflow()) {
+				submit();
+			} else if (result.isUnderflow()) {
+				break;
+			} else {
+				result.throwException();
+			}
+		}
+		chars.compact();
+		if (endOfInput) {
+			while (encoder.flush(current).isOverflow()) {
+				submit();
+			}
+		}
+	}
+
+	/**
+	 * Hands the current buffer to the writing thread and takes a free one, blocking if both
+	 * others are still being written
+	 */
+	private void submit() throws IOException {
+		checkFailure();
+		if (current.position() == 0) {
+			return;
+		}
+		bytesWritten += current.position();
+		current.flip();
+		putUninterruptibly(full, current);
+		long start = System.nanoTime();
+		try {
+			current = free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing output", e);
+		}
+		stallNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Waits until every submitted buffer has been written, keeping one to fill next
+	 */
+	private void awaitWrites() throws IOException {
+		ByteBuffer[] buffers = new ByteBuffer[BUFFERS - 1];
+		try {
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i] = free.take();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing output", e);
+		} finally {
+			for (ByteBuffer buffer : buffers) {
+				if (buffer != null) {
+					free.add(buffer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Body of the writing thread. After a failure the remaining buffers are discarded so the
+	 * caller never blocks; the failure is reported to the caller instead.
+	 */
+	private void drain() {
+		while (true) {
+			ByteBuffer buffer;
+			try {
+				buffer = full.take();
+			} catch (InterruptedException e) {
+				continue; //Only the END buffer stops this thread
+			}
+			if (buffer == END) {
+				return;
+			}
+			if (failure == null) {
+				long start = System.nanoTime();
+				try {
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				} catch (IOException e) {
+					failure = e;
+				}
+				writeNanos += System.nanoTime() - start;
+			}
+			free.add(buffer.clear());
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			throw new IOException("Error writing output: " + e.getMessage(), e);
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		checkFailure();
+	}
+
+	private static void putUninterruptibly(BlockingQueue<ByteBuffer> queue, ByteBuffer buffer) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(buffer);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void joinUninterruptibly() {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				writerThread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the number of encoded bytes handed to the writing thread
+	 * @return the number of bytes
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Getter for the time the writing thread spent in channel writes, overlapped with the caller
+	 * @return the write time in nanoseconds
+	 */
+	public long getWriteNanos() {
+		return writeNanos;
+	}
+
+	/**
+	 * Getter for the time the caller was blocked waiting for the disk, i.e. the part of the
+	 * write time that was not hidden behind simplification
+	 * @return the wait time in nanoseconds
+	 */
+	public long getStallNanos() {
+		return stallNanos;
+	}
+
+}
@@ -0,0 +1,98 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32C;
+
+/**
+ * Identifies the version of a file on disk so that work derived from it can be reused until the
+ * file changes. Two fingerprints are equal when the path, size, modification time and content
+ * hash are all equal.
+ *
+ * The content hash covers the first and last {@value #SAMPLE_SIZE} bytes of the file rather than
+ * the whole file, so checking a multi-gigabyte embeddings file costs two small reads instead of a
+ * full scan. It catches files that were rewritten in place with the same size and a preserved
+ * modification time.
+ *
+ * @param path the absolute, normalised path of the file
+ * @param size the size of the file in bytes
+ * @param lastModified the modification time in milliseconds since the epoch
+ * @param contentHash CRC32C of the sampled head and tail of the file
+ */
+public record FileFingerprint(String path, long size, long lastModified, long contentHash) {
+
+	private static final int SAMPLE_SIZE = 64 * 1024; //Bytes hashed at each end of the file
+
+	/**
+	 * Creates the fingerprint of a file as it currently exists on disk
+	 * Time Complexity: O(1). Reads at most 2 * SAMPLE_SIZE bytes regardless of the file size
+	 *
+	 * @param filePath the path to the file
+	 * @return the fingerprint of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static FileFingerprint of(String filePath) throws IOException {
+		Path path = Paths.get(filePath).toAbsolutePath().normalize();
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+		CRC32C crc = new CRC32C();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, size));
+			hashRange(channel, 0, buffer, crc); //Head of the file
+			if (size > SAMPLE_SIZE) {
+				hashRange(channel, Math.max(SAMPLE_SIZE, size - SAMPLE_SIZE), buffer, crc); //Tail
+			}
+		}
+
+		return new FileFingerprint(path.toString(), attributes.size(),
+				attributes.lastModifiedTime().toMillis(), crc.getValue());
+	}
+
+	/**
+	 * Builds the fingerprint of a model from the versions of its files and the metric. Paths are
+	 * not included, so moving the files does not invalidate work cached for the model.
+	 * Time Complexity: O(1), see {@link #of(String)}
+	 *
+	 * @param embeddingsPath path to the word embeddings file
+	 * @param replacementWordsPath path to the replacement words file
+	 * @param calcType the similarity metric
+	 * @return the model fingerprint
+	 * @throws IOException if a file cannot be read
+	 */
+	public static String modelKey(String embeddingsPath, String replacementWordsPath, CalculatorType calcType)
+			throws IOException {
+		return of(embeddingsPath).version() + "|" + of(replacementWordsPath).version() + "|" + calcType;
+	}
+
+	/**
+	 * The version of the file without its path
+	 * @return size, modification time and content hash as a string
+	 */
+	public String version() {
+		return size + ":" + lastModified + ":" + Long.toHexString(contentHash);
+	}
+
+	/**
+	 * Reads up to one buffer of bytes from a position in the file into the checksum
+	 */
+	private static void hashRange(FileChannel channel, long position, ByteBuffer buffer, CRC32C crc)
+			throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		crc.update(buffer);
+	}
+
+}
@@ -1,7 +1,9 @@
 package ie.atu.sw;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.Set;
 
 /**
  * Implementation of FileManagerService. This class contains logic specific to the reading and 
@@ -21,10 +23,12 @@ public class FileManager implements FileManagerService {
 
 	private final VectorMapperService vectorMapper; //Maps vectors to map
 	private final PathValidatorService pathValidator; //Validates paths
-	private String embeddingsFilePath = ""; //Location of word embeddings
-	private String replacementWordsFilePath = ""; //Location of replacement words
+	private volatile String embeddingsFilePath = ""; //Location of word embeddings
+	private volatile String replacementWordsFilePath = ""; //Location of replacement words
 	private String outputFilePath = ""; //Location of output file
 	private String textFilePath = ""; //Location of text file
+	private FileFingerprint loadedEmbeddings; //Version of the embeddings file currently loaded
+	private FileFingerprint loadedReplacementWords; //Version of the replacement file currently loaded
 
     
     //---------------------------------------------------------------------------------------------
@@ -66,18 +70,28 @@ public class FileManager implements FileManagerService {
 	 * {@inheritDoc}
 	 * 
 	 * This implementation is designed to work specifically with local text files
-	 * Time Complexity: O(n) as the file is written line by line
+	 * Time Complexity: O(n) as the text is encoded and written in buffer sized blocks
 	 */
 	@Override
     // Method to write the processed text to an output file
-    public void writeToFile(String simplifiedText, String outputFilePath) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+    public void writeToFile(String simplifiedText, String outputFilePath) throws IOException {
+        try (Writer writer = openOutput(outputFilePath)) {
             writer.write(simplifiedText);
-        } catch (IOException e) {
-            System.err.println("Error writing to file: " + e.getMessage());
         }
     }
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * This implementation writes through a FileChannelWriter, so encoded text is written to 
+	 * disk on a background thread while the caller carries on producing text.
+	 * @see FileChannelWriter
+	 */
+	@Override
+    public Writer openOutput(String outputFilePath) throws IOException {
+        return new FileChannelWriter(Paths.get(outputFilePath));
+    }
+
 		
 	//---------------------------------------------------------------------------------------------
 	// HELPER METHODS
@@ -86,29 +100,84 @@ public class FileManager implements FileManagerService {
 	/**
 	 * {@inheritDoc}
 	 * 
-	 * This implementation uses vectorMapper to load maps from the vectors of the files provided
+	 * This implementation uses vectorMapper to load maps from the vectors of the files provided.
+	 * The loaded maps are kept between calls and are only rebuilt when a path changes or the 
+	 * file's fingerprint (size, modification time or content hash) changes. A new embeddings 
+	 * file also forces the replacement words to be rebuilt, as they reference its vectors. 
+	 * Calls are synchronized so a background preload and an explicit call never load at the 
+	 * same time; interrupting the loading thread cancels the load. A file is only recorded as 
+	 * loaded once it has been read to the end, so a load that failed or was cancelled is 
+	 * repeated by the next call instead of leaving a partial map in place.
 	 * @see VectorMapperService
+	 * @see FileFingerprint
 	 * 
 	 * Time complexity: O(n+m), where n is the number of embeddings and m is the number of 
-	 * replacement words. Both are linear operations of O(n)/O(m)
+	 * replacement words. Both are linear operations of O(n)/O(m). O(1) if neither file changed
 	 */
 	@Override
     // Generates HashMaps that Map words to vectors
- 	public void generateVectorMaps() {
- 		if(embeddingsFilePath != null && replacementWordsFilePath != null) {
- 			//Load the embeddings map
+ 	public synchronized void generateVectorMaps() throws IOException {
+ 		if (embeddingsFilePath.isEmpty()) {
+ 			return; //Nothing to load yet
+ 		}
+
+ 		//Load the embeddings map if it is not already loaded
+ 		FileFingerprint embeddings = FileFingerprint.of(embeddingsFilePath);
+ 		if (!embeddings.equals(loadedEmbeddings)) {
+ 			long start = System.nanoTime();
+ 			loadedEmbeddings = null; //Invalid until the load completes
+ 			loadedReplacementWords = null;
  			vectorMapper.setEmbeddingsMap(embeddingsFilePath);
- 			//Load the google words map
+ 			loadedEmbeddings = embeddings;
+ 			System.out.println("[INFO] Loaded embeddings in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+ 		}
+
+ 		if (replacementWordsFilePath.isEmpty()) {
+ 			return;
+ 		}
+
+ 		//Load the google words map if it is not already loaded
+ 		FileFingerprint replacementWords = FileFingerprint.of(replacementWordsFilePath);
+ 		if (!replacementWords.equals(loadedReplacementWords)) {
  			vectorMapper.setReplacementWordsMap(replacementWordsFilePath);
- 			
- 			
+ 			loadedReplacementWords = replacementWords;
  		}
  	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * This implementation validates the path with PathValidatorService and reads the file with 
+	 * VectorMapperService against the embeddings map that is currently loaded
+	 * Time complexity: O(m), where m is the number of words in the file
+	 * @see VectorMapperService
+	 */
+	@Override
+	public synchronized Set<String> loadVocabulary(String path) throws Exception {
+		pathValidator.validateInputPath(path);
+		if (vectorMapper.getEmbeddingsMap() == null) {
+			throw new IllegalStateException("Embeddings must be loaded before a vocabulary");
+		}
+		return vectorMapper.readReplacementWordsMap(path).keySet();
+	}
     
     //---------------------------------------------------------------------------------------------
     // GETTERS & SETTERS
     //---------------------------------------------------------------------------------------------
 	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * This implementation returns the progress reported by the local instance of 
+	 * VectorMapperService
+	 * Time Complexity: 0(1). Simple variable retrieval.
+	 * @see VectorMapperService
+	 */
+	@Override
+	public double getLoadProgress() {
+		return vectorMapper.getLoadProgress();
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * 
@@ -130,7 +199,7 @@ public class FileManager implements FileManagerService {
 	 */
     @Override
 	public void setEmbeddingsFilePath(String embeddingsFilePath) throws Exception {
-    	pathValidator.validateInputPath(embeddingsFilePath); //validate before setting
+    	pathValidator.validateEmbeddingsPath(embeddingsFilePath); //validate before setting (.txt or .gz)
     	this.embeddingsFilePath = embeddingsFilePath;
     }
     
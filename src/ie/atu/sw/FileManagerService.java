@@ -1,7 +1,9 @@
 package ie.atu.sw;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.util.HashMap;
+import java.util.Set;
 
 /**
  * Interface method used for I/O operations. Includes calls to create vector maps and 
@@ -22,13 +24,31 @@ public interface FileManagerService {
 	 * Method to write string to file/location
 	 * @param text String to be written to file/location
 	 * @param outputFilePath Path for file/location to be written to
+	 * @throws IOException If file/location cannot be written
 	 */
-	void writeToFile(String text, String outputFilePath);
+	void writeToFile(String text, String outputFilePath) throws IOException;
 
 	/**
-	 * Method to call for vector maps to be generated
+	 * Opens a file/location for writing text as it is produced. Closing the writer finishes 
+	 * the write.
+	 * @param outputFilePath Path for file/location to be written to
+	 * @return a writer for the file/location
+	 * @throws IOException If file/location cannot be opened
+	 */
+	Writer openOutput(String outputFilePath) throws IOException;
+
+	/**
+	 * Method to call for vector maps to be generated. Implementations may reuse maps that were
+	 * generated by an earlier call if the underlying files have not changed.
+	 * @throws IOException If a file/location cannot be read
+	 */
+	void generateVectorMaps() throws IOException;
+	
+	/**
+	 * Getter method to return how much of the current (or last) vector map generation is complete
+	 * @return a fraction between 0.0 and 1.0, 1.0 if nothing is loading
 	 */
-	void generateVectorMaps();
+	double getLoadProgress();
 
 	/**
 	 * Getter method to return file/location path for word embeddings(dictionary) 
@@ -94,4 +114,13 @@ public interface FileManagerService {
 	 */
 	HashMap<String, double[]> getEmbeddingsMap();
 
+	/**
+	 * Reads an additional replacement words file/location against the loaded embeddings, for 
+	 * use as a named vocabulary. The replacement words path is not changed.
+	 * @param path String path to file/location of the replacement words
+	 * @return the words that have an embedding, in the order a replacement words map would hold them
+	 * @throws Exception if the path is invalid or the embeddings have not been loaded
+	 */
+	Set<String> loadVocabulary(String path) throws Exception;
+
 }
\ No newline at end of file
@@ -2,11 +2,25 @@ package ie.atu.sw;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 /**
  * Implementaion of VectorMapperService specific to local text files. Parses 
  * comma separated text files for key:value pairs and stores them in local variables as HashMaps.
+ * The embeddings file may be gzip compressed.
  */
 public class FileVectorMapper implements VectorMapperService {
 
@@ -16,6 +30,9 @@ public class FileVectorMapper implements VectorMapperService {
 
 	private HashMap<String, double[]> embeddingsMap;
 	private HashMap<String, double[]> replacementWordsMap;
+	private volatile long bytesRead = 0; //Bytes of the embeddings file parsed so far
+	private volatile long totalBytes = 0; //Size of the embeddings file being parsed
+	private static final int BLOCK_SIZE = 4 * 1024 * 1024; //Bytes of the embeddings file parsed per task
 	
 	//---------------------------------------------------------------------------------------------
     // MAIN LOGIC METHODS
@@ -24,33 +41,70 @@ public class FileVectorMapper implements VectorMapperService {
 	/**
 	 * Reads embeddings file line by line and generates a HashMap where the first word in every line acts 
 	 * as key. The remainder of the line is accumulated into an array of vectors and is stored as 
-	 * the value in the map.
-	 * Time Complexity: O(n). Reads file line by line and stores the values
+	 * the value in the map. Progress is tracked by counting the bytes read and the load stops 
+	 * with a CancellationException if the loading thread is interrupted.
 	 * 
+	 * The file is read in large blocks that are parsed in parallel, one block per processor, and 
+	 * merged in file order so a word that appears twice keeps its last vector. A gzip file (.gz) 
+	 * is decompressed while it is parsed without a temporary file; the members of a multi-member 
+	 * gzip file are decompressed in parallel as well.
+	 * Time Complexity: O(n/p), where p is the number of processors. Reads file block by block 
+	 * and parses the blocks in parallel
+	 * 
+	 * @see ParallelGzipReader
 	 * @param path The location of the word embeddings file
 	 * @return a HashMap with words as keys and arrays(vectors) as values
+	 * @throws IOException if the file cannot be read to the end, e.g. a truncated gzip file, so 
+	 * a partial map is never mistaken for the whole file
 	 */
-	private HashMap<String, double[]> embeddingsToMap(String path) {
+	private HashMap<String, double[]> embeddingsToMap(String path) throws IOException {
 	    HashMap<String, double[]> vectorMap = new HashMap<>(); //Store result
+	    bytesRead = 0;
+	    totalBytes = 0;
 
-	    try (BufferedReader br = new BufferedReader(new FileReader(path))) { //read file
-	        String line;
-	        while ((line = br.readLine()) != null) { //line by line
-	            String[] elements = line.split(","); //Seperate strings by ","
-	            String key = elements[0]; // 0th element is the word/key
-	            double[] vector = new double[elements.length - 1];
-	            //Iterate through the remainder of the line and store it in an array of doubles
-	            for (int i = 1; i < elements.length; i++) {
-	                vector[i - 1] = Double.parseDouble(elements[i]);
+	    int threads = Runtime.getRuntime().availableProcessors();
+	    ExecutorService workers = Executors.newFixedThreadPool(threads);
+	    try {
+	        totalBytes = Files.size(Paths.get(path));
+	        BlockParser parser = new BlockParser(workers, 2 * threads, vectorMap);
+	        if (ParallelGzipReader.isGzip(Paths.get(path))) {
+	            ParallelGzipReader.read(Paths.get(path), 2 * threads, parser::accept, n -> bytesRead = n);
+	        } else {
+	            try (InputStream in = openCounting(path)) { //read file
+	                byte[] block = new byte[BLOCK_SIZE];
+	                int length;
+	                while ((length = in.readNBytes(block, 0, block.length)) > 0) {
+	                    parser.accept(block, length);
+	                }
 	            }
-	            vectorMap.put(key, vector); //O(log n)
 	        }
-	    } catch (IOException e) {
-	        e.printStackTrace();
+	        parser.finish();
+	    } finally {
+	        workers.shutdownNow();
 	    }
 
 	    return vectorMap;
 	}
+
+	/**
+	 * Parses one line of the embeddings file into a word and its vector
+	 * Time Complexity: O(d), where d is the number of dimensions
+	 * @param line a line of comma separated values
+	 * @param keys where the word is stored
+	 * @param vectors where the vector is stored
+	 * @param index the position to store them at
+	 */
+	private static void parseLine(String line, String[] keys, double[][] vectors, int index) {
+	    String[] elements = line.split(","); //Seperate strings by ","
+	    String key = elements[0]; // 0th element is the word/key
+	    double[] vector = new double[elements.length - 1];
+	    //Iterate through the remainder of the line and store it in an array of doubles
+	    for (int i = 1; i < elements.length; i++) {
+	        vector[i - 1] = Double.parseDouble(elements[i]);
+	    }
+	    keys[index] = key;
+	    vectors[index] = vector;
+	}
 		
 	/**
 	 * Reads replacement words file line by line and matches it with the corresponding vector 
@@ -59,24 +113,198 @@ public class FileVectorMapper implements VectorMapperService {
 	 * line, parses the embeddings map key by key to find the matching vector O(m)
 	 * @param path The location of the replacement words file
 	 * @return the map of replacement words
+	 * @throws IOException if the file cannot be read to the end
 	 */
-	private HashMap<String, double[]> replacementWordsToMap(String path) {
+	private HashMap<String, double[]> replacementWordsToMap(String path) throws IOException {
 	    HashMap<String, double[]> vectorMap = new HashMap<>();
 	    try (BufferedReader br = new BufferedReader(new FileReader(path))) { //read file
 	        String line;
 	        while ((line = br.readLine()) != null) { //line by line
+	            checkInterrupted();
 	            double[] matchingVector = embeddingsMap.get(line); //Find the matching key in embeddings map
 	            if (matchingVector != null) {
 	                vectorMap.put(line, matchingVector); //Store the result (O(log n)
 	            }
 	        }
-	    } catch (IOException e) {
-	        e.printStackTrace();
 	    }
 
 	    return vectorMap;
 	}
 	
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Opens a file as a stream that adds every byte read to bytesRead
+	 * @param path The location of the file
+	 * @return the counting input stream
+	 * @throws IOException if the file cannot be opened
+	 */
+	private InputStream openCounting(String path) throws IOException {
+		return new FilterInputStream(Files.newInputStream(Paths.get(path))) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) {
+					bytesRead++;
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					bytesRead += n;
+				}
+				return n;
+			}
+		};
+	}
+	
+	/**
+	 * Splits the embeddings text into blocks of whole lines, parses the blocks on a pool of 
+	 * workers and merges the results into the map in file order. At most maxPending blocks are 
+	 * parsed or waiting at a time, so a large file is never held in memory all at once.
+	 */
+	private class BlockParser {
+		/**
+		 * The words and vectors of one block, in file order
+		 */
+		private record Parsed(String[] keys, double[][] vectors, int count) {}
+
+		private final ExecutorService workers;
+		private final int maxPending;
+		private final HashMap<String, double[]> vectorMap;
+		private final Deque<Future<Parsed>> pending = new ArrayDeque<>();
+		private byte[] carry = new byte[0]; //Start of a line that continues in the next block
+		private boolean lineFeedPending = false; //The last block ended with \r, whose \n may come next
+
+		private BlockParser(ExecutorService workers, int maxPending, HashMap<String, double[]> vectorMap) {
+			this.workers = workers;
+			this.maxPending = maxPending;
+			this.vectorMap = vectorMap;
+		}
+
+		/**
+		 * Takes the next bytes of the file. Everything up to the last line break (\n or \r, so
+		 * a file with lone \r line breaks is cut as often as any other) is parsed; the rest is
+		 * kept until the next call. A \r\n split between two calls ends a single line.
+		 */
+		private void accept(byte[] data, int length) throws IOException {
+			checkInterrupted();
+			int offset = 0;
+			if (lineFeedPending && length > 0) {
+				offset = data[0] == '\n' ? 1 : 0; //The rest of the \r\n ending the last block
+				lineFeedPending = false;
+			}
+			int end = length;
+			while (end > offset && data[end - 1] != '\n' && data[end - 1] != '\r') {
+				end--;
+			}
+			if (end == offset) {
+				carry = concat(carry, data, offset, length - offset); //No complete line yet
+				return;
+			}
+			submit(concat(carry, data, offset, end - offset));
+			carry = Arrays.copyOfRange(data, end, length);
+			lineFeedPending = end == length && data[end - 1] == '\r';
+		}
+
+		/**
+		 * Parses the last line if the file does not end with a line feed and waits for every 
+		 * block
+		 */
+		private void finish() throws IOException {
+			if (carry.length > 0) {
+				submit(carry);
+				carry = new byte[0];
+			}
+			while (!pending.isEmpty()) {
+				merge();
+			}
+		}
+
+		private void submit(byte[] block) throws IOException {
+			pending.add(workers.submit(() -> parseBlock(block)));
+			while (pending.size() > maxPending) {
+				merge();
+			}
+		}
+
+		/**
+		 * Adds the oldest parsed block to the map
+		 */
+		private void merge() throws IOException {
+			checkInterrupted();
+			Parsed parsed;
+			try {
+				parsed = pending.poll().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Loading was cancelled");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException runtime) {
+					throw runtime; //e.g. a malformed number, as when parsing line by line
+				}
+				throw new IOException(e.getCause());
+			}
+			for (int i = 0; i < parsed.count(); i++) {
+				vectorMap.put(parsed.keys()[i], parsed.vectors()[i]); //O(1)
+			}
+		}
+
+		/**
+		 * Decodes a block of whole lines and parses every line. Line breaks are \n, \r\n or a 
+		 * lone \r, as for BufferedReader.readLine
+		 */
+		private static Parsed parseBlock(byte[] block) {
+			String text = new String(block, StandardCharsets.UTF_8);
+			int lines = 0;
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '\n' || (c == '\r' && (i + 1 == text.length() || text.charAt(i + 1) != '\n'))) {
+					lines++;
+				}
+			}
+			String[] keys = new String[lines + 1];
+			double[][] vectors = new double[lines + 1][];
+			int count = 0;
+			int start = 0;
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '\n' || c == '\r') {
+					parseLine(text.substring(start, i), keys, vectors, count++);
+					if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+						i++;
+					}
+					start = i + 1;
+				}
+			}
+			if (start < text.length()) {
+				parseLine(text.substring(start), keys, vectors, count++); //Last line without a line feed
+			}
+			return new Parsed(keys, vectors, count);
+		}
+
+		private static byte[] concat(byte[] head, byte[] data, int offset, int length) {
+			byte[] joined = Arrays.copyOf(head, head.length + length);
+			System.arraycopy(data, offset, joined, head.length, length);
+			return joined;
+		}
+	}
+
+	/**
+	 * Stops a load that has been cancelled by interrupting the loading thread
+	 * @throws CancellationException if the current thread has been interrupted
+	 */
+	private static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Loading was cancelled");
+		}
+	}
+	
     //---------------------------------------------------------------------------------------------
     // GETTERS & SETTERS
     //---------------------------------------------------------------------------------------------
@@ -99,13 +327,23 @@ public class FileVectorMapper implements VectorMapperService {
 	public HashMap<String, double[]> getReplacementWordsMap() {
 		return replacementWordsMap;
 	}
+	/**
+	 * {@inheritDoc}
+	 * This implementation compares the bytes parsed so far with the size of the embeddings file
+	 * Time Complexity: 0(1). Simple variable retrieval.
+	 */
+	@Override
+	public double getLoadProgress() {
+		long total = totalBytes;
+		return total == 0 ? 1.0d : Math.min(1.0d, (double) bytesRead / total);
+	}
 	/**
 	 * {@inheritDoc}
 	 * This implementation sets the map in a local variable
 	 * Time Complexity: 0(n). Depends on embeddingsToMap()
 	 */
 	@Override
-	public void setEmbeddingsMap(String path) {
+	public void setEmbeddingsMap(String path) throws IOException {
 		this.embeddingsMap = embeddingsToMap(path);
 		
 	}
@@ -115,9 +353,17 @@ public class FileVectorMapper implements VectorMapperService {
 	 * Time Complexity: 0(n*m). Depends on replacementWordsToMap()
 	 */
 	@Override
-	public void setReplacementWordsMap(String path) {
+	public void setReplacementWordsMap(String path) throws IOException {
 		this.replacementWordsMap = replacementWordsToMap(path);
 		
 	}
+	/**
+	 * {@inheritDoc}
+	 * Time Complexity: 0(m). Depends on replacementWordsToMap()
+	 */
+	@Override
+	public HashMap<String, double[]> readReplacementWordsMap(String path) throws IOException {
+		return replacementWordsToMap(path);
+	}
 
 }
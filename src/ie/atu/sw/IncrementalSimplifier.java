@@ -0,0 +1,330 @@
+package ie.atu.sw;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Incremental, resumable simplification of large files. The input is split into content-defined
+ * chunks of whole lines: a chunk ends after a line whose hash matches a boundary pattern, so an
+ * edit only moves the boundaries next to it. Each chunk is looked up in a ChunkStore under the
+ * hash of its text and the model fingerprint, and only chunks that are not already in the store
+ * are simplified. Rerunning a corpus where 1% of the text changed therefore simplifies about 1%
+ * of the chunks.
+ *
+ * Output is appended to a ".partial" file and a ".checkpoint" file records how far the run got.
+ * If a run is interrupted, the next run on the same input and model truncates the partial output
+ * to the checkpoint and carries on from the next chunk. Lines end at the same line breaks 
+ * processText splits on, so the output is identical to TextSimplifier#processText on the whole 
+ * file.
+ *
+ * @see ChunkStore
+ */
+public class IncrementalSimplifier {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final int MIN_CHUNK_LINES = 16; //Prevents tiny chunks on short repeated lines
+	private static final int MAX_CHUNK_LINES = 1024; //Bounds chunk size when no boundary is found
+	private static final int BOUNDARY_MASK = 63; //Average chunk of about 64 lines past the minimum
+	private static final long CHECKPOINT_INTERVAL_NANOS = 1_000_000_000L; //At most once a second
+
+	private final ChunkStore store;
+	private final String modelKey; //Fingerprint of the embeddings, replacement words, metric and output settings
+
+	/**
+	 * Summary of one file
+	 * @param words the number of words in the input
+	 * @param chunks the number of chunks the input was split into
+	 * @param reusedChunks chunks served from the store or skipped by resuming
+	 */
+	public record Result(long words, int chunks, int reusedChunks) {}
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Initialises the incremental simplifier
+	 * @param store the chunk store shared by every run on this model
+	 * @param modelKey fingerprint of the model and metric, see FileFingerprint#modelKey, followed 
+	 * by the snapshot's EngineSnapshot#getOutputKey
+	 */
+	public IncrementalSimplifier(ChunkStore store, String modelKey) {
+		this.store = store;
+		this.modelKey = modelKey;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Simplifies a file, reusing stored chunks and resuming an interrupted run if possible
+	 * Time Complexity: O(n + c*m), where n is the size of the input, c the number of words in
+	 * chunks that are not in the store and m the number of replacement words
+	 *
+	 * @param input the file to simplify
+	 * @param output the file to write
+	 * @param snapshot the engine that simplifies chunks missing from the store
+	 * @return a summary of the run
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public Result simplify(Path input, Path output, EngineSnapshot snapshot) throws IOException {
+		Path partial = output.resolveSibling(output.getFileName() + ".partial");
+		Path checkpointPath = output.resolveSibling(output.getFileName() + ".checkpoint");
+		String inputKey = FileFingerprint.of(input.toString()).version();
+
+		Checkpoint checkpoint = Checkpoint.load(checkpointPath);
+		if (checkpoint == null || !checkpoint.matches(inputKey, modelKey)
+				|| !Files.exists(partial) || Files.size(partial) < checkpoint.bytes) {
+			checkpoint = new Checkpoint(inputKey, modelKey); //Start from the beginning
+		} else {
+			System.out.println("[INFO] Resuming " + input + " at chunk " + checkpoint.chunks);
+		}
+		int resumeAt = checkpoint.chunks;
+
+		long words = 0;
+		int chunkIndex = 0;
+		int reused = 0;
+		try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+				FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			channel.truncate(checkpoint.bytes).position(checkpoint.bytes);
+			Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+					StandardCharsets.UTF_8));
+			long lastCheckpoint = System.nanoTime();
+
+			List<String> lines = new ArrayList<>();
+			StringBuilder buffer = new StringBuilder();
+			String line;
+			boolean more = true;
+			while (more) {
+				line = readLine(reader, buffer);
+				more = line != null;
+				if (more) {
+					lines.add(line);
+					words += countWords(line);
+					if (!isBoundary(line, lines.size())) {
+						continue;
+					}
+				}
+				if (lines.isEmpty()) {
+					break;
+				}
+
+				//A complete chunk
+				if (chunkIndex < resumeAt) {
+					reused++; //Already in the partial output
+				} else {
+					if (emitChunk(lines, snapshot, writer, checkpoint)) {
+						reused++;
+					}
+					checkpoint.chunks = chunkIndex + 1;
+					if (System.nanoTime() - lastCheckpoint > CHECKPOINT_INTERVAL_NANOS) {
+						writer.flush();
+						checkpoint.bytes = channel.position();
+						checkpoint.save(checkpointPath);
+						lastCheckpoint = System.nanoTime();
+					}
+				}
+				chunkIndex++;
+				lines.clear();
+			}
+			writer.flush();
+		}
+
+		Files.move(partial, output, StandardCopyOption.REPLACE_EXISTING);
+		Files.deleteIfExists(checkpointPath);
+		return new Result(words, chunkIndex, reused);
+	}
+
+	/**
+	 * Reads the next line, ending at any EngineSnapshot#isLineBreak character with \r\n counted
+	 * as one break, as processText splits lines. BufferedReader#readLine only ends lines at \n, 
+	 * \r and \r\n, not at \u000B, \f, \u0085, \u2028 or \u2029.
+	 * @param reader the input, which must support mark
+	 * @param buffer reused to collect the characters of the line
+	 * @return the line, or null at the end of the input
+	 */
+	private static String readLine(Reader reader, StringBuilder buffer) throws IOException {
+		int c = reader.read();
+		if (c < 0) {
+			return null;
+		}
+		buffer.setLength(0);
+		while (c >= 0 && !EngineSnapshot.isLineBreak((char) c)) {
+			buffer.append((char) c);
+			c = reader.read();
+		}
+		if (c == '\r') {
+			reader.mark(1);
+			if (reader.read() != '\n') {
+				reader.reset();
+			}
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Writes the simplified lines of one chunk, taking them from the store if possible and
+	 * simplifying and storing them otherwise
+	 * @return true if the chunk was served from the store
+	 */
+	private boolean emitChunk(List<String> lines, EngineSnapshot snapshot, Writer writer, Checkpoint state)
+			throws IOException {
+		String key = ChunkStore.key(modelKey, String.join("\n", lines));
+		String simplified = store.get(key);
+		boolean hit = simplified != null;
+		if (!hit) {
+			StringBuilder chunk = new StringBuilder();
+			for (int i = 0; i < lines.size(); i++) {
+				if (i > 0) {
+					chunk.append('\n');
+				}
+				chunk.append(snapshot.simplifyLine(lines.get(i)));
+			}
+			simplified = chunk.toString();
+			store.put(key, simplified);
+		}
+
+		for (String simplifiedLine : simplified.split("\n", -1)) {
+			emitLine(simplifiedLine, writer, state);
+		}
+		return hit;
+	}
+
+	/**
+	 * Writes one simplified line. Empty lines are held back until the next non-empty line, so
+	 * leading and trailing empty lines are dropped exactly as processText's final trim() does.
+	 */
+	private static void emitLine(String line, Writer writer, Checkpoint state) throws IOException {
+		if (line.isEmpty()) {
+			if (state.wroteContent) {
+				state.pendingEmptyLines++;
+			}
+			return;
+		}
+		if (state.wroteContent) {
+			for (int i = 0; i <= state.pendingEmptyLines; i++) {
+				writer.write(System.lineSeparator());
+			}
+		}
+		writer.write(line);
+		state.wroteContent = true;
+		state.pendingEmptyLines = 0;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Decides whether a chunk ends after this line. The decision depends only on the line's
+	 * content (and the minimum and maximum sizes), which keeps boundaries stable across edits.
+	 */
+	private static boolean isBoundary(String line, int chunkLines) {
+		if (chunkLines >= MAX_CHUNK_LINES) {
+			return true;
+		}
+		int hash = line.hashCode() * 0x9E3779B1; //Spread the bits of String.hashCode
+		return chunkLines >= MIN_CHUNK_LINES && ((hash ^ (hash >>> 16)) & BOUNDARY_MASK) == 0;
+	}
+
+	/**
+	 * Counts the whitespace separated words in a line
+	 */
+	private static long countWords(String line) {
+		long words = 0;
+		boolean inWord = false;
+		for (int i = 0; i < line.length(); i++) {
+			boolean whitespace = Character.isWhitespace(line.charAt(i));
+			if (!whitespace && !inWord) {
+				words++;
+			}
+			inWord = !whitespace;
+		}
+		return words;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // CHECKPOINT
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Progress of a run: how many chunks and bytes of output are complete, plus the line
+	 * separator state needed to carry on writing exactly where the run stopped
+	 */
+	private static class Checkpoint {
+		private final String inputKey;
+		private final String modelKey;
+		private int chunks = 0;
+		private long bytes = 0;
+		private int pendingEmptyLines = 0;
+		private boolean wroteContent = false;
+
+		private Checkpoint(String inputKey, String modelKey) {
+			this.inputKey = inputKey;
+			this.modelKey = modelKey;
+		}
+
+		private boolean matches(String inputKey, String modelKey) {
+			return this.inputKey.equals(inputKey) && this.modelKey.equals(modelKey);
+		}
+
+		/**
+		 * Reads a checkpoint file
+		 * @return the checkpoint, or null if there is none or it cannot be parsed
+		 */
+		private static Checkpoint load(Path path) {
+			if (!Files.exists(path)) {
+				return null;
+			}
+			try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+				Properties properties = new Properties();
+				properties.load(reader);
+				Checkpoint checkpoint = new Checkpoint(properties.getProperty("input"), properties.getProperty("model"));
+				checkpoint.chunks = Integer.parseInt(properties.getProperty("chunks"));
+				checkpoint.bytes = Long.parseLong(properties.getProperty("bytes"));
+				checkpoint.pendingEmptyLines = Integer.parseInt(properties.getProperty("pendingEmptyLines"));
+				checkpoint.wroteContent = Boolean.parseBoolean(properties.getProperty("wroteContent"));
+				return checkpoint.inputKey != null && checkpoint.modelKey != null ? checkpoint : null;
+			} catch (IOException | RuntimeException e) {
+				return null; //Unreadable checkpoint, start again
+			}
+		}
+
+		/**
+		 * Writes the checkpoint to a temporary file and moves it into place
+		 */
+		private void save(Path path) throws IOException {
+			Properties properties = new Properties();
+			properties.setProperty("input", inputKey);
+			properties.setProperty("model", modelKey);
+			properties.setProperty("chunks", Integer.toString(chunks));
+			properties.setProperty("bytes", Long.toString(bytes));
+			properties.setProperty("pendingEmptyLines", Integer.toString(pendingEmptyLines));
+			properties.setProperty("wroteContent", Boolean.toString(wroteContent));
+			Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+			try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				properties.store(writer, "Incremental simplification checkpoint");
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+}
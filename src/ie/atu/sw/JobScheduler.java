@@ -0,0 +1,243 @@
+package ie.atu.sw;
+
+import static java.lang.System.out;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs simplification jobs in the background for the interactive Menu, so the menu stays
+ * responsive and several files can be simplified side by side while the next one is set up.
+ * Every job runs a SimplificationPipeline on its own virtual thread with the snapshot that is
+ * current when it starts, so jobs share the loaded model, its memo included, and a job is not
+ * affected by configuration changes made while it runs.
+ *
+ * Jobs can be listed with their progress and throughput while they run and after they finish,
+ * and cancelled. A cancelled or failed job deletes its partial output file.
+ *
+ * @see SimplificationPipeline
+ */
+public class JobScheduler implements AutoCloseable {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private final FileManagerService fileManager;
+	private final List<Job> jobs = new CopyOnWriteArrayList<>(); //In order of submission
+	private final AtomicInteger nextId = new AtomicInteger(1);
+
+	/**
+	 * The states of a job
+	 */
+	public enum State {
+		RUNNING, DONE, FAILED, CANCELLED
+	}
+
+	/**
+	 * One simplification of an input file into an output file
+	 */
+	public static final class Job {
+		private final int id;
+		private final Path input;
+		private final String output;
+		private final long inputBytes;
+		private final SimplificationPipeline pipeline;
+		private final long startNanos = System.nanoTime();
+		private volatile long endNanos = 0;
+		private volatile State state = State.RUNNING;
+		private volatile boolean cancelRequested = false;
+		private volatile String result = ""; //Statistics when done, the error when failed
+		private Thread thread; //The virtual thread running the pipeline
+
+		private Job(int id, Path input, String output, long inputBytes, SimplificationPipeline pipeline) {
+			this.id = id;
+			this.input = input;
+			this.output = output;
+			this.inputBytes = inputBytes;
+			this.pipeline = pipeline;
+		}
+
+		/**
+		 * The share of the input read so far, estimated from the characters read until the job
+		 * is done
+		 * @return a fraction between 0.0 and 1.0
+		 */
+		public double getProgress() {
+			if (state == State.DONE) {
+				return 1.0d;
+			}
+			return inputBytes == 0 ? 0.0d : Math.min(0.99d, (double) pipeline.getCharsRead() / inputBytes);
+		}
+
+		/**
+		 * The words simplified per second since the job started, or over its whole run once it
+		 * has ended
+		 * @return the throughput in words per second
+		 */
+		public double getWordsPerSecond() {
+			long end = endNanos != 0 ? endNanos : System.nanoTime();
+			return pipeline.getWordsSimplified() * 1e9d / Math.max(1, end - startNanos);
+		}
+
+		/**
+		 * Getter for the job number shown in the menu
+		 * @return the id
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * Getter for the state of the job
+		 * @return the state
+		 */
+		public State getState() {
+			return state;
+		}
+
+		@Override
+		public String toString() {
+			long end = endNanos != 0 ? endNanos : System.nanoTime();
+			return String.format("Job %d [%s] %s -> %s: %d%%, %d words, %.0f words/s, %.1f s%s", id, state,
+					input.getFileName(), output, (int) (getProgress() * 100), pipeline.getWordsSimplified(),
+					getWordsPerSecond(), (end - startNanos) / 1e9d, result.isEmpty() ? "" : " (" + result + ")");
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates a scheduler with no jobs
+	 * @param fileManager opens the output files
+	 */
+	public JobScheduler(FileManagerService fileManager) {
+		this.fileManager = fileManager;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Starts simplifying a file in the background with the simplifier's current snapshot
+	 * Time Complexity: O(j), where j is the number of jobs submitted so far
+	 *
+	 * @param textSimplifier the simplifier whose snapshot the job uses
+	 * @param inputFilePath the file to simplify
+	 * @param outputFilePath the file the simplified text is written to, replaced if it exists
+	 * @return the running job
+	 * @throws IOException if the input file cannot be read
+	 * @throws IllegalStateException if a running job is already writing the output file
+	 */
+	public Job submit(SnapshotSimplifier textSimplifier, String inputFilePath, String outputFilePath) throws IOException {
+		Path output = Paths.get(outputFilePath).toAbsolutePath().normalize();
+		for (Job job : jobs) {
+			if (job.state == State.RUNNING && Paths.get(job.output).toAbsolutePath().normalize().equals(output)) {
+				throw new IllegalStateException("Job " + job.id + " is already writing " + outputFilePath);
+			}
+		}
+		Path input = Paths.get(inputFilePath);
+		Job job = new Job(nextId.getAndIncrement(), input, outputFilePath, Files.size(input),
+				new SimplificationPipeline(textSimplifier, Runtime.getRuntime().availableProcessors(),
+						SimplificationPipeline.DEFAULT_QUEUE_DEPTH));
+		job.thread = Thread.ofVirtual().name("job-" + job.id).unstarted(() -> run(job));
+		jobs.add(job);
+		job.thread.start();
+		return job;
+	}
+
+	/**
+	 * Cancels a running job, which stops at its next batch and deletes its partial output
+	 * Time Complexity: O(j), where j is the number of jobs submitted so far
+	 *
+	 * @param id the job number
+	 * @return true if the job was running, false if there is no such job or it has ended
+	 */
+	public boolean cancel(int id) {
+		for (Job job : jobs) {
+			if (job.id == id && job.state == State.RUNNING) {
+				job.cancelRequested = true;
+				job.thread.interrupt(); //Stops the pipeline
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Cancels every running job and waits for them to stop. If interrupted while waiting, the 
+	 * interrupt is kept and the remaining jobs stop on their own.
+	 */
+	@Override
+	public void close() {
+		for (Job job : jobs) {
+			cancel(job.id);
+		}
+		try {
+			for (Job job : jobs) {
+				job.thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Runs a job's pipeline on the job's virtual thread and records how it ended
+	 */
+	private void run(Job job) {
+		Exception failure = null;
+		String written = "";
+		try (Writer writer = fileManager.openOutput(job.output)) {
+			SimplificationPipeline.Stats stats = job.pipeline.run(job.input, writer);
+			writer.flush();
+			if (writer instanceof FileChannelWriter channelWriter) {
+				written = ", " + channelWriter.getBytesWritten() + " bytes written";
+			}
+			job.result = stats + written;
+		} catch (Exception e) {
+			failure = e;
+		}
+		job.endNanos = System.nanoTime();
+
+		if (job.cancelRequested || failure != null) {
+			job.result = job.cancelRequested ? "" : String.valueOf(failure.getMessage());
+			job.state = job.cancelRequested ? State.CANCELLED : State.FAILED;
+			try {
+				Files.deleteIfExists(Paths.get(job.output));
+			} catch (IOException e) {
+				System.err.println("[Error] Could not delete " + job.output + ": " + e.getMessage());
+			}
+		} else {
+			job.state = State.DONE;
+		}
+		out.println();
+		out.println("[INFO] " + job);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the jobs submitted so far
+	 * @return the jobs in order of submission, running and ended
+	 */
+	public List<Job> getJobs() {
+		return List.copyOf(jobs);
+	}
+
+}
@@ -0,0 +1,182 @@
+package ie.atu.sw;
+
+import static java.lang.System.out;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Built-in load generator for SimplifierServer. Runs a fixed number of closed-loop clients on
+ * virtual threads against a local instance for a fixed duration and reports requests per second
+ * and latency percentiles.
+ *
+ * @see SimplifierServer
+ */
+public class LoadGenerator {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final String DEFAULT_URL = "http://127.0.0.1:8080/simplify";
+	private static final int DEFAULT_CONCURRENCY = 64;
+	private static final int DEFAULT_DURATION_SECONDS = 10;
+	private static final int DEFAULT_WARMUP_SECONDS = 2;
+
+	private final HttpClient client;
+	private final HttpRequest request;
+	private final AtomicLong errors = new AtomicLong();
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Initialises the load generator with the request every client will send
+	 * @param url the simplify endpoint of the server
+	 * @param body the text sent in every request
+	 */
+	public LoadGenerator(String url, String body) {
+		this.client = HttpClient.newBuilder()
+				.executor(Executors.newVirtualThreadPerTaskExecutor())
+				.build();
+		this.request = HttpRequest.newBuilder(URI.create(url))
+				.POST(HttpRequest.BodyPublishers.ofString(body))
+				.build();
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Runs the load test described by the command line options. Required option is --text (the
+	 * file sent as the request body). Optional options are --url, --concurrency, --duration and
+	 * --warmup (both in seconds).
+	 *
+	 * @param options the parsed command line options
+	 * @throws Exception if the text file cannot be read or the test is interrupted
+	 */
+	public static void run(CommandLineOptions options) throws Exception {
+		String body = Files.readString(Paths.get(options.require("text")));
+		LoadGenerator generator = new LoadGenerator(options.get("url", DEFAULT_URL), body);
+		int concurrency = options.getInt("concurrency", DEFAULT_CONCURRENCY);
+
+		out.println("[INFO] Warming up for " + options.getInt("warmup", DEFAULT_WARMUP_SECONDS) + "s...");
+		generator.measure(concurrency, options.getInt("warmup", DEFAULT_WARMUP_SECONDS));
+
+		int duration = options.getInt("duration", DEFAULT_DURATION_SECONDS);
+		out.println("[INFO] Running " + concurrency + " clients for " + duration + "s...");
+		generator.errors.set(0);
+		long[] latencies = generator.measure(concurrency, duration);
+		generator.report(latencies, duration);
+	}
+
+	/**
+	 * Sends requests from every client back to back until the duration has passed
+	 * Time Complexity: O(r log r), where r is the number of requests sent (sorting latencies)
+	 *
+	 * @param concurrency the number of clients sending requests at the same time
+	 * @param durationSeconds how long to send requests for
+	 * @return the sorted latencies of every successful request in nanoseconds
+	 * @throws Exception if a client fails unexpectedly
+	 */
+	public long[] measure(int concurrency, int durationSeconds) throws Exception {
+		long deadline = System.nanoTime() + durationSeconds * 1_000_000_000L;
+		List<Future<long[]>> clients = new ArrayList<>();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < concurrency; i++) {
+				clients.add(executor.submit(() -> runClient(deadline)));
+			}
+		}
+
+		//Merge the latencies recorded by each client
+		int total = 0;
+		for (Future<long[]> client : clients) {
+			total += client.get().length;
+		}
+		long[] latencies = new long[total];
+		int position = 0;
+		for (Future<long[]> client : clients) {
+			long[] clientLatencies = client.get();
+			System.arraycopy(clientLatencies, 0, latencies, position, clientLatencies.length);
+			position += clientLatencies.length;
+		}
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * A single closed-loop client. Records latencies in a growing primitive array so the
+	 * measurement itself does not box every sample.
+	 * @param deadline System.nanoTime() value at which to stop
+	 * @return the latencies of this client's successful requests in nanoseconds
+	 */
+	private long[] runClient(long deadline) {
+		long[] latencies = new long[1024];
+		int count = 0;
+		while (System.nanoTime() < deadline) {
+			long start = System.nanoTime();
+			try {
+				HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+				if (response.statusCode() != 200) {
+					errors.incrementAndGet();
+					continue;
+				}
+			} catch (Exception e) {
+				errors.incrementAndGet();
+				continue;
+			}
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = System.nanoTime() - start;
+		}
+		return Arrays.copyOf(latencies, count);
+	}
+
+	/**
+	 * Prints the throughput and latency percentiles of a run
+	 * @param latencies the sorted latencies in nanoseconds
+	 * @param durationSeconds how long the run lasted
+	 */
+	private void report(long[] latencies, int durationSeconds) {
+		out.println(ConsoleColour.GREEN);
+		out.printf("[INFO] Requests: %d ok, %d errors%n", latencies.length, errors.get());
+		out.printf("[INFO] Throughput: %.1f requests/s%n", (double) latencies.length / durationSeconds);
+		if (latencies.length > 0) {
+			out.printf("[INFO] Latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+					percentile(latencies, 0.50d), percentile(latencies, 0.99d),
+					latencies[latencies.length - 1] / 1_000_000.0d);
+		}
+		out.print(ConsoleColour.RESET);
+	}
+
+	/**
+	 * Nearest-rank percentile of sorted latencies
+	 * @param sorted the sorted latencies in nanoseconds
+	 * @param fraction the percentile as a fraction, e.g. 0.99
+	 * @return the percentile in milliseconds
+	 */
+	static double percentile(long[] sorted, double fraction) {
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000.0d;
+	}
+
+}
@@ -0,0 +1,159 @@
+package ie.atu.sw;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency budget for the search of replacement words, for interactive use where tail latency
+ * matters more than a perfect match. A budgeted snapshot scans the replacement words in priority
+ * order, most frequent first, and stops when either limit is reached:
+ * <ul>
+ * <li>a work budget of candidates scored per token</li>
+ * <li>a time budget per text, after which every remaining token is cut short</li>
+ * </ul>
+ * The best word found so far is then returned and counted as approximate. Approximate results are
+ * never memoised or cached, so a later search without pressure can still find the exact word. A
+ * search that finishes within the budget chooses exactly the word a full scan would.
+ *
+ * The budget keeps counters of how often it is hit, shared by every snapshot derived from the one
+ * it was set on, so they can be reported while text is being processed.
+ *
+ * @see EngineSnapshot#withBudget(LookupBudget)
+ */
+public final class LookupBudget {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	public static final int UNLIMITED = 0;
+	static final int MIN_CANDIDATES = 64; //Scored for every token, even past the deadline
+
+	private final int candidatesPerToken; //UNLIMITED or the most candidates scored per token
+	private final long nanosPerText; //UNLIMITED or the time allowed for one text
+	private final List<String> priority; //Replacement words to scan first, in order
+	private final LongAdder searches = new LongAdder(); //Tokens searched under the budget
+	private final LongAdder approximateSearches = new LongAdder(); //Searches the budget cut short
+	private final LongAdder texts = new LongAdder();
+	private final LongAdder approximateTexts = new LongAdder(); //Texts with an approximate token
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates a budget
+	 * @param candidatesPerToken the most replacement words scored per token, or UNLIMITED
+	 * @param millisPerText the time allowed to simplify one text, or UNLIMITED
+	 * @param priority replacement words in the order they are scanned, e.g. the replacement
+	 * words file, which lists the most frequent words first. Words that are not listed are
+	 * scanned after them.
+	 * @throws IllegalArgumentException if a limit is negative, or both are unlimited
+	 */
+	public LookupBudget(int candidatesPerToken, double millisPerText, List<String> priority) {
+		if (candidatesPerToken < 0 || millisPerText < 0) {
+			throw new IllegalArgumentException("A lookup budget cannot be negative");
+		}
+		if (candidatesPerToken == UNLIMITED && millisPerText == UNLIMITED) {
+			throw new IllegalArgumentException("A lookup budget needs a candidate or time limit");
+		}
+		this.candidatesPerToken = candidatesPerToken;
+		this.nanosPerText = (long) (millisPerText * 1_000_000);
+		this.priority = List.copyOf(priority);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Records the search of one token
+	 * Time Complexity: O(1)
+	 *
+	 * @param approximate whether the budget cut the search short
+	 */
+	void recordSearch(boolean approximate) {
+		searches.increment();
+		if (approximate) {
+			approximateSearches.increment();
+		}
+	}
+
+	/**
+	 * Records one simplified text
+	 * Time Complexity: O(1)
+	 *
+	 * @param approximateTokens the number of its tokens the budget cut short
+	 */
+	void recordText(int approximateTokens) {
+		texts.increment();
+		if (approximateTokens > 0) {
+			approximateTexts.increment();
+		}
+	}
+
+	/**
+	 * Formats the counters as one "name value" pair per line, as the server's /metrics does
+	 * @return the metrics text
+	 */
+	public String metrics() {
+		return "budget_searches " + searches.sum() + '\n'
+				+ "budget_approximate_searches " + approximateSearches.sum() + '\n'
+				+ "budget_texts " + texts.sum() + '\n'
+				+ "budget_approximate_texts " + approximateTexts.sum() + '\n';
+	}
+
+	@Override
+	public String toString() {
+		long total = searches.sum();
+		return String.format("budget(%s candidates/token, %s/text): %d of %d searches approximate (%.2f%%)",
+				candidatesPerToken == UNLIMITED ? "all" : candidatesPerToken,
+				nanosPerText == UNLIMITED ? "no limit" : nanosPerText / 1_000_000.0d + " ms",
+				approximateSearches.sum(), total, total == 0 ? 0.0d : 100.0d * approximateSearches.sum() / total);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the work budget
+	 * @return the most candidates scored per token, or UNLIMITED
+	 */
+	public int getCandidatesPerToken() {
+		return candidatesPerToken;
+	}
+
+	/**
+	 * Getter for the time budget
+	 * @return the nanoseconds allowed for one text, or UNLIMITED
+	 */
+	public long getNanosPerText() {
+		return nanosPerText;
+	}
+
+	/**
+	 * Getter for the scan priority
+	 * @return the replacement words to scan first, in order
+	 */
+	public List<String> getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Getter for the number of searches cut short
+	 * @return the number of approximate replacements so far
+	 */
+	public long getApproximateSearches() {
+		return approximateSearches.sum();
+	}
+
+	/**
+	 * Getter for the number of searches
+	 * @return the number of tokens searched under the budget so far
+	 */
+	public long getSearches() {
+		return searches.sum();
+	}
+
+}
@@ -8,7 +8,13 @@ import static java.lang.System.out;
  * Also launches the text simplifier calculations as well as various getters and setters for configuration
  */
 
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Menu {
 
@@ -19,18 +25,24 @@ public class Menu {
 
 	// Store references
 	private Scanner s = new Scanner(System.in);;
-	private TextSimplifier textSimplifier;
+	private SnapshotSimplifier textSimplifier;
 	private boolean keepRunning = true;
 	private FileManagerService fileManager;
+	private final ExecutorService preloader = Executors.newVirtualThreadPerTaskExecutor();
+	private Future<?> preload; // Latest background load of the model, null until a path is set
+	private Future<?> embeddingsPreload; // The background load that reads the embeddings
+	private String preloadedEmbeddingsPath; // The embeddings file embeddingsPreload reads
+	private final JobScheduler jobScheduler; // Simplification jobs running in the background
 	
 	/**
 	 * Initialises fileManager and textSimplifier objects with dependency injection
 	 * @param fileManager injected instance of filemanager
 	 * @param textSimplifier injected instance of textsimplifier
 	 */
-	public Menu(FileManagerService fileManager, TextSimplifier textSimplifier) {
+	public Menu(FileManagerService fileManager, SnapshotSimplifier textSimplifier) {
 		this.fileManager = fileManager;
 		this.textSimplifier = textSimplifier;
+		this.jobScheduler = new JobScheduler(fileManager);
 	}
 	
 
@@ -46,7 +58,7 @@ public class Menu {
 		while(keepRunning) {
 		printMainMenu(); // Display main menu to user
 
-		int choice = menuInputValidation(6); // Validate user input
+		int choice = menuInputValidation(9); // Validate user input
 
 		// Execute methods/sub-menus based on user input
 		switch (choice) {
@@ -56,8 +68,11 @@ public class Menu {
 			case 4 -> configureFilePath(FileType.OUTPUT_FILE); // Specify an output file
 			case 5 -> chooseDistanceCalculator();
 			case 6 -> runTextSimplifier();
-			case 7 -> { // Close Program
+			case 7 -> listJobs();
+			case 8 -> cancelJob();
+			case 9 -> { // Close Program
 				out.println(ConsoleColour.BLACK_BRIGHT);
+				quit();
 				out.println("[INFO] Exiting... Bye!");
 				keepRunning = false;
 			}
@@ -119,8 +134,10 @@ public class Menu {
 		out.println("(3) Specify a Text File");
 		out.println("(4) Specify an Output File");
 		out.println("(5) Choose Distance Calculator");
-		out.println("(6) Execute, Analyse and Report");
-		out.println("(7) Quit");
+		out.println("(6) Execute, Analyse and Report (Background Job)");
+		out.println("(7) List Jobs");
+		out.println("(8) Cancel a Job");
+		out.println("(9) Quit");
 	}
 	
 	/**
@@ -154,7 +171,7 @@ public class Menu {
 	        // Determine the current file path and prompt message based on fileType
 	        if (fileType == FileType.EMBED_FILE) {
 	            currentFilePath = fileManager.getEmbeddingsFilePath();
-	            filePrompt = "Please Enter the Full Path to the Desired Embeddings File>";
+	            filePrompt = "Please Enter the Full Path to the Desired Embeddings File (.txt or .gz)>";
 	        } else if (fileType == FileType.REPLACEMENT_FILE) {
 	            currentFilePath = fileManager.getReplacementWordsFilePath();
 	            filePrompt = "Please Enter the Full Path to the Desired Google1000 File>";
@@ -198,6 +215,10 @@ public class Menu {
 		                fileManager.setTextFilePath(path);
 		                break;
 		        }
+		        // Start loading the model as soon as its files are known
+		        if (fileType == FileType.EMBED_FILE || fileType == FileType.REPLACEMENT_FILE) {
+		        	startPreload(fileType == FileType.EMBED_FILE);
+		        }
 	        }catch (Exception e) {
 	        	e.printStackTrace();
 	        }
@@ -211,13 +232,19 @@ public class Menu {
 	 * Initialises FileManager and TextSimplifier variables before Executing TextSimplifier by 
 	 * calling .processTextFile. This method first calls fileManager.generateVectorMaps() to 
 	 * generate HashMap variables. It also retrieves the path names from filemanager to check that 
-	 * they are not empty. It then calls on the filemanager to retrieve the content from the files 
-	 * before passing it to textsimplifier. Finally it calls on textsimplifier to 
-	 * write the resulting text to the output file
+	 * they are not empty. It then submits a job to the JobScheduler, which runs a 
+	 * SimplificationPipeline in the background: the pipeline reads the input, simplifies it on 
+	 * one worker per processor and writes it to the output file as separate stages, and the job 
+	 * reports how busy each stage was when it finishes. The menu returns at once, so further 
+	 * jobs can be set up while it runs. If the model is still being loaded in the background 
+	 * it waits for that load to finish first.
+	 * @see JobScheduler
 	 */
 	private void runTextSimplifier() {
 		 try {	
-			 	//Generate vector maps
+			 	awaitPreload();
+			 	
+			 	//Generate vector maps (reuses the preloaded maps if they are current)
 			 	fileManager.generateVectorMaps();
 			 	
 			 	 // Ensure maps are loaded before creating TextFileSimplifier
@@ -226,9 +253,11 @@ public class Menu {
 	                return;
 	            }
 
-	            // Send maps to TextSimplifier
-	            textSimplifier.setEmbeddingsMap(fileManager.getEmbeddingsMap());
-	            textSimplifier.setReplacementWordsMap(fileManager.getReplacementWordsMap());
+	            // Send maps to TextSimplifier, unless running jobs already share them
+	            if (textSimplifier.getEmbeddingsMap() != fileManager.getEmbeddingsMap()
+	            		|| textSimplifier.getReplacementWordsMap() != fileManager.getReplacementWordsMap()) {
+	            	textSimplifier.setMaps(fileManager.getEmbeddingsMap(), fileManager.getReplacementWordsMap());
+	            }
 
 	            out.println("[INFO] Text Simplifier Initialized Successfully!");
 
@@ -241,10 +270,10 @@ public class Menu {
 	                return;
 	            }
 	            
-	            String content = fileManager.readFile(inputFilePath);
-	            String simplifiedText = textSimplifier.processText(content);
-	            fileManager.writeToFile(simplifiedText, outputFilePath);
-	            
+	            // Read, simplify and write run as separate stages in the background
+	            JobScheduler.Job job = jobScheduler.submit(textSimplifier, inputFilePath, outputFilePath);
+	            out.println(ConsoleColour.GREEN);
+	            out.println("[INFO] Job " + job.getId() + " started. Use (7) to follow its progress.");
 	            
 	            //fileManager.writeOutputFile(inputFilePath, outputFilePath, textSimplifier);
 	        } catch (Exception e) {
@@ -252,6 +281,129 @@ public class Menu {
 	            out.println("[Error] An issue occurred during text simplification: " + e.getMessage());
 	        }
 	    }
+	
+	/**
+	 * Lists the running and finished jobs with their progress and throughput
+	 * @see JobScheduler.Job
+	 */
+	private void listJobs() {
+		List<JobScheduler.Job> jobs = jobScheduler.getJobs();
+		out.println(ConsoleColour.WHITE);
+		if (jobs.isEmpty()) {
+			out.println("[INFO] No jobs have been started.");
+			return;
+		}
+		for (JobScheduler.Job job : jobs) {
+			out.println(job);
+		}
+	}
+	
+	/**
+	 * Lists the running jobs and cancels the one the user chooses
+	 */
+	private void cancelJob() {
+		List<JobScheduler.Job> running = jobScheduler.getJobs().stream()
+				.filter(job -> job.getState() == JobScheduler.State.RUNNING)
+				.toList();
+		if (running.isEmpty()) {
+			out.println(ConsoleColour.YELLOW);
+			out.println("[INFO] No jobs are running.");
+			return;
+		}
+		out.println(ConsoleColour.WHITE);
+		running.forEach(out::println);
+		out.print(ConsoleColour.BLACK_BOLD_BRIGHT);
+		out.println("Enter the Number of the Job to Cancel>");
+		String input = s.nextLine().trim();
+		if (!input.matches("\\d{1,9}") || !jobScheduler.cancel(Integer.parseInt(input))) {
+			out.print(ConsoleColour.RED);
+			out.println("[Error] No running job with number " + input + ".");
+			return;
+		}
+		out.print(ConsoleColour.GREEN);
+		out.println("[INFO] Job " + input + " cancelled.");
+	}
+	
+	/**
+	 * Cancels the jobs that are still running and stops the background threads before exiting
+	 */
+	private void quit() {
+		long running = jobScheduler.getJobs().stream()
+				.filter(job -> job.getState() == JobScheduler.State.RUNNING)
+				.count();
+		if (running > 0) {
+			out.println("[INFO] Cancelling " + running + " running job(s)...");
+		}
+		jobScheduler.close();
+		preloader.shutdownNow();
+	}
+	
+	/**
+	 * Starts loading the vector maps on a background virtual thread. A running load is only 
+	 * cancelled when the embeddings file changes, as its embeddings are then out of date. When 
+	 * the replacement words file is chosen the embeddings keep loading and the replacement words 
+	 * are loaded after them.
+	 * @param embeddingsChosen true if the embeddings file was just chosen
+	 * @see FileManagerService#generateVectorMaps()
+	 */
+	private void startPreload(boolean embeddingsChosen) {
+		String embeddingsPath = fileManager.getEmbeddingsFilePath();
+		if (embeddingsChosen && !embeddingsPath.equals(preloadedEmbeddingsPath)) {
+			for (Future<?> load : new Future<?>[] {preload, embeddingsPreload}) {
+				if (load != null) {
+					load.cancel(true); // Interrupts the loading thread
+				}
+			}
+			preloadedEmbeddingsPath = embeddingsPath;
+			preload = embeddingsPreload = preloader.submit(() -> {
+				fileManager.generateVectorMaps();
+				return null;
+			});
+			return;
+		}
+		Future<?> embeddings = embeddingsPreload;
+		preload = preloader.submit(() -> {
+			if (embeddings != null) {
+				try {
+					embeddings.get(); // Then only the replacement words are left to load
+				} catch (ExecutionException | CancellationException e) {
+					// Reported or superseded there, the load below retries it
+				}
+			}
+			fileManager.generateVectorMaps();
+			return null;
+		});
+	}
+	
+	/**
+	 * Waits for the background load to finish, displaying a progress bar while it runs. A load
+	 * that failed is reported here and retried by the caller.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void awaitPreload() throws InterruptedException {
+		if (preload == null) {
+			return;
+		}
+		if (!preload.isDone()) {
+			out.println(ConsoleColour.YELLOW);
+			out.println("[INFO] Waiting for embeddings to finish loading...");
+			while (!preload.isDone()) {
+				printProgress(fileManager.getLoadProgress());
+				Thread.sleep(200);
+			}
+			printProgress(1.0d);
+			out.println();
+		}
+		try {
+			preload.get();
+		} catch (ExecutionException e) {
+			out.println(ConsoleColour.RED);
+			out.println("[Error] Background loading failed: " + e.getCause().getMessage());
+		} catch (CancellationException e) {
+			// Superseded by a newer load, nothing to report
+		}
+	}
+	
 	/**
 	 * Used to Validate the user input for menu navigation. Does not allow  the user to submit empty
 	 *  values and checks that input values are withing the correct integer range
@@ -294,6 +446,18 @@ public class Menu {
     //                                    UTILITY METHODS
     //---------------------------------------------------------------------------------------------
 
+	/**
+	 * Redraws a progress bar on the current console line
+	 * @param progress a fraction between 0.0 and 1.0
+	 */
+	private void printProgress(double progress) {
+		int width = 40;
+		int filled = (int) (progress * width);
+		out.print("\r[" + "#".repeat(filled) + " ".repeat(width - filled) + "] " 
+				+ (int) (progress * 100) + "%");
+		out.flush();
+	}
+	
 	/**
 	 * Method to handle any unexpected errors. Should not occur.
 	 */
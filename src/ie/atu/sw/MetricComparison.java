@@ -0,0 +1,215 @@
+package ie.atu.sw;
+
+import static java.lang.System.out;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Analysis mode that shows how the three similarity metrics would simplify a corpus, so a metric
+ * can be chosen without simplifying the corpus three times. Every distinct word that needs a
+ * search is resolved once with EngineSnapshot#findClosestMatches, which finds the dot product,
+ * cosine and Euclidean winners in a single scan of the replacement vectors.
+ *
+ * The report lists, per metric, how many words would be replaced and by how many distinct
+ * replacement words, how often the metrics agree, and every word on which they disagree with
+ * the number of times it occurs.
+ *
+ * @see EngineSnapshot#findClosestMatches(double[])
+ */
+public class MetricComparison {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final int TOP_REPLACEMENTS = 10; //Most used replacement words listed per metric
+
+	private final FileManagerService fileManager;
+	private final SnapshotSimplifier textSimplifier;
+
+	/**
+	 * A word that needs a search, how often it occurs and its winner under each metric
+	 */
+	private static class WordResult {
+		private long occurrences = 0;
+		private String[] winners; //Indexed by CalculatorType#ordinal()
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Initialises the comparison with dependency injection
+	 * @param fileManager injected instance of filemanager
+	 * @param textSimplifier injected instance of textsimplifier, used for its snapshot
+	 */
+	public MetricComparison(FileManagerService fileManager, SnapshotSimplifier textSimplifier) {
+		this.fileManager = fileManager;
+		this.textSimplifier = textSimplifier;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Runs the comparison. Required options are --embeddings, --replacements and --input (a
+	 * directory, file or glob, as for batch mode). --report names the report file; without it
+	 * the report is printed.
+	 * Time Complexity: O(n + u*m), where n is the number of words in the input, u the number of
+	 * distinct words that need a search and m the number of replacement words
+	 *
+	 * @param options the parsed command line options
+	 * @throws Exception if the configuration is invalid or a file cannot be read or written
+	 */
+	public void run(CommandLineOptions options) throws Exception {
+		List<Path> inputFiles = new ArrayList<>();
+		BatchSimplifier.resolveInputs(options.require("input"), inputFiles);
+		if (inputFiles.isEmpty()) {
+			throw new IllegalArgumentException("No input files matched: " + options.require("input"));
+		}
+		Runner.loadModel(options, fileManager, textSimplifier);
+		EngineSnapshot snapshot = textSimplifier.getSnapshot();
+
+		//Count the words that need a search
+		long start = System.nanoTime();
+		Map<String, WordResult> words = new HashMap<>();
+		long tokens = 0;
+		for (Path inputFile : inputFiles) {
+			try (BufferedReader reader = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					for (String word : line.split("\\s+")) {
+						if (word.isEmpty()) {
+							continue;
+						}
+						tokens++;
+						if (!snapshot.getVocabulary().contains(word)
+								&& snapshot.getEmbeddingsMap().containsKey(word)) {
+							words.computeIfAbsent(word, w -> new WordResult()).occurrences++;
+						}
+					}
+				}
+			}
+		}
+
+		//One fused scan per distinct word
+		words.entrySet().parallelStream().forEach(entry -> {
+			EngineSnapshot.Match[] matches = snapshot.findClosestMatches(
+					snapshot.getEmbeddingsMap().get(entry.getKey()));
+			String[] winners = new String[matches.length];
+			for (int i = 0; i < matches.length; i++) {
+				winners[i] = matches[i] != null ? matches[i].word() : entry.getKey();
+			}
+			entry.getValue().winners = winners;
+		});
+		long millis = (System.nanoTime() - start) / 1_000_000;
+
+		if (options.has("report")) {
+			try (Writer writer = fileManager.openOutput(options.require("report"))) {
+				writeReport(writer, inputFiles.size(), tokens, words, millis);
+			}
+			out.println("[INFO] Metric comparison written to " + options.require("report"));
+		} else {
+			Writer writer = new PrintWriter(out);
+			writeReport(writer, inputFiles.size(), tokens, words, millis);
+			writer.flush();
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Writes the summary, per-metric replacement counts and the disagreements, most frequent
+	 * first, as tab separated lines
+	 */
+	private static void writeReport(Writer writer, int files, long tokens, Map<String, WordResult> words,
+			long millis) throws IOException {
+		CalculatorType[] metrics = CalculatorType.values();
+		String nl = System.lineSeparator();
+		writer.write(String.format("Metric comparison: %d files, %d words, %d distinct words searched in %d ms%n",
+				files, tokens, words.size(), millis));
+
+		//Replacement counts per metric
+		writer.write(nl + "Replacements per metric" + nl);
+		for (CalculatorType metric : metrics) {
+			long replaced = 0;
+			Map<String, Long> used = new HashMap<>();
+			for (var entry : words.entrySet()) {
+				String winner = entry.getValue().winners[metric.ordinal()];
+				if (!winner.equals(entry.getKey())) {
+					replaced += entry.getValue().occurrences;
+					used.merge(winner, entry.getValue().occurrences, Long::sum);
+				}
+			}
+			StringBuilder top = new StringBuilder();
+			used.entrySet().stream()
+					.sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+					.limit(TOP_REPLACEMENTS)
+					.forEach(e -> top.append(' ').append(e.getKey()).append('=').append(e.getValue()));
+			writer.write(String.format("%-12s %d words replaced (%.1f%%) by %d distinct words; top:%s%n",
+					metric, replaced, tokens == 0 ? 0.0d : 100.0d * replaced / tokens, used.size(), top));
+		}
+
+		//Agreement between each pair of metrics, over distinct words and over occurrences
+		writer.write(nl + "Agreement (distinct words / occurrences)" + nl);
+		long searchedOccurrences = words.values().stream().mapToLong(w -> w.occurrences).sum();
+		for (int a = 0; a < metrics.length; a++) {
+			for (int b = a + 1; b < metrics.length; b++) {
+				long distinct = 0;
+				long occurrences = 0;
+				for (WordResult result : words.values()) {
+					if (result.winners[a].equals(result.winners[b])) {
+						distinct++;
+						occurrences += result.occurrences;
+					}
+				}
+				writer.write(String.format("%-12s = %-12s %s / %s%n", metrics[a], metrics[b],
+						percent(distinct, words.size()), percent(occurrences, searchedOccurrences)));
+			}
+		}
+
+		//Every word the metrics disagree on
+		List<Map.Entry<String, WordResult>> disagreements = new ArrayList<>();
+		for (var entry : words.entrySet()) {
+			String[] winners = entry.getValue().winners;
+			if (!winners[0].equals(winners[1]) || !winners[0].equals(winners[2])) {
+				disagreements.add(entry);
+			}
+		}
+		disagreements.sort(Comparator.comparingLong((Map.Entry<String, WordResult> e) -> -e.getValue().occurrences)
+				.thenComparing(Map.Entry::getKey));
+		writer.write(nl + "Disagreements: " + disagreements.size() + nl);
+		writer.write("word\toccurrences");
+		for (CalculatorType metric : metrics) {
+			writer.write("\t" + metric);
+		}
+		writer.write(nl);
+		for (var entry : disagreements) {
+			writer.write(entry.getKey() + "\t" + entry.getValue().occurrences);
+			for (String winner : entry.getValue().winners) {
+				writer.write("\t" + winner);
+			}
+			writer.write(nl);
+		}
+	}
+
+	private static String percent(long part, long whole) {
+		return String.format("%.1f%%", whole == 0 ? 100.0d : 100.0d * part / whole);
+	}
+
+}
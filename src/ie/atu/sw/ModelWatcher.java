@@ -0,0 +1,227 @@
+package ie.atu.sw;
+
+import static java.lang.System.out;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the embeddings and replacement words files and hot reloads the model into a running
+ * TextSimplifier when either changes. The new vector maps and snapshot are built in the
+ * background and swapped in with a single SnapshotSimplifier#setMaps call, so documents
+ * that are already being processed finish on the old version and new documents see the new one.
+ *
+ * Change detection and the reloading itself are done by FileManagerService#generateVectorMaps,
+ * so only the files that actually changed are reparsed.
+ *
+ * Editors and copy tools often produce several events per change, so a reload only starts once
+ * the files have been quiet for a short debounce period. Reloads run one at a time.
+ *
+ * @see EngineSnapshot
+ * @see FileManagerService
+ */
+public class ModelWatcher implements AutoCloseable {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final long DEBOUNCE_MILLIS = 500;
+
+	private final Path embeddingsPath;
+	private final Path replacementWordsPath;
+	private final FileManagerService fileManager; //Loads the maps, only used by reloads
+	private final SnapshotSimplifier textSimplifier; //Receives the reloaded snapshots
+	private final ScheduledExecutorService reloader =
+			Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("model-reloader").factory());
+	private WatchService watchService;
+	private ScheduledFuture<?> pendingReload;
+
+	// Metrics
+	private final AtomicLong version = new AtomicLong(1); //The initial model is version 1
+	private final AtomicLong reloadCount = new AtomicLong();
+	private final AtomicLong failedReloadCount = new AtomicLong();
+	private volatile long lastReloadMillis = 0;
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Initialises the watcher for a TextSimplifier whose model was loaded by the given 
+	 * FileManagerService. The file manager is used by the watcher from then on.
+	 * @param fileManager the file manager that loaded the current model
+	 * @param textSimplifier the running TextSimplifier to swap new snapshots into
+	 */
+	public ModelWatcher(FileManagerService fileManager, SnapshotSimplifier textSimplifier) {
+		this.embeddingsPath = Paths.get(fileManager.getEmbeddingsFilePath()).toAbsolutePath().normalize();
+		this.replacementWordsPath = Paths.get(fileManager.getReplacementWordsFilePath()).toAbsolutePath().normalize();
+		this.fileManager = fileManager;
+		this.textSimplifier = textSimplifier;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Registers the directories of both files with a WatchService and starts listening for
+	 * changes on a background thread
+	 * @throws IOException if the directories cannot be watched
+	 */
+	public void start() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		register(embeddingsPath.getParent());
+		if (!replacementWordsPath.getParent().equals(embeddingsPath.getParent())) {
+			register(replacementWordsPath.getParent());
+		}
+		Thread.ofVirtual().name("model-watcher").start(this::watchLoop);
+		out.println("[INFO] Watching " + embeddingsPath + " and " + replacementWordsPath + " for changes");
+	}
+
+	/**
+	 * Waits for file system events and schedules a reload when one of the model files changes
+	 */
+	private void watchLoop() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				Path directory = (Path) key.watchable();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						scheduleReload(); //Events were lost, check both files
+						continue;
+					}
+					Path changed = directory.resolve((Path) event.context());
+					if (changed.equals(embeddingsPath) || changed.equals(replacementWordsPath)) {
+						scheduleReload();
+					}
+				}
+				key.reset();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Watcher closed
+		}
+	}
+
+	/**
+	 * Schedules a reload after the debounce period, replacing any reload not yet started
+	 */
+	private synchronized void scheduleReload() {
+		if (pendingReload != null) {
+			pendingReload.cancel(false);
+		}
+		pendingReload = reloader.schedule(this::reload, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Rebuilds whichever maps changed, builds a new snapshot with the current metric and swaps
+	 * it in. The embeddings are only reparsed if the embeddings file itself changed. If anything
+	 * fails, including a parse that does not reach the end of a file that is still being written,
+	 * the running snapshot is left in place and the next change retries the load. The prefilter,
+	 * replacement cache and added vocabularies are not rebuilt, so Runner rejects --watch with 
+	 * them.
+	 * Time Complexity: O(n+m), see FileManagerService#generateVectorMaps()
+	 */
+	void reload() {
+		long start = System.nanoTime();
+		try {
+			HashMap<String, double[]> previousEmbeddings = fileManager.getEmbeddingsMap();
+			HashMap<String, double[]> previousReplacementWords = fileManager.getReplacementWordsMap();
+			fileManager.generateVectorMaps(); //Only reparses files whose fingerprint changed
+			if (fileManager.getReplacementWordsMap() == previousReplacementWords) {
+				return; //Touched but not changed
+			}
+			boolean embeddingsChanged = fileManager.getEmbeddingsMap() != previousEmbeddings;
+			if (fileManager.getReplacementWordsMap().isEmpty()) {
+				throw new IllegalStateException("No replacement words have embeddings, keeping current model");
+			}
+
+			//Atomic swap, keeping the metric, phrases, budget, coalescer and parallel scan
+			textSimplifier.setMaps(fileManager.getEmbeddingsMap(), fileManager.getReplacementWordsMap());
+
+			lastReloadMillis = (System.nanoTime() - start) / 1_000_000;
+			reloadCount.incrementAndGet();
+			out.println("[INFO] Model v" + version.incrementAndGet() + " live after " + lastReloadMillis
+					+ " ms (" + (embeddingsChanged ? "embeddings and replacement words" : "replacement words")
+					+ " reloaded)");
+		} catch (Exception e) {
+			failedReloadCount.incrementAndGet();
+			System.err.println("[Error] Model reload failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops watching and cancels any reload that has not started
+	 */
+	@Override
+	public void close() throws IOException {
+		if (watchService != null) {
+			watchService.close();
+		}
+		reloader.shutdownNow();
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Registers a directory for create and modify events. Create covers files replaced by a move.
+	 */
+	private void register(Path directory) throws IOException {
+		directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the version of the model currently live, starting at 1
+	 * @return the model version
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Getter for the number of successful reloads
+	 * @return the reload count
+	 */
+	public long getReloadCount() {
+		return reloadCount.get();
+	}
+
+	/**
+	 * Getter for the number of reloads that failed and left the previous model live
+	 * @return the failed reload count
+	 */
+	public long getFailedReloadCount() {
+		return failedReloadCount.get();
+	}
+
+	/**
+	 * Getter for how long the last successful reload took, from starting to parse until the
+	 * new snapshot was live
+	 * @return the duration in milliseconds, 0 if there has not been a reload
+	 */
+	public long getLastReloadMillis() {
+		return lastReloadMillis;
+	}
+
+}
@@ -0,0 +1,436 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses a gzip file into a sequence of byte blocks without writing anything to disk.
+ *
+ * The first member is inflated as a stream, in blocks of a bounded size, so a file with a single
+ * member is decompressed at once without looking any further into it, since deflate data cannot
+ * be split. Only if another member follows the first one is the rest of the file treated as a
+ * multi-member file (bgzip output, or files joined with cat) and decompressed in parallel: the
+ * file is scanned for member headers just ahead of the decompression, a window of members is
+ * inflated at the same time on virtual threads, and their blocks are handed on in file order.
+ * BGZF headers record the size of their member, so those files are walked member to member
+ * without a scan. The scan can also match the header bytes inside compressed data; such false
+ * starts are inflated too but are skipped, because only a member that begins exactly where the
+ * previous one ended is used, and every member is checked against its CRC32 and length trailer.
+ *
+ * Each member in the window holds at most a few blocks that the consumer has not taken yet, so
+ * the memory used is bounded by the window, not by the size of the members.
+ *
+ * @see FileVectorMapper
+ */
+public final class ParallelGzipReader {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final int SCAN_BUFFER = 1024 * 1024;
+	private static final int STREAM_BLOCK = 4 * 1024 * 1024; //Block size of the first member's output
+	private static final int MEMBER_BLOCK = 1024 * 1024; //Block size of the other members' output
+	private static final int MEMBER_QUEUE = 4; //Blocks a member inflates ahead of the consumer
+	private static final int FEXTRA = 4, FNAME = 8, FCOMMENT = 16, FHCRC = 2;
+
+	/**
+	 * Receives decompressed blocks in file order
+	 */
+	@FunctionalInterface
+	public interface BlockConsumer {
+		/**
+		 * @param data the decompressed bytes, only valid during the call
+		 * @param length the number of bytes of data to use
+		 * @throws IOException if the block cannot be used
+		 */
+		void accept(byte[] data, int length) throws IOException;
+	}
+
+	/**
+	 * A block of a member inflated ahead of the consumer. The last block of a member has no 
+	 * data and holds the file offset just after the member, or -1 if the member is not valid.
+	 */
+	private record Block(byte[] data, int length, long end) {}
+
+	/**
+	 * A member being inflated on its own thread, with the blocks it has inflated so far
+	 */
+	private static final class Member {
+		private final long start;
+		private final BlockingQueue<Block> blocks = new ArrayBlockingQueue<>(MEMBER_QUEUE);
+		private volatile boolean abandoned = false; //Set when the consumer stops taking blocks
+		private volatile IOException failure = null;
+
+		private Member(long start) {
+			this.start = start;
+		}
+
+		/**
+		 * Waits for room in the queue, giving up once the member is abandoned
+		 */
+		private void put(Block block) throws IOException {
+			try {
+				while (!abandoned && !blocks.offer(block, 50, TimeUnit.MILLISECONDS)) {
+					//The consumer is still busy with earlier members
+				}
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Inflation was interrupted");
+			}
+			if (abandoned) {
+				throw new InterruptedIOException("Member abandoned"); //Stops the inflation
+			}
+		}
+	}
+
+	private ParallelGzipReader() {
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Decompresses a gzip file into a consumer
+	 * Time Complexity: O(n/t) for a file of n compressed bytes split into members inflated on t
+	 * threads, O(n) for a single member
+	 *
+	 * @param path the gzip file
+	 * @param window the number of members inflated ahead of the consumer
+	 * @param consumer receives the decompressed data in order
+	 * @param progress receives the number of compressed bytes consumed so far
+	 * @throws IOException if the file cannot be read or is not valid gzip
+	 */
+	public static void read(Path path, int window, BlockConsumer consumer, LongConsumer progress)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			int[] header = readHeader(channel, 0);
+			if (header == null) {
+				throw new ZipException("Not in GZIP format");
+			}
+			long next = 0;
+			if (header[1] == 0) {
+				byte[] block = new byte[STREAM_BLOCK];
+				next = inflateMember(channel, 0, () -> block, consumer, progress);
+				if (next < 0) {
+					throw new ZipException("Corrupt or truncated gzip member at offset 0");
+				}
+				if (readHeader(channel, next) == null) {
+					progress.accept(channel.size()); //A single member, anything after it is ignored like GZIPInputStream
+					return;
+				}
+			}
+			readMembers(channel, new MemberScanner(channel, next), window, consumer, progress);
+		}
+	}
+
+	/**
+	 * Checks whether a file starts with the gzip magic bytes
+	 * @param path the file to check
+	 * @return true if the file is gzip compressed
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean isGzip(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(2);
+			channel.read(magic, 0);
+			return magic.position() == 2 && (magic.get(0) & 0xFF) == 0x1F && (magic.get(1) & 0xFF) == 0x8B;
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Inflates a window of candidate members in parallel and passes on the blocks of the chain 
+	 * of members that starts at the scanner's first offset
+	 */
+	private static void readMembers(FileChannel channel, MemberScanner scanner, int window,
+			BlockConsumer consumer, LongConsumer progress) throws IOException {
+		Deque<Member> inflating = new ArrayDeque<>();
+		long expected = scanner.peek(); //Where the next real member starts
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			try {
+				long start;
+				while ((start = scanner.next()) >= 0 || !inflating.isEmpty()) {
+					if (start >= 0) {
+						Member member = new Member(start);
+						inflating.add(member);
+						executor.execute(() -> inflate(channel, member));
+						if (inflating.size() < window) {
+							continue; //Fill the window first
+						}
+					}
+					Member member = inflating.poll();
+					if (member.start != expected) {
+						member.abandoned = true; //False start inside another member
+						continue;
+					}
+					expected = take(member, consumer);
+					progress.accept(expected);
+				}
+			} finally {
+				for (Member member : inflating) {
+					member.abandoned = true;
+				}
+			}
+		}
+		progress.accept(channel.size()); //Anything after the last member is ignored like GZIPInputStream
+	}
+
+	/**
+	 * Runs on a member's thread: inflates it into new blocks queued for the consumer
+	 */
+	private static void inflate(FileChannel channel, Member member) {
+		try {
+			long end = inflateMember(channel, member.start, () -> new byte[MEMBER_BLOCK],
+					(data, length) -> member.put(new Block(data, length, 0)), read -> {});
+			member.put(new Block(null, 0, end));
+		} catch (IOException | RuntimeException e) {
+			if (!member.abandoned) {
+				member.failure = e instanceof IOException io ? io : new IOException("Inflating gzip member failed: " + e, e);
+				member.blocks.offer(new Block(null, 0, -1)); //Wakes the consumer, a full queue means it is being read
+			}
+		}
+	}
+
+	/**
+	 * Passes the blocks of a member on to the consumer as they are inflated
+	 * @return the file offset just after the member
+	 */
+	private static long take(Member member, BlockConsumer consumer) throws IOException {
+		try {
+			while (true) {
+				Block block = member.blocks.poll(50, TimeUnit.MILLISECONDS);
+				if (block == null) {
+					if (member.failure != null) {
+						throw member.failure;
+					}
+					continue;
+				}
+				if (block.data() == null) {
+					if (block.end() < 0) {
+						throw member.failure != null ? member.failure 
+								: new ZipException("Corrupt or truncated gzip member at offset " + member.start);
+					}
+					return block.end();
+				}
+				consumer.accept(block.data(), block.length());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Loading was cancelled");
+		}
+	}
+
+	/**
+	 * Inflates the member starting at an offset into blocks, reading the channel with positional
+	 * reads so members can be inflated concurrently. A block is passed on each time it is full.
+	 * @param blocks supplies the array each block is inflated into
+	 * @param sink receives each block
+	 * @param read receives the file offset up to which compressed data has been read
+	 * @return the file offset just after the member, or -1 if the offset is not the start of a
+	 * valid member
+	 */
+	private static long inflateMember(FileChannel channel, long offset, Supplier<byte[]> blocks, BlockConsumer sink,
+			LongConsumer read) throws IOException {
+		int[] header = readHeader(channel, offset);
+		if (header == null) {
+			return -1;
+		}
+		Inflater inflater = new Inflater(true);
+		CRC32 crc = new CRC32();
+		try {
+			ByteBuffer input = ByteBuffer.allocate(64 * 1024);
+			long position = offset + header[0];
+			byte[] output = blocks.get();
+			int length = 0;
+			long total = 0;
+			while (!inflater.finished()) {
+				if (inflater.needsInput()) {
+					input.clear();
+					int count = channel.read(input, position);
+					if (count < 0) {
+						return -1; //Ran off the end of the file
+					}
+					position += count;
+					inflater.setInput(input.array(), 0, count);
+					read.accept(position);
+				}
+				int inflated = inflater.inflate(output, length, output.length - length);
+				crc.update(output, length, inflated);
+				length += inflated;
+				if (length == output.length) {
+					sink.accept(output, length);
+					total += length;
+					output = blocks.get();
+					length = 0;
+				}
+				if (inflated == 0 && inflater.needsDictionary()) {
+					return -1;
+				}
+			}
+			if (length > 0) {
+				sink.accept(output, length);
+				total += length;
+			}
+			long end = position - inflater.getRemaining();
+
+			//Trailer: CRC32 and uncompressed length modulo 2^32, little endian
+			ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			channel.read(trailer, end);
+			if (trailer.position() < 8 || (trailer.getInt(0) & 0xFFFFFFFFL) != crc.getValue()
+					|| trailer.getInt(4) != (int) total) {
+				return -1;
+			}
+			return end + 8;
+		} catch (DataFormatException e) {
+			return -1;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Parses a member header
+	 * @return {header length, compressed member size from a BGZF field or 0}, or null if there is
+	 * no valid header at the offset
+	 */
+	private static int[] readHeader(FileChannel channel, long offset) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		channel.read(buffer, offset);
+		buffer.flip();
+		if (buffer.remaining() < 10 || (buffer.get(0) & 0xFF) != 0x1F || (buffer.get(1) & 0xFF) != 0x8B
+				|| buffer.get(2) != 8 || (buffer.get(3) & 0xE0) != 0) {
+			return null;
+		}
+		int flags = buffer.get(3);
+		int position = 10;
+		int blockSize = 0;
+		try {
+			if ((flags & FEXTRA) != 0) {
+				int extraLength = buffer.getShort(position) & 0xFFFF;
+				int field = position + 2;
+				position = field + extraLength;
+				while (field + 4 <= position) {
+					int subfieldLength = buffer.getShort(field + 2) & 0xFFFF;
+					if (buffer.get(field) == 'B' && buffer.get(field + 1) == 'C' && subfieldLength == 2) {
+						blockSize = (buffer.getShort(field + 4) & 0xFFFF) + 1; //BGZF BSIZE is size - 1
+					}
+					field += 4 + subfieldLength;
+				}
+			}
+			if ((flags & FNAME) != 0) {
+				while (buffer.get(position++) != 0) {
+					//Skip the zero terminated name
+				}
+			}
+			if ((flags & FCOMMENT) != 0) {
+				while (buffer.get(position++) != 0) {
+					//Skip the zero terminated comment
+				}
+			}
+			if ((flags & FHCRC) != 0) {
+				position += 2;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			return null; //Header runs past the end of the file or the buffer
+		}
+		return position <= buffer.limit() ? new int[] {position, blockSize} : null;
+	}
+
+	/**
+	 * Finds the offsets that may start a member, just ahead of the decompression: a hop of BSIZE
+	 * for BGZF members, otherwise every occurrence of the header bytes
+	 */
+	private static final class MemberScanner {
+		private final FileChannel channel;
+		private final long size;
+		private final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+		private final Deque<Long> found = new ArrayDeque<>();
+		private long position; //Where scanning continues
+
+		private MemberScanner(FileChannel channel, long start) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			this.position = start;
+		}
+
+		/**
+		 * The next offset that may start a member, without moving past it
+		 * @return the offset, or -1 at the end of the file
+		 */
+		private long peek() throws IOException {
+			while (found.isEmpty() && position < size) {
+				scan();
+			}
+			return found.isEmpty() ? -1 : found.peek();
+		}
+
+		/**
+		 * The next offset that may start a member
+		 * @return the offset, or -1 at the end of the file
+		 */
+		private long next() throws IOException {
+			long next = peek();
+			found.poll();
+			return next;
+		}
+
+		/**
+		 * Hops over one BGZF member or scans one buffer of the file
+		 */
+		private void scan() throws IOException {
+			int[] header = readHeader(channel, position);
+			if (header != null && header[1] > 0) {
+				found.add(position); //BGZF: the next member is right after this one
+				position += header[1];
+				return;
+			}
+
+			//No size in the header, scan up to the next BGZF header or the end of the buffer
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read < 3) {
+				position = size;
+				return;
+			}
+			for (int i = 0; i + 3 < read; i++) {
+				if ((buffer.get(i) & 0xFF) == 0x1F && (buffer.get(i + 1) & 0xFF) == 0x8B
+						&& buffer.get(i + 2) == 8 && (buffer.get(i + 3) & 0xE0) == 0) {
+					if (i > 0) {
+						int[] candidate = readHeader(channel, position + i);
+						if (candidate != null && candidate[1] > 0) {
+							position += i;
+							return;
+						}
+					}
+					found.add(position + i);
+				}
+			}
+			//Overlap so a header split across buffers is not missed
+			position = read < buffer.capacity() ? size : position + read - 3;
+		}
+	}
+
+}
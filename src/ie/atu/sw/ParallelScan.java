@@ -0,0 +1,170 @@
+package ie.atu.sw;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Intra-query parallelism for the search of replacement words, for low-latency requests against
+ * a large replacement vocabulary, where a single document gives too little work to spread over
+ * the cores but one search scans many thousands of vectors. A snapshot with a parallel scan
+ * splits the replacement vectors into one contiguous partition per core, scans the partitions of
+ * each search in parallel as ForkJoin tasks and merges their winners.
+ *
+ * The cutoff is adaptive: a search is only split while every partition gets at least
+ * minWorkPerTask multiply-adds (replacement words times vector dimensions), so a small vocabulary
+ * such as google-1000 is scanned sequentially, where forking would cost more than it saves, and
+ * the number of partitions grows with the vocabulary up to the parallelism. Equal scores go to
+ * the earlier partition, so a parallel search chooses exactly the word a sequential scan does.
+ *
+ * The scan keeps counters of how many searches were split, shared by every snapshot derived from
+ * the one it was set on.
+ *
+ * @see EngineSnapshot#withParallelScan(ParallelScan)
+ */
+public final class ParallelScan {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	public static final long DEFAULT_MIN_WORK_PER_TASK = 1 << 18; //About 0.1 ms of scoring, well above a fork
+
+	private final ForkJoinPool pool;
+	private final int parallelism; //The most partitions per search
+	private final long minWorkPerTask; //Multiply-adds below which a partition is not split off
+	private final LongAdder parallelSearches = new LongAdder();
+	private final LongAdder sequentialSearches = new LongAdder();
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates a parallel scan with its own ForkJoin pool, so searches do not queue behind the
+	 * document-level work of the common pool
+	 * @param parallelism the most partitions per search, usually the number of cores
+	 * @param minWorkPerTask the fewest multiply-adds worth a partition of their own
+	 * @throws IllegalArgumentException if either is below 1
+	 */
+	public ParallelScan(int parallelism, long minWorkPerTask) {
+		if (parallelism < 1 || minWorkPerTask < 1) {
+			throw new IllegalArgumentException("Parallelism and work per task must be positive");
+		}
+		this.pool = new ForkJoinPool(parallelism);
+		this.parallelism = parallelism;
+		this.minWorkPerTask = minWorkPerTask;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Decides how many partitions a search is split into and counts the search
+	 * Time Complexity: O(1)
+	 *
+	 * @param vectors the number of replacement vectors scanned
+	 * @param dims the length of each vector
+	 * @return the number of partitions, 1 to scan sequentially
+	 */
+	int partitions(int vectors, int dims) {
+		long work = (long) vectors * dims;
+		int partitions = (int) Math.min(parallelism, Math.min(vectors, work / minWorkPerTask));
+		if (partitions > 1) {
+			parallelSearches.increment();
+			return partitions;
+		}
+		sequentialSearches.increment();
+		return 1;
+	}
+
+	/**
+	 * Compares a snapshot with a parallel scan with the same snapshot scanning sequentially on
+	 * words from the embeddings that are not replacement words, and prints the per-token latency
+	 * of both and whether they chose the same replacements
+	 * Time Complexity: O(s*m*d), where s is the number of sampled words
+	 *
+	 * @param sequential a snapshot without a parallel scan, replacement cache or memo
+	 * @param parallel the same snapshot with a parallel scan and no replacement cache or memo
+	 * @param samples the maximum number of words to compare
+	 */
+	public static void report(EngineSnapshot sequential, EngineSnapshot parallel, int samples) {
+		String[] words = sequential.getEmbeddingsMap().keySet().stream()
+				.filter(word -> !sequential.getVocabulary().contains(word))
+				.limit(samples)
+				.toArray(String[]::new);
+		if (words.length == 0) {
+			return;
+		}
+
+		//Warm up both paths before timing them
+		for (int i = 0; i < Math.min(words.length, 100); i++) {
+			sequential.findReplacementWord(words[i]);
+			parallel.findReplacementWord(words[i]);
+		}
+
+		String[] expected = new String[words.length];
+		long start = System.nanoTime();
+		for (int i = 0; i < words.length; i++) {
+			expected[i] = sequential.findReplacementWord(words[i]);
+		}
+		long sequentialNanos = System.nanoTime() - start;
+
+		int agreed = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < words.length; i++) {
+			if (parallel.findReplacementWord(words[i]).equals(expected[i])) {
+				agreed++;
+			}
+		}
+		long parallelNanos = Math.max(1, System.nanoTime() - start);
+
+		System.out.printf("[INFO] %s over %d words: %.1f us/token sequential, %.1f us/token parallel "
+				+ "(%.2fx speedup), %d of %d replacements identical%n", parallel.getParallelScan(), words.length,
+				sequentialNanos / 1000.0d / words.length, parallelNanos / 1000.0d / words.length,
+				(double) sequentialNanos / parallelNanos, agreed, words.length);
+	}
+
+	/**
+	 * Formats the counters as one "name value" pair per line, as the server's /metrics does
+	 * @return the metrics text
+	 */
+	public String metrics() {
+		return "parallel_scan_searches " + parallelSearches.sum() + '\n'
+				+ "parallel_scan_sequential_searches " + sequentialSearches.sum() + '\n';
+	}
+
+	@Override
+	public String toString() {
+		return "parallel scan(" + parallelism + " partitions, " + minWorkPerTask + " multiply-adds/partition)";
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the pool the partitions are scanned on
+	 * @return the ForkJoin pool
+	 */
+	ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Getter for the most partitions per search
+	 * @return the parallelism
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Getter for the number of searches that were split
+	 * @return the number of parallel searches so far
+	 */
+	public long getParallelSearches() {
+		return parallelSearches.sum();
+	}
+
+}
@@ -32,6 +32,29 @@ public class PathValidator implements PathValidatorService {
         }
     }
 	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * This implementation accepts local .txt files and gzip compressed .gz files, which are 
+	 * decompressed while they are loaded. Otherwise the checks are those of validateInputPath
+	 * Time complexity: O(1). Simple boolean check
+	 */
+	@Override
+	public void validateEmbeddingsPath(String path) throws Exception {
+		if (path.endsWith(".gz")) {
+			File file = new File(path);
+			if (!file.exists() || file.isDirectory()) {
+				throw new FileNotFoundException("Input file not found or is a directory: " + path);
+			}
+			if (!file.canRead()) {
+				throw new SecurityException("Cannot read the input file: " + path);
+			}
+			System.out.println("input file succesfully validated: " + path);
+		} else {
+			validateInputPath(path);
+		}
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * 
@@ -11,6 +11,13 @@ public interface PathValidatorService {
 	 */
 	public void validateInputPath(String path) throws Exception;
 	
+	/**
+	 * Checks whether a word embeddings path is valid. Embeddings may be compressed
+	 * @param path location of the word embeddings
+	 * @throws Exception If path is not valid
+	 */
+	public void validateEmbeddingsPath(String path) throws Exception;
+	
 	/**
 	 * Checks whether an output path is valid
 	 * @param path location of the output
@@ -0,0 +1,459 @@
+package ie.atu.sw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Aho–Corasick automaton over words that finds every multi-word phrase of a phrase file in one
+ * left to right pass over the words of a line, so replacing phrases such as "in order to" with
+ * "to" costs the same whether the file lists ten phrases or a hundred thousand.
+ *
+ * The phrases form a trie whose edges are words. Each state has a failure link to the state of
+ * the longest proper suffix of its phrase prefix that is also a prefix, and an output link to
+ * the nearest state on that chain that ends a phrase, so after each word every phrase ending
+ * there is reached without trying any phrase that cannot match. Words are found by character
+ * range in a WordIndex of the phrase words and edges in an open addressing table keyed by state
+ * and word, so matching allocates nothing.
+ *
+ * Overlapping matches are resolved leftmost first, then longest, and a phrase's replacement is
+ * written as it is, not simplified again. Like the rest of the engine, words are compared
+ * exactly, case and punctuation included.
+ *
+ * Compiling a large phrase file is the slow part, so the automaton can be saved in a binary
+ * form that loads without parsing or rebuilding the links: {@link #open(String)} keeps a
+ * compiled copy beside the phrase file and recompiles only when the file changes.
+ *
+ * @see EngineSnapshot#withPhrases(PhraseAutomaton)
+ */
+public final class PhraseAutomaton {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	public static final String COMPILED_SUFFIX = ".wpa"; //Compiled copy kept beside a phrase file
+	private static final int MAGIC = 0x57504131; //"WPA1"
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+
+	private final String source; //Version of the phrase file, see FileFingerprint#version
+	private final String[] words; //Phrase words by word id
+	private final WordIndex wordIndex; //Phrase words, for lookups by character range
+	private final int[] wordIds; //Word id of each row of wordIndex, NONE for empty rows
+	private final long[] edgeKeys; //Open addressing table of (state, word id) + 1, 0 marks an empty slot
+	private final int[] edgeTargets; //State each edge leads to
+	private final int[] edgeSources; //Edges in creation order, for saving: source state
+	private final int[] edgeWords; //Edges in creation order, for saving: word id
+	private final int[] fail; //Failure link of each state
+	private final int[] output; //Nearest state on the failure chain that ends a phrase, or NONE
+	private final int[] depth; //Number of words of each state's prefix
+	private final int[] phraseOf; //Phrase a state ends, or NONE
+	private final String[] replacements; //Replacement of each phrase, "" to delete it
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Builds the lookup tables over compiled or loaded arrays
+	 */
+	private PhraseAutomaton(String source, String[] words, int[] edgeSources, int[] edgeWords, int[] edgeTargets,
+			int[] fail, int[] output, int[] depth, int[] phraseOf, String[] replacements) {
+		this.source = source;
+		this.words = words;
+		this.edgeSources = edgeSources;
+		this.edgeWords = edgeWords;
+		this.fail = fail;
+		this.output = output;
+		this.depth = depth;
+		this.phraseOf = phraseOf;
+		this.replacements = replacements;
+
+		Map<String, double[]> vocabulary = new HashMap<>();
+		for (String word : words) {
+			vocabulary.put(word, null); //Only the rows are used
+		}
+		this.wordIndex = new WordIndex(vocabulary);
+		this.wordIds = new int[wordIndex.capacity()];
+		Arrays.fill(wordIds, NONE);
+		for (int id = 0; id < words.length; id++) {
+			wordIds[wordIndex.find(words[id])] = id;
+		}
+
+		int capacity = Integer.highestOneBit(Math.max(2, edgeSources.length * 2) - 1) << 1; //At most half full
+		this.edgeKeys = new long[capacity];
+		this.edgeTargets = new int[capacity];
+		for (int i = 0; i < edgeSources.length; i++) {
+			int slot = slot(edgeSources[i], edgeWords[i]);
+			edgeKeys[slot] = key(edgeSources[i], edgeWords[i]);
+			this.edgeTargets[slot] = edgeTargets[i];
+		}
+	}
+
+	/**
+	 * Compiles a phrase file. Each line holds a phrase and its replacement separated by a comma,
+	 * e.g. "in order to,to"; the words of a phrase are separated by whitespace, the replacement
+	 * is written as it is and may be empty to delete the phrase. Blank lines and lines without a
+	 * comma are skipped, and a phrase listed twice keeps its first replacement.
+	 * Time Complexity: O(p*k), where p is the number of words of all phrases and k their length
+	 *
+	 * @param path the phrase file
+	 * @return the automaton
+	 * @throws IOException if the file cannot be read
+	 */
+	public static PhraseAutomaton compile(String path) throws IOException {
+		Map<List<String>, String> phrases = new LinkedHashMap<>();
+		for (String line : Files.readAllLines(Paths.get(path))) {
+			int comma = line.lastIndexOf(',');
+			String phrase = comma < 0 ? "" : line.substring(0, comma).strip();
+			if (!phrase.isEmpty()) {
+				phrases.putIfAbsent(List.of(phrase.split("\\s+")), line.substring(comma + 1).strip());
+			}
+		}
+		return build(FileFingerprint.of(path).version(), phrases);
+	}
+
+	/**
+	 * Opens the automaton of a phrase file through its compiled copy, the phrase file's path
+	 * followed by COMPILED_SUFFIX. The copy is used if it was compiled from the current version
+	 * of the phrase file; otherwise the file is compiled and the copy rewritten. A copy that
+	 * cannot be written is reported and the compiled automaton used anyway.
+	 * Time Complexity: O(s) to load, where s is the number of states, see compile otherwise
+	 *
+	 * @param path the phrase file
+	 * @return the automaton
+	 * @throws IOException if the phrase file cannot be read
+	 */
+	public static PhraseAutomaton open(String path) throws IOException {
+		String version = FileFingerprint.of(path).version();
+		String compiledPath = path + COMPILED_SUFFIX;
+		if (Files.exists(Paths.get(compiledPath))) {
+			try {
+				PhraseAutomaton compiled = load(compiledPath);
+				if (compiled.source.equals(version)) {
+					return compiled;
+				}
+			} catch (IOException e) {
+				System.err.println("[Error] Ignoring compiled phrases " + compiledPath + ": " + e.getMessage());
+			}
+		}
+		PhraseAutomaton automaton = compile(path);
+		try {
+			automaton.save(compiledPath);
+		} catch (IOException e) {
+			System.err.println("[Error] Could not save compiled phrases: " + e.getMessage());
+		}
+		return automaton;
+	}
+
+	/**
+	 * Loads an automaton saved with {@link #save(String)}
+	 * Time Complexity: O(s + e + w*k), where s is the number of states, e the number of edges and
+	 * w the number of distinct words of length k
+	 *
+	 * @param path the compiled file
+	 * @return the automaton
+	 * @throws IOException if the file cannot be read or is not a compiled phrase file
+	 */
+	public static PhraseAutomaton load(String path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(path)), 64 * 1024))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a compiled phrase file: " + path);
+			}
+			String source = in.readUTF();
+			String[] words = readStrings(in);
+			String[] replacements = readStrings(in);
+			int[] edgeSources = readInts(in);
+			int[] edgeWords = readInts(in);
+			int[] edgeTargets = readInts(in);
+			int[] fail = readInts(in);
+			int[] output = readInts(in);
+			int[] depth = readInts(in);
+			int[] phraseOf = readInts(in);
+			return new PhraseAutomaton(source, words, edgeSources, edgeWords, edgeTargets, fail, output, depth,
+					phraseOf, replacements);
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Finds the phrases among the words of a line and resolves overlaps leftmost first, then
+	 * longest. Allocates nothing.
+	 * Time Complexity: O(n*k + o), where n is the number of words of length k and o the number
+	 * of phrase occurrences, overlapping ones included
+	 *
+	 * @param text the characters holding the line
+	 * @param starts index of the first character of each word
+	 * @param ends index after the last character of each word
+	 * @param count the number of words
+	 * @param lengths receives at each word the number of words of the phrase replacing it from
+	 * there, or 0 if the word is not replaced by a phrase. Words inside a phrase are skipped.
+	 * @param phrases receives at each word with a length the phrase replacing it
+	 * @return the number of phrases to replace
+	 */
+	public int match(CharSequence text, int[] starts, int[] ends, int count, int[] lengths, int[] phrases) {
+		Arrays.fill(lengths, 0, count, 0);
+		int state = ROOT;
+		for (int i = 0; i < count; i++) {
+			int row = wordIndex.find(text, starts[i], ends[i]);
+			state = next(state, row < 0 ? NONE : wordIds[row]);
+			for (int found = phraseOf[state] != NONE ? state : output[state]; found != NONE; found = output[found]) {
+				int first = i - depth[found] + 1;
+				if (depth[found] > lengths[first]) {
+					lengths[first] = depth[found];
+					phrases[first] = phraseOf[found];
+				}
+			}
+		}
+
+		int replaced = 0;
+		for (int i = 0; i < count;) {
+			if (lengths[i] == 0) {
+				i++;
+				continue;
+			}
+			replaced++;
+			int phraseEnd = i + lengths[i];
+			for (i++; i < phraseEnd; i++) {
+				lengths[i] = 0; //Inside the chosen phrase
+			}
+		}
+		return replaced;
+	}
+
+	/**
+	 * Saves the automaton in the binary form read by {@link #load(String)}. The file is written
+	 * beside the target and moved into place, so a reader never sees half a file.
+	 * Time Complexity: O(s + e + w*k), see load
+	 *
+	 * @param path the compiled file, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(String path) throws IOException {
+		Path target = Paths.get(path);
+		Path temporary = Paths.get(path + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024))) {
+			out.writeInt(MAGIC);
+			out.writeUTF(source);
+			writeStrings(out, words);
+			writeStrings(out, replacements);
+			writeInts(out, edgeSources);
+			writeInts(out, edgeWords);
+			writeInts(out, edgeTargets());
+			writeInts(out, fail);
+			writeInts(out, output);
+			writeInts(out, depth);
+			writeInts(out, phraseOf);
+		}
+		Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public String toString() {
+		return replacements.length + " phrases (" + words.length + " words, " + depth.length + " states)";
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Builds the trie of the phrases, then sets the failure and output links in order of depth,
+	 * so the links of shorter prefixes are known before they are needed. Every edge creates the
+	 * state it leads to, so edge i leads to state i + 1.
+	 */
+	private static PhraseAutomaton build(String source, Map<List<String>, String> phrases) {
+		Map<String, Integer> ids = new LinkedHashMap<>();
+		Map<Long, Integer> edges = new LinkedHashMap<>(); //State and word packed in a long to state, in creation order
+		int states = 1;
+		int[] phraseOf = new int[phrases.values().size() + 1];
+		int[] depth = new int[phraseOf.length];
+		Arrays.fill(phraseOf, NONE);
+		String[] replacements = phrases.values().toArray(new String[0]);
+
+		int phrase = 0;
+		for (List<String> words : phrases.keySet()) {
+			int state = ROOT;
+			for (String word : words) {
+				int id = ids.computeIfAbsent(word, w -> ids.size());
+				long edge = (long) state << 32 | id;
+				Integer next = edges.get(edge);
+				if (next == null) {
+					next = states++;
+					if (next == phraseOf.length) {
+						phraseOf = Arrays.copyOf(phraseOf, next * 2);
+						depth = Arrays.copyOf(depth, next * 2);
+						Arrays.fill(phraseOf, next, next * 2, NONE);
+					}
+					depth[next] = depth[state] + 1;
+					edges.put(edge, next);
+				}
+				state = next;
+			}
+			phraseOf[state] = phrase++;
+		}
+
+		int[] edgeSources = new int[edges.size()];
+		int[] edgeWords = new int[edges.size()];
+		int[] edgeTargets = new int[edges.size()];
+		int edge = 0;
+		for (var entry : edges.entrySet()) {
+			edgeSources[edge] = (int) (entry.getKey() >>> 32);
+			edgeWords[edge] = (int) (long) entry.getKey();
+			edgeTargets[edge++] = entry.getValue();
+		}
+		int[] fail = new int[states];
+		int[] output = new int[states];
+		PhraseAutomaton trie = new PhraseAutomaton(source, ids.keySet().toArray(new String[0]), edgeSources, edgeWords,
+				edgeTargets, fail, output, Arrays.copyOf(depth, states), Arrays.copyOf(phraseOf, states), replacements);
+
+		int[] byDepth = IntStream.range(1, states).boxed()
+				.sorted(Comparator.comparingInt(state -> trie.depth[state])).mapToInt(Integer::intValue).toArray();
+		output[ROOT] = NONE;
+		for (int state : byDepth) {
+			int parent = edgeSources[state - 1];
+			fail[state] = parent == ROOT ? ROOT : trie.next(fail[parent], edgeWords[state - 1]);
+			output[state] = trie.phraseOf[fail[state]] != NONE ? fail[state] : output[fail[state]];
+		}
+		return trie;
+	}
+
+	/**
+	 * Follows the edge for a word, falling back along the failure links until a state has one
+	 */
+	private int next(int state, int word) {
+		if (word == NONE) {
+			return ROOT; //No phrase contains the word
+		}
+		while (true) {
+			int slot = slot(state, word);
+			if (edgeKeys[slot] != 0) {
+				return edgeTargets[slot];
+			}
+			if (state == ROOT) {
+				return ROOT;
+			}
+			state = fail[state];
+		}
+	}
+
+	/**
+	 * Finds the slot of an edge, or the empty slot where it would be
+	 */
+	private int slot(int state, int word) {
+		long key = key(state, word);
+		int mask = edgeKeys.length - 1;
+		int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+		while (edgeKeys[slot] != 0 && edgeKeys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Packs an edge into a non-zero key
+	 */
+	private static long key(int state, int word) {
+		return ((long) state << 32 | word) + 1;
+	}
+
+	/**
+	 * The targets of the edges in creation order, read back from the table
+	 */
+	private int[] edgeTargets() {
+		int[] targets = new int[edgeSources.length];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = edgeTargets[slot(edgeSources[i], edgeWords[i])];
+		}
+		return targets;
+	}
+
+	/**
+	 * Writes a length followed by the strings
+	 */
+	private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+		out.writeInt(values.length);
+		for (String value : values) {
+			out.writeUTF(value);
+		}
+	}
+
+	/**
+	 * Reads strings written by writeStrings
+	 */
+	private static String[] readStrings(DataInputStream in) throws IOException {
+		String[] values = new String[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readUTF();
+		}
+		return values;
+	}
+
+	/**
+	 * Writes a length followed by the values
+	 */
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	/**
+	 * Reads values written by writeInts
+	 */
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the replacement of a phrase
+	 * @param phrase a phrase returned by match
+	 * @return the replacement, empty if the phrase is deleted
+	 */
+	public String getReplacement(int phrase) {
+		return replacements[phrase];
+	}
+
+	/**
+	 * Getter for the number of phrases
+	 * @return the number of phrases
+	 */
+	public int size() {
+		return replacements.length;
+	}
+
+	/**
+	 * Getter for the version of the phrase file the automaton was compiled from
+	 * @return the file's version, see FileFingerprint#version
+	 */
+	public String getSource() {
+		return source;
+	}
+
+}
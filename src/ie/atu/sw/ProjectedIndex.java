@@ -0,0 +1,284 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Candidate prefilter for the nearest replacement word search. At load time every replacement
+ * vector is projected into a much lower dimension with a seeded Gaussian random projection, which
+ * approximately preserves dot products and distances (Johnson-Lindenstrauss). A query is projected
+ * the same way and scored against the projected vectors, and only the best few candidates are
+ * passed on to be re-ranked with the exact SimilarityCalculator on the full vectors.
+ *
+ * The shortlist is returned in index order, so ties in the exact re-rank are resolved exactly as
+ * they are by the exhaustive scan.
+ *
+ * @see EngineSnapshot#withPrefilter(int, int, long)
+ */
+public final class ProjectedIndex {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private final int dims; //Reduced dimension
+	private final int inputDims; //Dimension of the full vectors
+	private final int candidates; //Shortlist size
+	private final long seed;
+	private final double[] projection; //dims x inputDims, row-major
+	private final double[] projected; //One row of dims values per replacement vector
+	private final double[] projectedNorms; //Length of each projected row
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Builds the projection and projects every replacement vector
+	 * Time Complexity: O(m*d*k), where m is the number of vectors, d their dimension and k the
+	 * reduced dimension
+	 *
+	 * @param vectors the full replacement vectors
+	 * @param dims the reduced dimension
+	 * @param candidates the number of candidates to shortlist for the exact re-rank
+	 * @param seed seed of the random projection, so runs are reproducible
+	 * @throws IllegalArgumentException if the settings are invalid or the vectors differ in length
+	 */
+	public ProjectedIndex(double[][] vectors, int dims, int candidates, long seed) {
+		if (dims < 1 || candidates < 1) {
+			throw new IllegalArgumentException("Prefilter dimensions and candidates must be at least 1");
+		}
+		this.inputDims = vectors.length > 0 ? vectors[0].length : 0;
+		this.dims = dims;
+		this.candidates = candidates;
+		this.seed = seed;
+
+		//Gaussian entries scaled so projected dot products are unbiased estimates of the originals
+		Random random = new Random(seed);
+		double scale = 1.0d / Math.sqrt(dims);
+		this.projection = new double[dims * inputDims];
+		for (int i = 0; i < projection.length; i++) {
+			projection[i] = random.nextGaussian() * scale;
+		}
+
+		this.projected = new double[vectors.length * dims];
+		this.projectedNorms = new double[vectors.length];
+		for (int row = 0; row < vectors.length; row++) {
+			if (vectors[row].length != inputDims) {
+				throw new IllegalArgumentException("Error: Vectors are not same length");
+			}
+			project(vectors[row], projected, row * dims);
+			double sum = 0.0d;
+			for (int j = 0; j < dims; j++) {
+				sum += projected[row * dims + j] * projected[row * dims + j];
+			}
+			projectedNorms[row] = Math.sqrt(sum);
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Finds the candidates that score best against a query in the reduced space
+	 * Time Complexity: O(d*k + m*k + m*log(c)), where c is the number of candidates
+	 *
+	 * @param query the full query vector
+	 * @param calcType the metric the candidates will be re-ranked with
+	 * @return indices of the shortlisted replacement vectors in ascending order
+	 * @throws IllegalArgumentException if the query has the wrong length
+	 */
+	public int[] shortlist(double[] query, CalculatorType calcType) {
+		if (query.length != inputDims) {
+			throw new IllegalArgumentException("Error: Vectors are not same length");
+		}
+		double[] q = new double[dims];
+		project(query, q, 0);
+
+		int rows = projectedNorms.length;
+		int size = Math.min(candidates, rows);
+		double[] heapScores = new double[size]; //Min-heap of the best scores so far
+		int[] heapRows = new int[size];
+		int count = 0;
+
+		for (int row = 0; row < rows; row++) {
+			double score = reducedScore(q, row, calcType); //Higher is always better here
+			if (count < size) {
+				heapScores[count] = score;
+				heapRows[count] = row;
+				siftUp(heapScores, heapRows, count++);
+			} else if (score > heapScores[0]) {
+				heapScores[0] = score;
+				heapRows[0] = row;
+				siftDown(heapScores, heapRows, size);
+			}
+		}
+
+		int[] shortlist = Arrays.copyOf(heapRows, count);
+		Arrays.sort(shortlist); //Index order keeps tie-breaking identical to the exhaustive scan
+		return shortlist;
+	}
+
+	/**
+	 * Builds a prefilter with the same projection settings over another set of replacement 
+	 * vectors, after the vocabulary was edited
+	 * Time Complexity: O(m*d*k), see the constructor
+	 *
+	 * @param vectors the full replacement vectors
+	 * @return the new prefilter
+	 */
+	public ProjectedIndex rebuild(double[][] vectors) {
+		return new ProjectedIndex(vectors, dims, candidates, seed);
+	}
+
+	/**
+	 * Compares a prefiltered snapshot with the exhaustive search on words from the embeddings
+	 * that are not replacement words, and prints the per-token speedup and how often both
+	 * searches chose the same replacement
+	 * Time Complexity: O(s*m*d), where s is the number of sampled words
+	 *
+	 * @param exact a snapshot without a prefilter, replacement cache or memo
+	 * @param prefiltered the same snapshot with a prefilter and no replacement cache or memo
+	 * @param samples the maximum number of words to compare
+	 */
+	public static void report(EngineSnapshot exact, EngineSnapshot prefiltered, int samples) {
+		String[] words = exact.getEmbeddingsMap().keySet().stream()
+				.filter(word -> !exact.getVocabulary().contains(word))
+				.limit(samples)
+				.toArray(String[]::new);
+		if (words.length == 0) {
+			return;
+		}
+
+		//Warm up both paths before timing them
+		for (int i = 0; i < Math.min(words.length, 100); i++) {
+			exact.findReplacementWord(words[i]);
+			prefiltered.findReplacementWord(words[i]);
+		}
+
+		String[] expected = new String[words.length];
+		long start = System.nanoTime();
+		for (int i = 0; i < words.length; i++) {
+			expected[i] = exact.findReplacementWord(words[i]);
+		}
+		long exactNanos = System.nanoTime() - start;
+
+		int agreed = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < words.length; i++) {
+			if (prefiltered.findReplacementWord(words[i]).equals(expected[i])) {
+				agreed++;
+			}
+		}
+		long prefilterNanos = Math.max(1, System.nanoTime() - start);
+
+		System.out.printf("[INFO] %s over %d words: %.1f us/token exhaustive, %.1f us/token prefiltered "
+				+ "(%.2fx speedup), %.1f%% agreement%n", prefiltered.getPrefilter(), words.length,
+				exactNanos / 1000.0d / words.length, prefilterNanos / 1000.0d / words.length,
+				(double) exactNanos / prefilterNanos, 100.0d * agreed / words.length);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Scores a projected row so that higher is better for every metric
+	 */
+	private double reducedScore(double[] q, int row, CalculatorType calcType) {
+		int offset = row * dims;
+		switch (calcType) {
+			case EUCLIDEAN: {
+				double sum = 0.0d;
+				for (int j = 0; j < dims; j++) {
+					double diff = q[j] - projected[offset + j];
+					sum += diff * diff;
+				}
+				return -sum;
+			}
+			case COSINE: {
+				double dot = 0.0d;
+				for (int j = 0; j < dims; j++) {
+					dot += q[j] * projected[offset + j];
+				}
+				return projectedNorms[row] == 0.0d ? Double.NEGATIVE_INFINITY : dot / projectedNorms[row];
+			}
+			default: {
+				double dot = 0.0d;
+				for (int j = 0; j < dims; j++) {
+					dot += q[j] * projected[offset + j];
+				}
+				return dot;
+			}
+		}
+	}
+
+	/**
+	 * Multiplies a full vector by the projection matrix into target[offset..offset+dims)
+	 */
+	private void project(double[] vector, double[] target, int offset) {
+		for (int i = 0; i < dims; i++) {
+			double sum = 0.0d;
+			int base = i * inputDims;
+			for (int j = 0; j < inputDims; j++) {
+				sum += projection[base + j] * vector[j];
+			}
+			target[offset + i] = sum;
+		}
+	}
+
+	private static void siftUp(double[] scores, int[] rows, int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (scores[parent] <= scores[i]) {
+				return;
+			}
+			swap(scores, rows, parent, i);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(double[] scores, int[] rows, int size) {
+		int i = 0;
+		while (true) {
+			int smallest = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < size && scores[left] < scores[smallest]) {
+				smallest = left;
+			}
+			if (right < size && scores[right] < scores[smallest]) {
+				smallest = right;
+			}
+			if (smallest == i) {
+				return;
+			}
+			swap(scores, rows, smallest, i);
+			i = smallest;
+		}
+	}
+
+	private static void swap(double[] scores, int[] rows, int a, int b) {
+		double score = scores[a];
+		scores[a] = scores[b];
+		scores[b] = score;
+		int row = rows[a];
+		rows[a] = rows[b];
+		rows[b] = row;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Describes the settings, e.g. for inclusion in a cache fingerprint
+	 * @return the reduced dimension, shortlist size and seed
+	 */
+	@Override
+	public String toString() {
+		return "prefilter(" + dims + "," + candidates + "," + seed + ")";
+	}
+
+}
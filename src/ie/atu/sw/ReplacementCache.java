@@ -0,0 +1,348 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent word to replacement cache shared by every run and process on a host. Each model
+ * (embeddings file, replacement list and metric) has its own append-only cache file, named after
+ * the model fingerprint, so a cached result is never used with a different model.
+ *
+ * <pre>
+ * header: int magic, int generation, short length, fingerprint (UTF-8)
+ * record: short length, word (UTF-8), short length, replacement (UTF-8)
+ * </pre>
+ *
+ * The file is read through one read-only memory mapping, which is only replaced when the file
+ * has grown past it and is never read beyond the current end of the file, as compaction shrinks
+ * the file under it. New results are buffered and appended in batches while holding an
+ * exclusive file lock, so several processes can write to the same file.
+ * Before appending, a writer first reads any records appended by other processes and cuts off a
+ * torn record left by a process that crashed mid-write. When most records are duplicates, the
+ * file is compacted in place and its generation is increased, which tells other processes to
+ * reread it from the start.
+ *
+ * @see EngineSnapshot
+ */
+public class ReplacementCache implements AutoCloseable {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final int MAGIC = 0x57524331; //"WRC1"
+	private static final int FLUSH_THRESHOLD = 256; //Pending records written in one append
+	private static final long REFRESH_INTERVAL_NANOS = 1_000_000_000L; //Misses reread at most once a second
+	private static final int MIN_RECORDS_TO_COMPACT = 1024;
+
+	private final Path path;
+	private final String fingerprint;
+	private final FileChannel channel;
+	private final Map<String, String> entries = new ConcurrentHashMap<>();
+	private final List<String[]> pending = new ArrayList<>(); //Guarded by this
+	private int generation = -1; //Generation of the file last read, guarded by this
+	private long readPosition = 0; //End of the last valid record read, guarded by this
+	private long recordsRead = 0; //Including duplicates, guarded by this
+	private MappedByteBuffer map = null; //Mapping of the file from offset 0, guarded by this
+	private volatile long lastRefresh = 0;
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Opens (and creates if needed) the cache file for a model and reads its entries
+	 * @param directory the directory holding the cache files
+	 * @param fingerprint the model fingerprint, see FileFingerprint#modelKey
+	 * @throws IOException if the cache file cannot be opened or read
+	 */
+	public ReplacementCache(String directory, String fingerprint) throws IOException {
+		Files.createDirectories(Paths.get(directory));
+		this.path = Paths.get(directory, "replacements-"
+				+ ChunkStore.key("replacement-cache", fingerprint).substring(0, 16) + ".cache");
+		this.fingerprint = fingerprint;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		synchronized (this) {
+			FileLock lock = channel.lock();
+			try {
+				refreshLocked(true);
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Looks up the cached replacement for a word. On a miss, records appended by other processes
+	 * are read first, at most once a second.
+	 * Time Complexity: O(1) on a hit
+	 *
+	 * @param word the word to look up
+	 * @return the cached replacement, or null if the word has not been resolved before
+	 */
+	public String get(String word) {
+		String replacement = entries.get(word);
+		if (replacement == null && System.nanoTime() - lastRefresh > REFRESH_INTERVAL_NANOS) {
+			lastRefresh = System.nanoTime();
+			try {
+				refresh();
+			} catch (IOException e) {
+				System.err.println("[Error] Reading replacement cache: " + e.getMessage());
+			}
+			replacement = entries.get(word);
+		}
+		return replacement;
+	}
+
+	/**
+	 * Records a newly resolved word. It is visible to this process at once and is written to
+	 * the file with the next batch.
+	 * Time Complexity: O(1), amortised over the batch write
+	 *
+	 * @param word the word that was resolved
+	 * @param replacement its replacement
+	 */
+	public void put(String word, String replacement) {
+		if (entries.putIfAbsent(word, replacement) != null) {
+			return; //Another thread or process resolved it first
+		}
+		boolean flush;
+		synchronized (this) {
+			pending.add(new String[] {word, replacement});
+			flush = pending.size() >= FLUSH_THRESHOLD;
+		}
+		if (flush) {
+			try {
+				flush();
+			} catch (IOException e) {
+				System.err.println("[Error] Writing replacement cache: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Appends the pending records under an exclusive lock, compacting the file first if most
+	 * of it is duplicates
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void flush() throws IOException {
+		if (pending.isEmpty()) {
+			return;
+		}
+		FileLock lock = channel.lock();
+		try {
+			refreshLocked(true); //Catch up with other processes and drop any torn tail
+			if (recordsRead >= MIN_RECORDS_TO_COMPACT && recordsRead > 2L * entries.size()) {
+				compactLocked(); //Writes every entry, including the pending ones
+			} else {
+				appendLocked(pending);
+			}
+			pending.clear();
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Writes any pending records and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Reads records appended since the last read under a shared lock
+	 */
+	private synchronized void refresh() throws IOException {
+		FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+		try {
+			refreshLocked(false);
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Reads new records through the memory mapping, mapping the file again only if it has grown
+	 * past the current mapping. Must hold a file lock. A file with a different
+	 * generation is reread from the start. With the exclusive lock, a new or unreadable file is
+	 * given a fresh header and an incomplete record at the end (from a crashed writer) is
+	 * truncated.
+	 * @param exclusive whether the exclusive lock is held
+	 */
+	private void refreshLocked(boolean exclusive) throws IOException {
+		long size = channel.size();
+		if (size == 0 || !readHeaderLocked()) {
+			if (exclusive) {
+				if (size > 0) {
+					System.err.println("[Error] Replacement cache " + path + " is unreadable, starting a new one");
+				}
+				resetLocked(generation + 1);
+			}
+			return;
+		}
+		if (size <= readPosition) {
+			return;
+		}
+
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Replacement cache " + path + " is larger than 2 GB");
+		}
+		if (map == null || map.capacity() < size) {
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		ByteBuffer records = map.duplicate().limit((int) size).position((int) readPosition);
+		while (records.hasRemaining()) {
+			int start = records.position();
+			String word = readString(records);
+			String replacement = word == null ? null : readString(records);
+			if (replacement == null) {
+				records.position(start); //Incomplete record
+				break;
+			}
+			entries.putIfAbsent(word, replacement);
+			recordsRead++;
+		}
+		readPosition = records.position();
+		if (exclusive && readPosition < size) {
+			channel.truncate(readPosition); //Torn record, no writer can be active under this lock
+		}
+	}
+
+	/**
+	 * Reads the header, rereading the whole file if its generation has changed
+	 * @return false if the header is not valid for this fingerprint
+	 */
+	private boolean readHeaderLocked() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(10);
+		channel.read(header, 0);
+		header.flip();
+		if (header.remaining() < 10 || header.getInt() != MAGIC) {
+			return false;
+		}
+		int fileGeneration = header.getInt();
+		int length = header.getShort() & 0xFFFF;
+		if (fileGeneration != generation) {
+			ByteBuffer stored = ByteBuffer.allocate(length);
+			channel.read(stored, 10);
+			if (!fingerprint.equals(new String(stored.array(), 0, stored.position(), StandardCharsets.UTF_8))) {
+				return false;
+			}
+			generation = fileGeneration;
+			readPosition = 10 + length; //Reread every record
+			recordsRead = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Rewrites the file with one record per entry under a new generation
+	 */
+	private void compactLocked() throws IOException {
+		List<String[]> all = new ArrayList<>(entries.size());
+		entries.forEach((word, replacement) -> all.add(new String[] {word, replacement}));
+		resetLocked(generation + 1);
+		appendLocked(all);
+		recordsRead = all.size();
+	}
+
+	/**
+	 * Truncates the file to a fresh header
+	 */
+	private void resetLocked(int newGeneration) throws IOException {
+		byte[] stored = fingerprint.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer header = ByteBuffer.allocate(10 + stored.length);
+		header.putInt(MAGIC).putInt(newGeneration).putShort((short) stored.length).put(stored).flip();
+		channel.truncate(0);
+		writeFully(header, 0);
+		generation = newGeneration;
+		readPosition = header.limit();
+		recordsRead = 0;
+	}
+
+	/**
+	 * Appends records at the current end of the file in a single write
+	 */
+	private void appendLocked(List<String[]> records) throws IOException {
+		int length = 0;
+		int written = 0;
+		List<byte[]> encoded = new ArrayList<>(records.size() * 2);
+		for (String[] record : records) {
+			byte[] word = record[0].getBytes(StandardCharsets.UTF_8);
+			byte[] replacement = record[1].getBytes(StandardCharsets.UTF_8);
+			if (word.length > 0xFFFF || replacement.length > 0xFFFF) {
+				continue; //Too long for the record format, only cached in memory
+			}
+			encoded.add(word);
+			encoded.add(replacement);
+			length += 4 + word.length + replacement.length;
+			written++;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for (byte[] bytes : encoded) {
+			buffer.putShort((short) bytes.length).put(bytes);
+		}
+		buffer.flip();
+		writeFully(buffer, readPosition);
+		readPosition += length;
+		recordsRead += written;
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string
+	 * @return the string, or null if the buffer ends before it is complete
+	 */
+	private static String readString(ByteBuffer buffer) {
+		if (buffer.remaining() < 2) {
+			return null;
+		}
+		int length = buffer.getShort() & 0xFFFF;
+		if (buffer.remaining() < length) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Getter for the number of cached words
+	 * @return the number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+}
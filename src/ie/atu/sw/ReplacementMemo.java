@@ -0,0 +1,136 @@
+package ie.atu.sw;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory memo of resolved replacements, so a word is only searched for the first time it is
+ * seen. There is one entry per row of a WordIndex holding the row of the winning replacement
+ * word, so a lookup is an array read and allocates nothing.
+ *
+ * Every entry is stamped with the generation of the vocabulary it was resolved against. When a
+ * vocabulary is edited, {@link #update} moves the entries of the old generation to a new one
+ * instead of discarding them: an added word is scored only against the words that already have
+ * a winner and takes over where it scores better, and only the words whose winner was removed
+ * are left to be searched again. Snapshots of the old vocabulary keep using entries of their
+ * own generation, so an edit never changes text that is already being processed.
+ *
+ * @see EngineSnapshot#withVocabularyChanges(java.util.Collection, java.util.Collection)
+ */
+public final class ReplacementMemo {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	public static final int MISS = -2; //Returned by get when there is no entry for the generation
+	public static final int NONE = -1; //The word was searched and has no replacement
+	public static final int FIRST_GENERATION = 1; //Generation of the vocabulary the memo starts with
+
+	private final AtomicLongArray entries; //generation << 32 | (winner row + 2), 0 when empty
+	private final AtomicInteger generations = new AtomicInteger(FIRST_GENERATION); //Last generation handed out
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates an empty memo for the rows of a word index
+	 * @param index the index whose rows are memoised
+	 */
+	public ReplacementMemo(WordIndex index) {
+		this.entries = new AtomicLongArray(index.capacity());
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Reads the winner of a word
+	 * Time Complexity: O(1)
+	 *
+	 * @param row the row of the word
+	 * @param generation the generation of the reader's vocabulary
+	 * @return the row of the winner, NONE if the word has no replacement, or MISS
+	 */
+	public int get(int row, int generation) {
+		long entry = entries.getOpaque(row);
+		return entry != 0 && (int) (entry >>> 32) == generation ? (int) entry - 2 : MISS;
+	}
+
+	/**
+	 * Records the winner of a word
+	 * Time Complexity: O(1)
+	 *
+	 * @param row the row of the word
+	 * @param generation the generation of the writer's vocabulary
+	 * @param winner the row of the winner, or NONE
+	 */
+	public void put(int row, int generation, int winner) {
+		entries.setOpaque(row, encode(generation, winner));
+	}
+
+	/**
+	 * Moves the entries of one generation to a new generation after words were added to and
+	 * removed from the vocabulary. Words are assumed to be scanned in vocabulary order with the
+	 * added words last, so an added word only takes over a word it scores strictly better on,
+	 * exactly as a full search would decide.
+	 * Time Complexity: O(c + r*a*d), where c is the capacity of the index, r the number of
+	 * resolved words, a the number of added words and d the number of dimensions
+	 *
+	 * @param index the index the rows belong to
+	 * @param generation the generation of the edited vocabulary
+	 * @param added rows of the added words, in scan order
+	 * @param removed rows of the removed words
+	 * @param calculator the metric the entries were resolved with
+	 * @param higherIsBetter whether a higher score is closer under the metric
+	 * @return the new generation
+	 */
+	public synchronized int update(WordIndex index, int generation, int[] added, int[] removed,
+			SimilarityCalculator calculator, boolean higherIsBetter) {
+		int next = generations.incrementAndGet();
+		for (int row = 0; row < entries.length(); row++) {
+			long entry = entries.getOpaque(row);
+			if (entry == 0 || (int) (entry >>> 32) != generation) {
+				continue;
+			}
+			int winner = (int) entry - 2;
+			if (contains(removed, winner)) {
+				continue; //Left out of the new generation, so it is searched again
+			}
+
+			double[] target = index.getVector(row);
+			double best = winner == NONE
+					? (higherIsBetter ? Double.MIN_VALUE : Double.MAX_VALUE) //As the full search starts
+					: calculator.calculate(target, index.getVector(winner));
+			for (int candidate : added) {
+				double score = calculator.calculate(target, index.getVector(candidate));
+				if (higherIsBetter ? score > best : score < best) {
+					best = score;
+					winner = candidate;
+				}
+			}
+			entries.compareAndSet(row, entry, encode(next, winner)); //Unless a search replaced it meanwhile
+		}
+		return next;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	private static long encode(int generation, int winner) {
+		return (long) generation << 32 | (winner + 2);
+	}
+
+	private static boolean contains(int[] rows, int row) {
+		for (int candidate : rows) {
+			if (candidate == row) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
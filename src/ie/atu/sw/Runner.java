@@ -1,20 +1,403 @@
 package ie.atu.sw;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
 /**
  * @author donal murphy
  * Contains main method. Initialises instances of FileManagerService, TextSimplifier and Menu.
- * Prompts menu to display main menu
+ * Prompts menu to display main menu. If a mode is given on the command line the matching
+ * non-interactive mode is run instead:
+ * <pre>
+ * java ie.atu.sw.Runner batch --embeddings e.txt --replacements g.txt --input dir --output dir
+ *                             [--metric dot|cosine|euclidean] [--parallelism n] [--chunk-store dir]
+ *                             [--replacement-cache dir] [--prefilter-dims k]
+ *                             [--workers n] [--queue-depth n]
+ *                             [--token-budget candidates] [--text-budget-ms ms]
+ *                             [--coalesce-window-us us] [--coalesce-words n] [--phrases p.txt]
+ *                             [--output-format text|edits] [--parallel-scan n]
+ * java ie.atu.sw.Runner serve --embeddings e.txt --replacements g.txt [--metric m] [--port 8080]
+ *                             [--max-request-bytes n] [--shutdown-grace seconds] [--watch]
+ *                             [--replacement-cache dir] [--prefilter-dims k]
+ *                             [--vocabularies name=path[,name=path...]]
+ *                             [--token-budget candidates] [--text-budget-ms ms]
+ *                             [--coalesce-window-us us] [--coalesce-words n] [--phrases p.txt]
+ *                             [--parallel-scan n]
+ * java ie.atu.sw.Runner replay --trace t.wrk --embeddings e.txt --replacements g.txt
+ *                              [--timing fast|original] [--concurrency n] [--speed x]
+ *                              [any option of batch or serve that configures the engine]
+ * java ie.atu.sw.Runner apply-edits --input dir --edits dir --output dir
+ * java ie.atu.sw.Runner compare --embeddings e.txt --replacements g.txt --input dir [--report r.txt]
+ * java ie.atu.sw.Runner loadtest --text t.txt [--url u] [--concurrency n] [--duration seconds]
+ * java ie.atu.sw.Runner alloc-check --embeddings e.txt --replacements g.txt --text t.txt [--metric m]
+ *                                   [--rounds n] [--budget bytes-per-token]
+ * </pre>
+ * batch and serve also accept --shards n [--shard-heap size], which splits the embeddings and
+ * replacement words over n child worker processes (see ShardedTextSimplifier).
+ * --watch reloads the model when its files change (see ModelWatcher), and cannot be combined with
+ * --prefilter-dims, --replacement-cache or --vocabularies, which a reload does not rebuild.
+ * --workers runs each file through a SimplificationPipeline, which simplifies line by line and so
+ * cannot be combined with the lookup budget, coalescing or --capture, which work per text.
+ * --chunk-store and --output-format edits simplify each chunk or word outside the per-text path,
+ * so they cannot be combined with coalescing or --capture either, and edit scripts not with
+ * --text-budget-ms.
+ * --prefilter-dims enables the reduced-dimension candidate prefilter, tuned further with
+ * --prefilter-candidates n (default 64) and --prefilter-seed s.
+ * --token-budget and --text-budget-ms bound the search for each token and text, returning the
+ * best replacement found so far when the budget runs out (see LookupBudget).
+ * --coalesce-window-us and --coalesce-words batch the new words of concurrent texts into one
+ * scan of the replacement words (see CoalescingResolver).
+ * --parallel-scan n splits each search of a large replacement vocabulary over up to n cores (every
+ * core without n), with --parallel-scan-min-work setting the adaptive cutoff (see ParallelScan).
+ * --phrases replaces the multi-word phrases of a phrase file ("in order to,to" per line) before
+ * the word search, through a compiled copy kept beside the file (see PhraseAutomaton).
+ * --output-format edits writes an edit script per file and a shared replacement table instead of
+ * the simplified text, which apply-edits rebuilds into the text (see EditScriptWriter).
+ * batch and serve also accept --capture trace.wrk [--capture-anonymise], which records every
+ * processed text with its timing for the replay mode (see WorkloadRecorder).
  */
 public class Runner {
 	
 	public static void main(String[] args) throws Exception {
 		 
 		FileManagerService fileManager = new FileManager();
-		TextSimplifier textSimplifier = new TextFileSimplifier();
 		
-		Menu menu = new Menu(fileManager, textSimplifier);
-		menu.mainMenu();
+		if (args.length == 0) {
+			Menu menu = new Menu(fileManager, new TextFileSimplifier());
+			menu.mainMenu();
+			return;
+		}
+
+		try {
+			CommandLineOptions options = new CommandLineOptions(args);
+			if (options.getMode().equals("shard-worker")) {
+				ShardWorker.run(options); //Child process of a sharded batch or server
+				return;
+			}
+			checkCombinations(options);
+			TextSimplifier textSimplifier = createTextSimplifier(options);
+			switch (options.getMode()) {
+				case "batch" -> new BatchSimplifier(fileManager, textSimplifier).run(options);
+				case "serve" -> SimplifierServer.run(options, fileManager, textSimplifier);
+				case "compare" -> new MetricComparison(fileManager, requireSnapshot(textSimplifier, "compare")).run(options);
+				case "replay" -> WorkloadReplay.run(options, fileManager, textSimplifier);
+				case "apply-edits" -> EditScriptApplier.run(options);
+				case "loadtest" -> LoadGenerator.run(options);
+				case "alloc-check" -> AllocationCheck.run(options, fileManager);
+				default -> throw new IllegalArgumentException("Unknown mode: " + options.getMode());
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(ConsoleColour.RED + "[Error] " + e.getMessage() + ConsoleColour.RESET);
+			System.exit(1);
+		}
+
+	}
+
+	/**
+	 * Creates the TextSimplifier for a non-interactive mode: a coordinator over child worker 
+	 * processes with --shards n, otherwise a TextFileSimplifier
+	 * @param options the parsed command line options
+	 * @return the text simplifier
+	 * @throws Exception if the shard workers cannot be started
+	 */
+	private static TextSimplifier createTextSimplifier(CommandLineOptions options) throws Exception {
+		if (!options.has("shards")) {
+			return new TextFileSimplifier();
+		}
+		return new ShardedTextSimplifier(options.require("embeddings"), options.require("replacements"),
+				options.getInt("shards", 1), options.get("shard-heap", null));
+	}
+
+	/**
+	 * Rejects the combinations of options that cannot work together, before any worker is 
+	 * started or any file is loaded
+	 * @param options the parsed command line options
+	 * @throws IllegalArgumentException naming the conflicting options
+	 */
+	private static void checkCombinations(CommandLineOptions options) {
+		//Shard workers only search; every feature of a local snapshot is unavailable
+		if (options.has("shards") && options.getMode().equals("compare")) {
+			throw new IllegalArgumentException("--shards cannot be used in compare mode");
+		}
+		rejectWith(options, "shards", "prefilter-dims", "replacement-cache", "chunk-store", "workers", "watch",
+				"vocabularies", "token-budget", "text-budget-ms", "coalesce-window-us", "coalesce-words", "capture",
+				"phrases", "output-format", "parallel-scan");
+		//A reload builds a new snapshot from the files alone, so these would be silently dropped
+		rejectWith(options, "watch", "prefilter-dims", "replacement-cache", "vocabularies");
+		//Pipeline workers simplify line by line, outside the per-text budget, coalescer and capture
+		rejectWith(options, "workers", "token-budget", "text-budget-ms", "coalesce-window-us", "coalesce-words",
+				"capture");
+		//Stored chunks and edit scripts search word by word and never reach the coalescer
+		rejectWith(options, "chunk-store", "coalesce-window-us", "coalesce-words");
+		rejectWithEdits(options, "coalesce-window-us", "coalesce-words");
+		//The prefilter shortlists its own candidates, which the other search strategies do not scan
+		rejectWith(options, "prefilter-dims", "token-budget", "text-budget-ms", "coalesce-window-us",
+				"coalesce-words", "parallel-scan");
+		//A budget scans in frequency order and stops early, which shared or split scans cannot follow
+		for (String budget : new String[] {"token-budget", "text-budget-ms"}) {
+			rejectWith(options, budget, "coalesce-window-us", "coalesce-words", "parallel-scan");
+		}
+		//Where a text budget cuts a chunk short depends on timing, so the chunk cannot be reused
+		rejectWith(options, "chunk-store", "text-budget-ms");
+		//Stored chunks and edit scripts are simplified outside processText, which records the texts
+		rejectWith(options, "chunk-store", "capture");
+		rejectWithEdits(options, "capture");
+		//Edit scripts are searched a block at a time with no per-text deadline; --token-budget still applies
+		rejectWithEdits(options, "text-budget-ms");
+	}
+
+	/**
+	 * Rejects the options that cannot be combined with an option, if that option is given
+	 * @param options the parsed command line options
+	 * @param option the option the others conflict with
+	 * @param conflicting the options that cannot be used with it
+	 * @throws IllegalArgumentException naming the first conflicting option given
+	 */
+	private static void rejectWith(CommandLineOptions options, String option, String... conflicting) {
+		reject(options, options.has(option), "--" + option, conflicting);
+	}
+
+	/**
+	 * Rejects the options that cannot be combined with --output-format edits, if it is given
+	 * @param options the parsed command line options
+	 * @param conflicting the options that cannot be used with edit scripts
+	 * @throws IllegalArgumentException naming the first conflicting option given
+	 */
+	private static void rejectWithEdits(CommandLineOptions options, String... conflicting) {
+		reject(options, options.get("output-format", "text").equals("edits"), "--output-format edits", 
+				conflicting);
+	}
+
+	/**
+	 * Throws if a setting is in use and any of the options it conflicts with is given
+	 */
+	private static void reject(CommandLineOptions options, boolean inUse, String setting, String... conflicting) {
+		if (!inUse) {
+			return;
+		}
+		for (String other : conflicting) {
+			if (options.has(other)) {
+				throw new IllegalArgumentException(setting + " cannot be combined with --" + other);
+			}
+		}
+	}
+
+	/**
+	 * The simplifier of a mode that works on the local snapshot
+	 * @param textSimplifier the simplifier created for the mode
+	 * @param mode the name of the mode, for the error
+	 * @return the simplifier as a SnapshotSimplifier
+	 * @throws IllegalArgumentException if the simplifier is sharded
+	 */
+	private static SnapshotSimplifier requireSnapshot(TextSimplifier textSimplifier, String mode) {
+		if (textSimplifier instanceof SnapshotSimplifier local) {
+			return local;
+		}
+		throw new IllegalArgumentException("--shards cannot be used in " + mode + " mode");
+	}
+
+	/**
+	 * Loads the model for the non-interactive modes from the --embeddings, --replacements and 
+	 * --metric options and hands it to the TextSimplifier, then adds each optional feature that 
+	 * was asked for, see the helpers below. Combinations that cannot work together have already
+	 * been rejected by checkCombinations.
+	 * @param options the parsed command line options
+	 * @param fileManager used to validate the paths and load the vector maps
+	 * @param textSimplifier receives the loaded maps and calculator type, or only the calculator
+	 * type if it is sharded, as its workers load the model themselves
+	 * @throws Exception if a path is invalid or a file cannot be read
+	 */
+	static void loadModel(CommandLineOptions options, FileManagerService fileManager, 
+			TextSimplifier textSimplifier) throws Exception {
+		long start = System.nanoTime();
+		fileManager.setEmbeddingsFilePath(options.require("embeddings"));
+		fileManager.setReplacementWordsFilePath(options.require("replacements"));
+		CalculatorType calcType = CalculatorType.fromString(options.get("metric", "dot"));
+		if (!(textSimplifier instanceof SnapshotSimplifier local)) {
+			textSimplifier.setSimilarityCalculator(calcType); //The workers load the model
+			return;
+		}
+		fileManager.generateVectorMaps();
+		local.setMaps(fileManager.getEmbeddingsMap(), fileManager.getReplacementWordsMap());
+		local.setSimilarityCalculator(calcType);
 
+		addVocabularies(options, fileManager, local);
+		addPrefilter(options, local);
+		addReplacementCache(options, fileManager, local);
+		addBudget(options, fileManager, local);
+		addCoalescer(options, local);
+		addParallelScan(options, local);
+		addPhrases(options, local);
+		addCapture(options, fileManager, local);
+		System.out.printf("[INFO] Model loaded in %d ms (%d embeddings, %d replacement words)%n",
+				(System.nanoTime() - start) / 1_000_000, fileManager.getEmbeddingsMap().size(),
+				fileManager.getReplacementWordsMap().size());
 	}
 
+	/**
+	 * With --vocabularies name=path[,name=path...], adds named vocabularies over the same 
+	 * embeddings, which requests can choose instead of the default
+	 */
+	private static void addVocabularies(CommandLineOptions options, FileManagerService fileManager,
+			SnapshotSimplifier local) throws Exception {
+		if (!options.has("vocabularies")) {
+			return;
+		}
+		for (String entry : options.require("vocabularies").split(",")) {
+			int equals = entry.indexOf('=');
+			if (equals < 1) {
+				throw new IllegalArgumentException("--vocabularies expects name=path[,name=path...]");
+			}
+			Vocabulary vocabulary = local.addVocabulary(entry.substring(0, equals),
+					fileManager.loadVocabulary(entry.substring(equals + 1)));
+			System.out.printf("[INFO] Vocabulary %s added using %.1f KB%n", vocabulary,
+					vocabulary.estimateBytes() / 1024.0d);
+		}
+	}
+
+	/**
+	 * With --prefilter-dims, shortlists candidates in a reduced dimension and reports the speedup
+	 * and agreement with the exhaustive search
+	 */
+	private static void addPrefilter(CommandLineOptions options, SnapshotSimplifier local) {
+		if (!options.has("prefilter-dims")) {
+			return;
+		}
+		EngineSnapshot exact = local.getSnapshot();
+		EngineSnapshot prefiltered = exact.withPrefilter(options.getInt("prefilter-dims", 32),
+				options.getInt("prefilter-candidates", 64), options.getInt("prefilter-seed", 42));
+		ProjectedIndex.report(exact.withMemo(false), prefiltered.withMemo(false), 1000); //Time searches, not memo reads
+		local.setSnapshot(prefiltered);
+	}
+
+	/**
+	 * With --replacement-cache, uses the persistent replacement cache for this model, which is
+	 * flushed on exit
+	 */
+	private static void addReplacementCache(CommandLineOptions options, FileManagerService fileManager,
+			SnapshotSimplifier local) throws Exception {
+		if (!options.has("replacement-cache")) {
+			return;
+		}
+		//Prefiltered results are approximate, so they get their own cache
+		ProjectedIndex prefilter = local.getSnapshot().getPrefilter();
+		ReplacementCache cache = new ReplacementCache(options.require("replacement-cache"),
+				FileFingerprint.modelKey(fileManager.getEmbeddingsFilePath(),
+						fileManager.getReplacementWordsFilePath(),
+						local.getSnapshot().getCalculatorType())
+				+ (prefilter != null ? "|" + prefilter : ""));
+		local.setSnapshot(local.getSnapshot().withReplacementCache(cache));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				cache.close();
+			} catch (Exception e) {
+				System.err.println("[Error] Closing replacement cache: " + e.getMessage());
+			}
+		}));
+		System.out.println("[INFO] Replacement cache holds " + cache.size() + " words");
+	}
+
+	/**
+	 * With --token-budget or --text-budget-ms, sets a latency budget, scanning the replacement 
+	 * words in the order of the replacement words file
+	 */
+	private static void addBudget(CommandLineOptions options, FileManagerService fileManager,
+			SnapshotSimplifier local) throws Exception {
+		if (!options.has("token-budget") && !options.has("text-budget-ms")) {
+			return;
+		}
+		//The replacement words file lists the most frequent words first
+		LookupBudget budget = new LookupBudget(options.getInt("token-budget", LookupBudget.UNLIMITED),
+				Double.parseDouble(options.get("text-budget-ms", String.valueOf(LookupBudget.UNLIMITED))),
+				Files.readAllLines(Paths.get(fileManager.getReplacementWordsFilePath())));
+		local.setSnapshot(local.getSnapshot().withBudget(budget));
+		System.out.println("[INFO] Lookup " + budget);
+	}
+
+	/**
+	 * With --coalesce-window-us or --coalesce-words, resolves the new words of concurrent texts
+	 * in shared batches
+	 */
+	private static void addCoalescer(CommandLineOptions options, SnapshotSimplifier local) {
+		if (!options.has("coalesce-window-us") && !options.has("coalesce-words")) {
+			return;
+		}
+		CoalescingResolver coalescer = new CoalescingResolver(
+				options.getInt("coalesce-window-us", CoalescingResolver.DEFAULT_WINDOW_MICROS),
+				options.getInt("coalesce-words", CoalescingResolver.DEFAULT_MAX_WORDS));
+		local.setSnapshot(local.getSnapshot().withCoalescer(coalescer));
+		System.out.println("[INFO] Coalescing new words: " + coalescer);
+	}
+
+	/**
+	 * With --parallel-scan, splits each search over several cores once the vocabulary is large 
+	 * enough, reporting the per-token latency with and without the split
+	 */
+	private static void addParallelScan(CommandLineOptions options, SnapshotSimplifier local) {
+		if (!options.has("parallel-scan")) {
+			return;
+		}
+		//A bare --parallel-scan uses every core
+		int parallelism = options.get("parallel-scan", "true").equals("true") 
+				? Runtime.getRuntime().availableProcessors() : options.getInt("parallel-scan", 1);
+		ParallelScan parallelScan = new ParallelScan(parallelism, Long.parseLong(
+				options.get("parallel-scan-min-work", String.valueOf(ParallelScan.DEFAULT_MIN_WORK_PER_TASK))));
+		//Time searches, not memo or cache reads
+		EngineSnapshot timed = local.getSnapshot().withCoalescer(null).withMemo(false).withReplacementCache(null);
+		ParallelScan.report(timed, timed.withParallelScan(parallelScan), 1000);
+		local.setSnapshot(local.getSnapshot().withParallelScan(parallelScan));
+	}
+
+	/**
+	 * With --phrases, replaces the phrases of a phrase file before the word search
+	 */
+	private static void addPhrases(CommandLineOptions options, SnapshotSimplifier local) throws Exception {
+		if (!options.has("phrases")) {
+			return;
+		}
+		TextFileSimplifier file = requireFileSimplifier(local, "phrases");
+		new PathValidator().validateInputPath(options.require("phrases"));
+		long compileStart = System.nanoTime();
+		PhraseAutomaton phrases = PhraseAutomaton.open(options.require("phrases"));
+		file.setPhrases(phrases);
+		System.out.printf("[INFO] Phrases ready in %d ms: %s%n", (System.nanoTime() - compileStart) / 1_000_000, 
+				phrases);
+	}
+
+	/**
+	 * With --capture, starts recording a workload trace of every processed text, closed on exit
+	 */
+	private static void addCapture(CommandLineOptions options, FileManagerService fileManager,
+			SnapshotSimplifier local) throws Exception {
+		if (!options.has("capture")) {
+			return;
+		}
+		TextFileSimplifier file = requireFileSimplifier(local, "capture");
+		WorkloadRecorder recorder = new WorkloadRecorder(options.require("capture"),
+				options + " (" + fileManager.getEmbeddingsMap().size() + " embeddings, "
+						+ local.getSnapshot().getVocabulary().size() + " replacement words)",
+				options.has("capture-anonymise"));
+		file.setRecorder(recorder);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				file.setRecorder(null);
+				recorder.close();
+				System.out.println("[INFO] Workload " + recorder + " written to " + options.require("capture"));
+			} catch (Exception e) {
+				System.err.println("[Error] Closing workload capture: " + e.getMessage());
+			}
+		}));
+	}
+
+	/**
+	 * The simplifier as a TextFileSimplifier, which keeps the phrases and the workload recorder
+	 * @throws IllegalArgumentException if it is another implementation, instead of ignoring the option
+	 */
+	private static TextFileSimplifier requireFileSimplifier(SnapshotSimplifier local, String option) {
+		if (local instanceof TextFileSimplifier file) {
+			return file;
+		}
+		throw new IllegalArgumentException("--" + option + " is not supported by " + local.getClass().getSimpleName());
+	}
 	
-}
\ No newline at end of file
+}
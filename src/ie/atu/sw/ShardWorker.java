@@ -0,0 +1,235 @@
+package ie.atu.sw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Child process that holds one shard of the model and answers queries for it over a loopback
+ * socket. A word belongs to shard floorMod(hashCode, shards), so every worker can pick its own
+ * words from the shared files and the shards together cover the model exactly once. A worker
+ * keeps the embeddings of its words, which answer lookups of the vectors of input words, and
+ * searches the replacement words among them; the rest of the embeddings file is streamed past.
+ * No process holds the whole model, the coordinator included.
+ *
+ * <pre>
+ * search:   byte metric (CalculatorType ordinal), int count, int dims, count*dims doubles
+ * response: per vector, boolean found, then the word (UTF) and its score (double) if found
+ * lookup:   byte LOOKUP, int count, count words (UTF)
+ * response: per word, boolean found, then int dims and dims doubles if found
+ * </pre>
+ *
+ * The worker prints "READY port" once it is listening and exits when its standard input is
+ * closed, so it never outlives the coordinator.
+ *
+ * @see ShardedTextSimplifier
+ */
+public final class ShardWorker {
+
+	static final String READY = "READY "; //Prefix of the line announcing the port
+	static final int LOOKUP = 100; //First byte of a lookup request, above every metric ordinal
+
+	private ShardWorker() {
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Loads a shard and serves it until standard input is closed. Options are --embeddings,
+	 * --replacements, --shard (this worker's index) and --shards (the number of workers).
+	 * @param options the parsed command line options
+	 * @throws IOException if a file cannot be read or the socket cannot be opened
+	 */
+	public static void run(CommandLineOptions options) throws IOException {
+		int shard = options.getInt("shard", 0);
+		int shards = options.getInt("shards", 1);
+		if (shards < 1 || shard < 0 || shard >= shards) {
+			throw new IllegalArgumentException("--shard must be between 0 and --shards - 1");
+		}
+
+		long start = System.nanoTime();
+		Map<String, double[]> embeddings = new HashMap<>();
+		Map<String, double[]> replacementWords = new HashMap<>();
+		loadShard(Paths.get(options.require("embeddings")), Paths.get(options.require("replacements")), shard,
+				shards, embeddings, replacementWords);
+		Map<CalculatorType, EngineSnapshot> snapshots = new EnumMap<>(CalculatorType.class);
+		EngineSnapshot snapshot = new EngineSnapshot(embeddings, replacementWords, CalculatorType.DOT_PRODUCT);
+		for (CalculatorType calcType : CalculatorType.values()) {
+			snapshots.put(calcType, snapshot.withCalculator(calcType)); //Shares the shard's index
+		}
+		System.err.printf("[INFO] Shard %d/%d loaded %d embeddings and %d replacement words in %d ms%n", shard,
+				shards, embeddings.size(), replacementWords.size(), (System.nanoTime() - start) / 1_000_000);
+
+		ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread.ofVirtual().start(() -> {
+			try {
+				System.in.transferTo(OutputStream.nullOutputStream()); //Blocks until the coordinator goes away
+			} catch (IOException e) {
+				//Treated the same as end of input
+			}
+			System.exit(0);
+		});
+		System.out.println(READY + server.getLocalPort());
+		System.out.flush();
+
+		while (true) {
+			Socket socket = server.accept();
+			Thread.ofVirtual().start(() -> serve(socket, snapshots));
+		}
+	}
+
+	/**
+	 * Answers requests on one connection until the coordinator closes it
+	 */
+	private static void serve(Socket socket, Map<CalculatorType, EngineSnapshot> snapshots) {
+		try (socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			socket.setTcpNoDelay(true);
+			while (true) {
+				int metric;
+				try {
+					metric = in.readByte();
+				} catch (EOFException e) {
+					return; //Connection closed
+				}
+				if (metric == LOOKUP) {
+					lookup(in, out, snapshots.get(CalculatorType.DOT_PRODUCT).getEmbeddingsMap());
+					continue;
+				}
+				EngineSnapshot snapshot = snapshots.get(CalculatorType.values()[metric]);
+				int count = in.readInt();
+				int dims = in.readInt();
+				double[][] queries = new double[count][dims];
+				for (double[] query : queries) {
+					for (int d = 0; d < dims; d++) {
+						query[d] = in.readDouble();
+					}
+				}
+
+				EngineSnapshot.Match[] matches = new EngineSnapshot.Match[count];
+				IntStream.range(0, count).parallel()
+						.forEach(i -> matches[i] = snapshot.findClosestMatch(queries[i]));
+
+				for (EngineSnapshot.Match match : matches) {
+					out.writeBoolean(match != null);
+					if (match != null) {
+						out.writeUTF(match.word());
+						out.writeDouble(match.score());
+					}
+				}
+				out.flush();
+			}
+		} catch (IOException | RuntimeException e) {
+			System.err.println("[Error] Shard connection failed: " + e.getMessage());
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Answers a lookup request with the vectors of the shard's words that have one
+	 */
+	private static void lookup(DataInputStream in, DataOutputStream out, Map<String, double[]> embeddings)
+			throws IOException {
+		int count = in.readInt();
+		String[] words = new String[count];
+		for (int i = 0; i < count; i++) {
+			words[i] = in.readUTF();
+		}
+		for (String word : words) {
+			double[] vector = embeddings.get(word);
+			out.writeBoolean(vector != null);
+			if (vector != null) {
+				out.writeInt(vector.length);
+				for (double value : vector) {
+					out.writeDouble(value);
+				}
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Streams the embeddings file, keeping the vectors of the shard's words, and picks the 
+	 * shard's words that are also replacement words. Replacement words share the vectors of 
+	 * the embeddings.
+	 * Time Complexity: O(n + m), where n is the number of embeddings and m the number of
+	 * replacement words
+	 */
+	private static void loadShard(Path embeddings, Path replacements, int shard, int shards,
+			Map<String, double[]> vectors, Map<String, double[]> replacementVectors) throws IOException {
+		Set<String> words = new HashSet<>();
+		try (BufferedReader reader = Files.newBufferedReader(replacements, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (shardOf(line, shards) == shard) {
+					words.add(line);
+				}
+			}
+		}
+
+		InputStream stream = Files.newInputStream(embeddings);
+		if (ParallelGzipReader.isGzip(embeddings)) {
+			stream = new GZIPInputStream(stream, 64 * 1024);
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int comma = line.indexOf(',');
+				String word = comma < 0 ? line : line.substring(0, comma);
+				if (shardOf(word, shards) != shard) {
+					continue; //Another shard's word
+				}
+				String[] elements = line.split(",");
+				double[] vector = new double[elements.length - 1];
+				for (int i = 1; i < elements.length; i++) {
+					vector[i - 1] = Double.parseDouble(elements[i]);
+				}
+				vectors.put(word, vector);
+			}
+		}
+		for (String word : words) {
+			double[] vector = vectors.get(word);
+			if (vector != null) {
+				replacementVectors.put(word, vector);
+			}
+		}
+	}
+
+	/**
+	 * The shard a word belongs to, for its embedding and as a replacement word
+	 * @param word the word
+	 * @param shards the number of shards
+	 * @return the index of the shard
+	 */
+	static int shardOf(String word, int shards) {
+		return Math.floorMod(word.hashCode(), shards);
+	}
+
+}
@@ -0,0 +1,481 @@
+package ie.atu.sw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Coordinator implementation of TextSimplifier that spreads the model over several ShardWorker
+ * child processes. For every text, the words that need a search are collected and their vectors
+ * are looked up on the shards that own them. The vectors are then sent to every shard in batches
+ * over loopback sockets (scatter), and the best of the shards' winners is chosen for each word
+ * (gather). Each worker only holds its share of the embeddings and of the replacement vectors,
+ * so the model that fits grows with the number of workers, and the shards search in parallel.
+ * The coordinator keeps the replacement words, without their vectors, and the resolved words.
+ *
+ * Resolved words are remembered until the metric changes. The output matches TextFileSimplifier
+ * except where two replacement words in different shards score exactly the same, in which case
+ * the word from the lower shard is used.
+ *
+ * This implementation is not a SnapshotSimplifier, as it holds neither the vector maps nor the
+ * replacement index, so it cannot be combined with the features that work on a snapshot.
+ *
+ * @see ShardWorker
+ */
+public final class ShardedTextSimplifier implements TextSimplifier, AutoCloseable {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final int BATCH_VECTORS = 4096; //Vectors sent to a shard in one request
+	private static final int MAX_WORD_LENGTH = 16_384; //Longer tokens are never embedding words
+
+	private final List<Shard> shards = new ArrayList<>();
+	private final ExecutorService scatter = Executors.newVirtualThreadPerTaskExecutor();
+	private final Set<String> replacementWords = new HashSet<>(); //Kept as they are, never searched
+	private volatile Memo memo = new Memo(CalculatorType.DOT_PRODUCT, new ConcurrentHashMap<>());
+
+	/**
+	 * The metric and the words resolved with it, replaced together when the metric changes
+	 */
+	private record Memo(CalculatorType calcType, Map<String, String> resolved) {}
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Reads the replacement words, starts the worker processes and waits until each has loaded
+	 * its shard
+	 * @param embeddingsPath path to the word embeddings file, read by every worker
+	 * @param replacementWordsPath path to the replacement words file, read by every worker
+	 * @param shardCount the number of worker processes
+	 * @param workerHeap maximum heap of each worker, e.g. "2g", or null for the JVM default
+	 * @throws IOException if a worker cannot be started or fails while loading
+	 */
+	public ShardedTextSimplifier(String embeddingsPath, String replacementWordsPath, int shardCount,
+			String workerHeap) throws IOException {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("--shards must be at least 1");
+		}
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(replacementWordsPath),
+				StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				replacementWords.add(line);
+			}
+		}
+		String java = ProcessHandle.current().info().command().orElse("java");
+		try {
+			for (int i = 0; i < shardCount; i++) {
+				List<String> command = new ArrayList<>(List.of(java));
+				if (workerHeap != null) {
+					command.add("-Xmx" + workerHeap);
+				}
+				command.addAll(List.of("-cp", System.getProperty("java.class.path"), Runner.class.getName(),
+						"shard-worker", "--embeddings", embeddingsPath, "--replacements", replacementWordsPath,
+						"--shard", Integer.toString(i), "--shards", Integer.toString(shardCount)));
+				Process process = new ProcessBuilder(command)
+						.redirectError(ProcessBuilder.Redirect.INHERIT)
+						.start();
+				shards.add(new Shard(i, process));
+			}
+			for (Shard shard : shards) {
+				shard.awaitReady();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+		System.out.println("[INFO] Started " + shardCount + " shard workers");
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Words that are not yet resolved are looked up and searched for on every shard in one batch
+	 * before the text is rebuilt, line by line, exactly as EngineSnapshot#processText does.
+	 * Words without an embedding are resolved to themselves.
+	 * Time complexity: O(n*m/s), where n is the number of new words, m the number of replacement
+	 * words and s the number of shards
+	 *
+	 * @throws UncheckedIOException if a shard cannot be reached
+	 */
+	@Override
+	public String processText(String inputText) {
+		Memo current = memo;
+
+		//Collect the words that need a search
+		String[] lines = inputText.split("\\R");
+		String[][] words = new String[lines.length][];
+		Set<String> unresolved = new LinkedHashSet<>();
+		for (int l = 0; l < lines.length; l++) {
+			words[l] = lines[l].split("\\s+");
+			for (String word : words[l]) {
+				if (!word.isEmpty() && !replacementWords.contains(word) && !current.resolved().containsKey(word)) {
+					unresolved.add(word);
+				}
+			}
+		}
+		resolve(new ArrayList<>(unresolved), current);
+
+		//Rebuild the text
+		StringBuilder simplifiedContent = new StringBuilder();
+		for (String[] lineWords : words) {
+			StringBuilder simplifiedLine = new StringBuilder();
+			for (String word : lineWords) {
+				simplifiedLine.append(current.resolved().getOrDefault(word, word)).append(" ");
+			}
+			simplifiedContent.append(simplifiedLine.toString().trim()).append(System.lineSeparator());
+		}
+		return simplifiedContent.toString().trim();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The whole text is resolved in one scatter-gather round and then written
+	 */
+	@Override
+	public void processText(String inputText, Writer output) throws IOException {
+		output.write(processText(inputText));
+	}
+
+	/**
+	 * Closes the connections and every worker's standard input, which stops the workers
+	 */
+	@Override
+	public void close() {
+		for (Shard shard : shards) {
+			shard.close();
+		}
+		scatter.shutdownNow();
+	}
+
+	/**
+	 * Only the default vocabulary is supported: each worker loads its shard of one replacement 
+	 * words file
+	 * @throws IllegalArgumentException for any other vocabulary
+	 */
+	@Override
+	public String processText(String inputText, String vocabulary) {
+		requireDefault(vocabulary);
+		return processText(inputText);
+	}
+
+	/**
+	 * Only the default vocabulary is supported, see {@link #processText(String, String)}
+	 * @throws IllegalArgumentException for any other vocabulary
+	 */
+	@Override
+	public void processText(String inputText, String vocabulary, Writer output) throws IOException {
+		requireDefault(vocabulary);
+		processText(inputText, output);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Looks up the vectors of the given words and searches every shard for those that have one, 
+	 * in batches, and records the best match of each. The vectors are dropped after each batch.
+	 */
+	private void resolve(List<String> words, Memo current) {
+		boolean higherIsBetter = EngineSnapshot.isHigherBetter(current.calcType());
+		for (int from = 0; from < words.size(); from += BATCH_VECTORS) {
+			List<String> batch = new ArrayList<>();
+			List<double[]> found = new ArrayList<>();
+			List<String> candidates = words.subList(from, Math.min(words.size(), from + BATCH_VECTORS));
+			double[][] looked = lookup(candidates);
+			for (int i = 0; i < looked.length; i++) {
+				if (looked[i] != null) {
+					batch.add(candidates.get(i));
+					found.add(looked[i]);
+				} else {
+					current.resolved().put(candidates.get(i), candidates.get(i)); //No embedding
+				}
+			}
+			if (batch.isEmpty()) {
+				continue;
+			}
+			double[][] vectors = found.toArray(new double[0][]);
+
+			//Scatter to every shard at once
+			List<Future<EngineSnapshot.Match[]>> replies = new ArrayList<>();
+			for (Shard shard : shards) {
+				replies.add(scatter.submit(() -> shard.query(current.calcType(), vectors)));
+			}
+
+			//Gather the best of the shards' winners, lower shards first on a tie
+			EngineSnapshot.Match[] best = new EngineSnapshot.Match[vectors.length];
+			for (Future<EngineSnapshot.Match[]> reply : replies) {
+				EngineSnapshot.Match[] matches = await(reply);
+				for (int i = 0; i < best.length; i++) {
+					EngineSnapshot.Match match = matches[i];
+					if (match != null && (best[i] == null || (higherIsBetter
+							? match.score() > best[i].score() : match.score() < best[i].score()))) {
+						best[i] = match;
+					}
+				}
+			}
+			for (int i = 0; i < best.length; i++) {
+				current.resolved().put(batch.get(i), best[i] != null ? best[i].word() : batch.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Fetches the vectors of the given words from the shards that own them, every shard at once
+	 * @return the vector of each word, or null where it has no embedding
+	 */
+	private double[][] lookup(List<String> words) {
+		List<List<Integer>> owned = new ArrayList<>();
+		for (int s = 0; s < shards.size(); s++) {
+			owned.add(new ArrayList<>());
+		}
+		for (int i = 0; i < words.size(); i++) {
+			String word = words.get(i);
+			if (word.length() <= MAX_WORD_LENGTH) { //Also keeps it within the limit of writeUTF
+				owned.get(ShardWorker.shardOf(word, shards.size())).add(i);
+			}
+		}
+
+		List<Future<double[][]>> replies = new ArrayList<>();
+		for (int s = 0; s < shards.size(); s++) {
+			Shard shard = shards.get(s);
+			List<String> shardWords = owned.get(s).stream().map(words::get).toList();
+			replies.add(shardWords.isEmpty() ? null : scatter.submit(() -> shard.lookup(shardWords)));
+		}
+		double[][] vectors = new double[words.size()][];
+		for (int s = 0; s < shards.size(); s++) {
+			if (replies.get(s) != null) {
+				double[][] reply = await(replies.get(s));
+				for (int i = 0; i < reply.length; i++) {
+					vectors[owned.get(s).get(i)] = reply[i];
+				}
+			}
+		}
+		return vectors;
+	}
+
+	private static <T> T await(Future<T> reply) {
+		try {
+			return reply.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a shard", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException io) {
+				throw new UncheckedIOException(io);
+			}
+			throw new IllegalStateException("Shard query failed: " + e.getCause(), e.getCause());
+		}
+	}
+
+	/**
+	 * Rejects every vocabulary except the default one
+	 */
+	private static void requireDefault(String vocabulary) {
+		if (!Vocabulary.DEFAULT.equals(vocabulary)) {
+			throw new IllegalArgumentException("Unknown vocabulary: " + vocabulary);
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // SHARD CONNECTIONS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * One worker process and a pool of connections to it, so concurrent texts do not wait for
+	 * each other's requests
+	 */
+	private static class Shard {
+		private final int index;
+		private final Process process;
+		private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+		private int port;
+
+		private Shard(int index, Process process) {
+			this.index = index;
+			this.process = process;
+		}
+
+		/**
+		 * Waits for the worker's READY line
+		 */
+		private void awaitReady() throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+					StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(ShardWorker.READY)) {
+					port = Integer.parseInt(line.substring(ShardWorker.READY.length()).trim());
+					return;
+				}
+				System.out.println("[Shard " + index + "] " + line);
+			}
+			throw new IOException("Shard worker " + index + " exited before it was ready");
+		}
+
+		/**
+		 * Sends a batch of the shard's own words and reads the vector of each
+		 */
+		private double[][] lookup(List<String> words) throws IOException {
+			Connection connection = connect();
+			try {
+				DataOutputStream out = connection.out;
+				out.writeByte(ShardWorker.LOOKUP);
+				out.writeInt(words.size());
+				for (String word : words) {
+					out.writeUTF(word);
+				}
+				out.flush();
+
+				double[][] vectors = new double[words.size()][];
+				DataInputStream in = connection.in;
+				for (int i = 0; i < vectors.length; i++) {
+					if (in.readBoolean()) {
+						vectors[i] = new double[in.readInt()];
+						for (int d = 0; d < vectors[i].length; d++) {
+							vectors[i][d] = in.readDouble();
+						}
+					}
+				}
+				idle.add(connection);
+				return vectors;
+			} catch (IOException e) {
+				connection.close(); //Its stream position is unknown, never reuse it
+				throw new IOException("Shard " + index + ": " + e.getMessage(), e);
+			}
+		}
+
+		/**
+		 * Sends one batch of vectors and reads the shard's best match for each
+		 */
+		private EngineSnapshot.Match[] query(CalculatorType calcType, double[][] vectors) throws IOException {
+			Connection connection = connect();
+			try {
+				DataOutputStream out = connection.out;
+				out.writeByte(calcType.ordinal());
+				out.writeInt(vectors.length);
+				out.writeInt(vectors.length > 0 ? vectors[0].length : 0);
+				for (double[] vector : vectors) {
+					for (double value : vector) {
+						out.writeDouble(value);
+					}
+				}
+				out.flush();
+
+				EngineSnapshot.Match[] matches = new EngineSnapshot.Match[vectors.length];
+				DataInputStream in = connection.in;
+				for (int i = 0; i < matches.length; i++) {
+					if (in.readBoolean()) {
+						matches[i] = new EngineSnapshot.Match(in.readUTF(), in.readDouble());
+					}
+				}
+				idle.add(connection);
+				return matches;
+			} catch (IOException e) {
+				connection.close(); //Its stream position is unknown, never reuse it
+				throw new IOException("Shard " + index + ": " + e.getMessage(), e);
+			}
+		}
+
+		/**
+		 * Takes an idle connection, or opens a new one if every connection is in use
+		 */
+		private Connection connect() throws IOException {
+			Connection connection = idle.poll();
+			return connection != null ? connection
+					: new Connection(new Socket(InetAddress.getLoopbackAddress(), port));
+		}
+
+		private void close() {
+			for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+				connection.close();
+			}
+			try {
+				process.getOutputStream().close(); //The worker exits at the end of its input
+			} catch (IOException e) {
+				process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * A socket to a worker with its buffered streams
+	 */
+	private static class Connection {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		private Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		private void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				//Already broken
+			}
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS & SETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Forgets the resolved words, which belong to the old metric. The workers are told the
+	 * metric with every request.
+	 */
+	@Override
+	public synchronized void setSimilarityCalculator(CalculatorType calcType) {
+		if (calcType != memo.calcType()) {
+			memo = new Memo(calcType, new ConcurrentHashMap<>());
+		}
+	}
+
+	@Override
+	public Set<String> getVocabularyNames() {
+		return Set.of(Vocabulary.DEFAULT);
+	}
+
+}
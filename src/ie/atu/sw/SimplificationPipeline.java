@@ -0,0 +1,338 @@
+package ie.atu.sw;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Staged simplification of a file: a reader stage splits the input into batches of lines, a
+ * pool of workers simplifies batches with one shared EngineSnapshot, and a writer stage writes
+ * the batches back in their original order. The stages are connected by bounded queues and the
+ * number of batches between the reader and the writer is capped, so a slow disk or slow workers
+ * hold the reader back instead of filling the heap.
+ *
+ * Every run returns Stats with the average queue depths and the share of the run each stage was
+ * busy, which shows whether reading, simplifying or writing is the bottleneck on a machine. While
+ * a run is in progress, the characters read and words simplified so far can be read from other
+ * threads to report its progress.
+ *
+ * The output is identical to TextSimplifier#processText on the whole file. The workers simplify
+ * line by line with the snapshot, so the features that work on a whole text (the text budget,
+ * the coalescer and the workload recorder) are not applied, and Runner rejects them with
+ * --workers.
+ *
+ * @see TextSimplifier
+ */
+public class SimplificationPipeline {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	public static final int DEFAULT_QUEUE_DEPTH = 16; //Batches each queue can hold
+	private static final int BATCH_LINES = 256; //Lines handed to a worker at a time
+	private static final Batch END = new Batch(-1, List.of()); //Tells a worker to stop
+
+	private final SnapshotSimplifier textSimplifier;
+	private final int workers;
+	private final int queueDepth;
+	private final AtomicLong charsRead = new AtomicLong(); //Of the current run, line breaks counted as one
+	private final AtomicLong wordsSimplified = new AtomicLong(); //Of the current run
+
+	/**
+	 * A numbered group of consecutive lines, simplified or not
+	 */
+	private record Batch(long sequence, List<String> lines) {}
+
+	/**
+	 * Summary of one run
+	 * @param lines the number of lines read
+	 * @param words the number of whitespace separated words read
+	 * @param workers the number of simplify workers
+	 * @param queueDepth the capacity of each queue
+	 * @param wallNanos the duration of the run
+	 * @param readerUtilisation share of the run the reader spent reading
+	 * @param simplifyUtilisation share of the workers' time spent simplifying
+	 * @param writerUtilisation share of the run the writer spent writing
+	 * @param averageReadQueueDepth average number of batches waiting for a worker
+	 * @param averageWriteQueueDepth average number of batches waiting for the writer
+	 */
+	public record Stats(long lines, long words, int workers, int queueDepth, long wallNanos,
+			double readerUtilisation, double simplifyUtilisation, double writerUtilisation, double averageReadQueueDepth,
+			double averageWriteQueueDepth) {
+
+		/**
+		 * The stage that was busy for the largest share of the run
+		 * @return "read", "simplify" or "write"
+		 */
+		public String bottleneck() {
+			if (simplifyUtilisation >= readerUtilisation && simplifyUtilisation >= writerUtilisation) {
+				return "simplify";
+			}
+			return readerUtilisation >= writerUtilisation ? "read" : "write";
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d lines in %d ms; busy: read %.0f%%, simplify %.0f%% (%d workers), "
+					+ "write %.0f%%; avg queue depth: read %.1f/%d, write %.1f/%d; bottleneck: %s",
+					lines, wallNanos / 1_000_000, readerUtilisation * 100, simplifyUtilisation * 100, workers,
+					writerUtilisation * 100, averageReadQueueDepth, queueDepth, averageWriteQueueDepth,
+					queueDepth, bottleneck());
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Initialises the pipeline
+	 * @param textSimplifier the simplifier whose current snapshot is shared by the workers
+	 * @param workers the number of simplify workers
+	 * @param queueDepth the number of batches each queue can hold
+	 * @throws IllegalArgumentException if workers or queueDepth is less than 1
+	 */
+	public SimplificationPipeline(SnapshotSimplifier textSimplifier, int workers, int queueDepth) {
+		if (workers < 1 || queueDepth < 1) {
+			throw new IllegalArgumentException("Workers and queue depth must be at least 1");
+		}
+		this.textSimplifier = textSimplifier;
+		this.workers = workers;
+		this.queueDepth = queueDepth;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Simplifies a file into a writer. The writer stage runs on the calling thread; the reader
+	 * and workers run on virtual threads. A failure in any stage stops the others and is
+	 * rethrown here.
+	 * Time Complexity: O(n*m/w), where n is the number of words, m the number of replacement
+	 * words and w the number of workers
+	 *
+	 * @param input the file to simplify
+	 * @param output where the simplified text is written; it is not closed
+	 * @return the run's statistics
+	 * @throws IOException if the input cannot be read or the output cannot be written
+	 * @throws InterruptedException if interrupted while waiting for a stage
+	 */
+	public Stats run(Path input, Writer output) throws IOException, InterruptedException {
+		EngineSnapshot snapshot = textSimplifier.getSnapshot(); //One model for the whole file
+		BlockingQueue<Batch> toSimplify = new ArrayBlockingQueue<>(queueDepth);
+		BlockingQueue<Batch> toWrite = new ArrayBlockingQueue<>(queueDepth);
+		Semaphore inFlight = new Semaphore(2 * queueDepth + workers); //Bounds the writer's reorder buffer
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicLong batchCount = new AtomicLong(-1); //Set by the reader at the end of the input
+		AtomicLong lineCount = new AtomicLong();
+		AtomicLong wordCount = new AtomicLong();
+		AtomicLong readNanos = new AtomicLong();
+		AtomicLong simplifyNanos = new AtomicLong();
+		AtomicLong readDepthSum = new AtomicLong();
+		AtomicLong writeDepthSum = new AtomicLong();
+		AtomicLong depthSamples = new AtomicLong();
+		long writeNanos = 0;
+		charsRead.set(0);
+		wordsSimplified.set(0);
+
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		try {
+			//Reader stage
+			executor.submit(() -> {
+				try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+					long sequence = 0;
+					boolean more = true;
+					while (more) {
+						long readStart = System.nanoTime();
+						List<String> lines = new ArrayList<>(BATCH_LINES);
+						String line;
+						long chars = 0;
+						while (lines.size() < BATCH_LINES && (line = reader.readLine()) != null) {
+							lines.add(line);
+							chars += line.length() + 1;
+						}
+						charsRead.addAndGet(chars);
+						more = lines.size() == BATCH_LINES;
+						readNanos.addAndGet(System.nanoTime() - readStart);
+						if (lines.isEmpty()) {
+							break;
+						}
+						lineCount.addAndGet(lines.size());
+						inFlight.acquire();
+						readDepthSum.addAndGet(toSimplify.size());
+						writeDepthSum.addAndGet(toWrite.size());
+						depthSamples.incrementAndGet();
+						toSimplify.put(new Batch(sequence++, lines));
+					}
+					batchCount.set(sequence);
+					for (int i = 0; i < workers; i++) {
+						toSimplify.put(END);
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+				return null;
+			});
+
+			//Simplify stage
+			for (int i = 0; i < workers; i++) {
+				executor.submit(() -> {
+					try {
+						for (Batch batch = toSimplify.take(); batch != END; batch = toSimplify.take()) {
+							long simplifyStart = System.nanoTime();
+							List<String> simplified = new ArrayList<>(batch.lines().size());
+							long words = 0;
+							for (String line : batch.lines()) {
+								words += countWords(line);
+								//processText also splits on Unicode line breaks readLine keeps
+								for (String part : line.split("\\R", -1)) {
+									simplified.add(snapshot.simplifyLine(part));
+								}
+							}
+							simplifyNanos.addAndGet(System.nanoTime() - simplifyStart);
+							wordCount.addAndGet(words);
+							wordsSimplified.addAndGet(words);
+							toWrite.put(new Batch(batch.sequence(), simplified));
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+					return null;
+				});
+			}
+
+			//Write stage, in input order
+			Map<Long, Batch> waiting = new HashMap<>();
+			LineState state = new LineState();
+			long next = 0;
+			while (batchCount.get() != next) {
+				Batch batch = toWrite.poll(100, TimeUnit.MILLISECONDS);
+				if (batch == null) {
+					rethrow(failure.get());
+					continue;
+				}
+				waiting.put(batch.sequence(), batch);
+				long writeStart = System.nanoTime();
+				for (Batch ready = waiting.remove(next); ready != null; ready = waiting.remove(next)) {
+					for (String line : ready.lines()) {
+						state.emit(line, output);
+					}
+					next++;
+					inFlight.release();
+				}
+				writeNanos += System.nanoTime() - writeStart;
+			}
+			rethrow(failure.get());
+		} finally {
+			executor.shutdownNow(); //Stops the other stages if the writer failed
+			executor.close();
+		}
+
+		long wall = Math.max(1, System.nanoTime() - start);
+		long samples = Math.max(1, depthSamples.get());
+		return new Stats(lineCount.get(), wordCount.get(), workers, queueDepth, wall, (double) readNanos.get() / wall,
+				(double) simplifyNanos.get() / ((double) wall * workers), (double) writeNanos / wall,
+				(double) readDepthSum.get() / samples, (double) writeDepthSum.get() / samples);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Counts the whitespace separated words in a line
+	 */
+	private static long countWords(String line) {
+		long words = 0;
+		boolean inWord = false;
+		for (int i = 0; i < line.length(); i++) {
+			boolean whitespace = Character.isWhitespace(line.charAt(i));
+			if (!whitespace && !inWord) {
+				words++;
+			}
+			inWord = !whitespace;
+		}
+		return words;
+	}
+
+	/**
+	 * Rethrows a failure from another stage on the writer's thread
+	 */
+	private static void rethrow(Throwable failure) throws IOException {
+		if (failure == null) {
+			return;
+		}
+		if (failure instanceof IOException e) {
+			throw e;
+		}
+		if (failure instanceof RuntimeException e) {
+			throw e;
+		}
+		throw new IOException("Simplification pipeline failed: " + failure.getMessage(), failure);
+	}
+
+	/**
+	 * Line separator state of the writer. Empty lines are held back until the next non-empty
+	 * line, so leading and trailing empty lines are dropped as processText's final trim() does.
+	 */
+	private static class LineState {
+		private int pendingEmptyLines = 0;
+		private boolean wroteContent = false;
+
+		private void emit(String line, Writer output) throws IOException {
+			if (line.isEmpty()) {
+				if (wroteContent) {
+					pendingEmptyLines++;
+				}
+				return;
+			}
+			if (wroteContent) {
+				for (int i = 0; i <= pendingEmptyLines; i++) {
+					output.write(System.lineSeparator());
+				}
+			}
+			output.write(line);
+			wroteContent = true;
+			pendingEmptyLines = 0;
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the characters the current or last run has read, for progress reports
+	 * @return the characters read so far, each line break counted as one
+	 */
+	public long getCharsRead() {
+		return charsRead.get();
+	}
+
+	/**
+	 * Getter for the words the current or last run has simplified, for progress reports
+	 * @return the words simplified so far
+	 */
+	public long getWordsSimplified() {
+		return wordsSimplified.get();
+	}
+
+}
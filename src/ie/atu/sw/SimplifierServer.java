@@ -0,0 +1,340 @@
+package ie.atu.sw;
+
+import static java.lang.System.out;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-running local simplification daemon built on the JDK's HttpServer. The model is loaded
+ * once at startup and every request is served on its own virtual thread by the shared
+ * TextSimplifier.
+ * <pre>
+ * POST /simplify   body: text to simplify (UTF-8), response: simplified text
+ *                  ?vocabulary=name simplifies into a vocabulary added with --vocabularies
+ *                  with a lookup budget, X-Approximate-Tokens counts the replacements that
+ *                  were cut short
+ * POST /vocabulary/add, /vocabulary/remove
+ *                  body: one word per line, ?vocabulary=name edits an added vocabulary,
+ *                  response: the size of the edited vocabulary and the time the edit took
+ * GET  /health     response: OK
+ * GET  /metrics    response: request counters and, with --watch, model reload metrics
+ * </pre>
+ * With --watch the embeddings and replacement words files are watched and hot reloaded.
+ * Request bodies larger than the configured limit are rejected with 413. On shutdown (Ctrl+C)
+ * the server stops accepting connections and waits for in-flight requests to finish.
+ *
+ * @see LoadGenerator
+ */
+public class SimplifierServer {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final int DEFAULT_PORT = 8080;
+	private static final int DEFAULT_MAX_REQUEST_BYTES = 1024 * 1024; //1 MiB
+	private static final int DEFAULT_SHUTDOWN_GRACE_SECONDS = 10;
+
+	private final TextSimplifier textSimplifier; //Shared by every request
+	private final int maxRequestBytes;
+	private final AtomicLong requestsServed = new AtomicLong();
+	private final AtomicLong requestsRejected = new AtomicLong();
+	private HttpServer server;
+	private ExecutorService executor;
+	private ModelWatcher modelWatcher; //null unless hot reload is enabled
+	private LookupBudget budget; //null unless a lookup budget is set
+	private CoalescingResolver coalescer; //null unless new words are coalesced
+	private ParallelScan parallelScan; //null unless searches are split over cores
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Initialises the server with a TextSimplifier that already has its model loaded
+	 * @param textSimplifier injected instance of textsimplifier, shared by every request
+	 * @param maxRequestBytes the largest request body that is accepted
+	 */
+	public SimplifierServer(TextSimplifier textSimplifier, int maxRequestBytes) {
+		this.textSimplifier = textSimplifier;
+		this.maxRequestBytes = maxRequestBytes;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Loads the model described by the command line options and serves requests until the JVM
+	 * is shut down. Required options are --embeddings and --replacements. Optional options are
+	 * --metric, --port (default 8080), --max-request-bytes, --shutdown-grace (seconds), the
+	 * --watch flag to hot reload the model when its files change, the lookup budget options
+	 * --token-budget and --text-budget-ms, the coalescing options --coalesce-window-us and
+	 * --coalesce-words, and --parallel-scan.
+	 *
+	 * @param options the parsed command line options
+	 * @param fileManager used to load the model
+	 * @param textSimplifier the engine shared by every request
+	 * @throws Exception if the model cannot be loaded or the port cannot be bound
+	 */
+	public static void run(CommandLineOptions options, FileManagerService fileManager,
+			TextSimplifier textSimplifier) throws Exception {
+		Runner.loadModel(options, fileManager, textSimplifier);
+
+		SimplifierServer simplifierServer = new SimplifierServer(textSimplifier,
+				options.getInt("max-request-bytes", DEFAULT_MAX_REQUEST_BYTES));
+		//Runner rejects these options for a sharded simplifier, which has no local snapshot
+		if (textSimplifier instanceof SnapshotSimplifier local) {
+			if (options.has("token-budget") || options.has("text-budget-ms")) {
+				simplifierServer.budget = local.getSnapshot().getBudget();
+			}
+			if (options.has("coalesce-window-us") || options.has("coalesce-words")) {
+				simplifierServer.coalescer = local.getSnapshot().getCoalescer();
+			}
+			if (options.has("parallel-scan")) {
+				simplifierServer.parallelScan = local.getSnapshot().getParallelScan();
+			}
+			if (options.has("watch")) {
+				simplifierServer.modelWatcher = new ModelWatcher(fileManager, local);
+				simplifierServer.modelWatcher.start();
+			}
+		}
+		simplifierServer.start(options.getInt("port", DEFAULT_PORT));
+
+		int grace = options.getInt("shutdown-grace", DEFAULT_SHUTDOWN_GRACE_SECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> simplifierServer.stop(grace)));
+	}
+
+	/**
+	 * Binds the server to the loopback interface and starts accepting requests
+	 * @param port the port to listen on, 0 for any free port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		executor = Executors.newVirtualThreadPerTaskExecutor(); //One virtual thread per request
+		server.setExecutor(executor);
+		server.createContext("/simplify", this::handleSimplify);
+		server.createContext("/vocabulary/add", exchange -> handleVocabularyEdit(exchange, true));
+		server.createContext("/vocabulary/remove", exchange -> handleVocabularyEdit(exchange, false));
+		server.createContext("/health", exchange -> respond(exchange, 200, "OK"));
+		server.createContext("/metrics", exchange -> respond(exchange, 200, metrics()));
+		server.start();
+
+		out.println(ConsoleColour.GREEN);
+		out.println("[INFO] Simplifier listening on http://127.0.0.1:" + getPort() + "/simplify");
+		out.print(ConsoleColour.RESET);
+	}
+
+	/**
+	 * Stops accepting new connections and waits for in-flight requests to complete
+	 * @param graceSeconds the longest time to wait for in-flight requests
+	 */
+	public void stop(int graceSeconds) {
+		out.println("[INFO] Shutting down, waiting up to " + graceSeconds + "s for in-flight requests...");
+		server.stop(graceSeconds);
+		if (modelWatcher != null) {
+			try {
+				modelWatcher.close();
+			} catch (IOException e) {
+				System.err.println("[Error] Closing model watcher: " + e.getMessage());
+			}
+		}
+		executor.close(); //Waits for any handler still running
+		out.println("[INFO] Served " + requestsServed.get() + " requests, rejected "
+				+ requestsRejected.get() + ". Bye!");
+	}
+
+	/**
+	 * Getter for the port the server is bound to
+	 * @return the local port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Handles POST /simplify. Rejects other methods with 405, oversized bodies with 413 and 
+	 * unknown vocabularies with 400.
+	 * Time Complexity: O(n*m), see TextSimplifier#processText(String)
+	 *
+	 * @param exchange the HTTP request and response
+	 * @throws IOException if the connection fails
+	 */
+	private void handleSimplify(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, "Use POST");
+				return;
+			}
+
+			//Reject early if the client declared a body that is too large
+			String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+			if (contentLength != null && Long.parseLong(contentLength.trim()) > maxRequestBytes) {
+				requestsRejected.incrementAndGet();
+				respond(exchange, 413, "Request body exceeds " + maxRequestBytes + " bytes");
+				return;
+			}
+
+			byte[] body = readLimited(exchange.getRequestBody());
+			if (body == null) {
+				requestsRejected.incrementAndGet();
+				respond(exchange, 413, "Request body exceeds " + maxRequestBytes + " bytes");
+				return;
+			}
+
+			String vocabulary = queryParameter(exchange, "vocabulary", Vocabulary.DEFAULT);
+			if (!textSimplifier.getVocabularyNames().contains(vocabulary)) {
+				requestsRejected.incrementAndGet();
+				respond(exchange, 400, "Unknown vocabulary: " + vocabulary);
+				return;
+			}
+
+			String simplifiedText = textSimplifier.processText(new String(body, StandardCharsets.UTF_8), vocabulary);
+			requestsServed.incrementAndGet();
+			if (budget != null) {
+				exchange.getResponseHeaders().set("X-Approximate-Tokens", 
+						String.valueOf(EngineSnapshot.lastApproximateTokens())); //Processed on this thread
+			}
+			respond(exchange, 200, simplifiedText);
+		} catch (RuntimeException e) {
+			respond(exchange, 500, "Error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Handles POST /vocabulary/add and /vocabulary/remove. Rejects other methods with 405, 
+	 * oversized bodies with 413 and unknown vocabularies with 400.
+	 * Time Complexity: O(m + c + r*a*d), see EngineSnapshot#withVocabularyChanges
+	 *
+	 * @param exchange the HTTP request and response
+	 * @param add true to add the words, false to remove them
+	 * @throws IOException if the connection fails
+	 */
+	private void handleVocabularyEdit(HttpExchange exchange, boolean add) throws IOException {
+		try (exchange) {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, "Use POST");
+				return;
+			}
+			byte[] body = readLimited(exchange.getRequestBody());
+			if (body == null) {
+				requestsRejected.incrementAndGet();
+				respond(exchange, 413, "Request body exceeds " + maxRequestBytes + " bytes");
+				return;
+			}
+			if (!(textSimplifier instanceof SnapshotSimplifier local)) {
+				requestsRejected.incrementAndGet();
+				respond(exchange, 400, "Vocabularies cannot be edited on a sharded server");
+				return;
+			}
+			String vocabulary = queryParameter(exchange, "vocabulary", Vocabulary.DEFAULT);
+			if (!textSimplifier.getVocabularyNames().contains(vocabulary)) {
+				requestsRejected.incrementAndGet();
+				respond(exchange, 400, "Unknown vocabulary: " + vocabulary);
+				return;
+			}
+
+			List<String> words = new String(body, StandardCharsets.UTF_8).lines()
+					.map(String::trim).filter(word -> !word.isEmpty()).toList();
+			long start = System.nanoTime();
+			Vocabulary edited = add ? local.updateVocabulary(vocabulary, words, List.of())
+					: local.updateVocabulary(vocabulary, List.of(), words);
+			requestsServed.incrementAndGet();
+			respond(exchange, 200, String.format("%s, %s %d words in %.2f ms%n", edited,
+					add ? "added" : "removed", words.size(), (System.nanoTime() - start) / 1_000_000.0d));
+		} catch (RuntimeException e) {
+			respond(exchange, 500, "Error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Formats the server metrics as one "name value" pair per line
+	 * @return the metrics text
+	 */
+	private String metrics() {
+		StringBuilder metrics = new StringBuilder();
+		metrics.append("requests_served ").append(requestsServed.get()).append('\n');
+		metrics.append("requests_rejected ").append(requestsRejected.get()).append('\n');
+		if (modelWatcher != null) {
+			metrics.append("model_version ").append(modelWatcher.getVersion()).append('\n');
+			metrics.append("model_reloads ").append(modelWatcher.getReloadCount()).append('\n');
+			metrics.append("model_reload_failures ").append(modelWatcher.getFailedReloadCount()).append('\n');
+			metrics.append("model_last_reload_ms ").append(modelWatcher.getLastReloadMillis()).append('\n');
+		}
+		if (budget != null) {
+			metrics.append(budget.metrics());
+		}
+		if (coalescer != null) {
+			metrics.append(coalescer.metrics());
+		}
+		if (parallelScan != null) {
+			metrics.append(parallelScan.metrics());
+		}
+		return metrics.toString();
+	}
+
+	/**
+	 * Reads a parameter from the query string of a request
+	 * @param exchange the HTTP request
+	 * @param name the parameter name
+	 * @param defaultValue returned if the parameter is missing
+	 * @return the decoded value of the first matching parameter
+	 */
+	private static String queryParameter(HttpExchange exchange, String name, String defaultValue) {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int equals = pair.indexOf('=');
+				if (equals > 0 && pair.substring(0, equals).equals(name)) {
+					return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+				}
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Reads a request body, stopping as soon as it exceeds the size limit
+	 * @param in the request body
+	 * @return the body, or null if it is larger than maxRequestBytes
+	 * @throws IOException if the body cannot be read
+	 */
+	private byte[] readLimited(InputStream in) throws IOException {
+		byte[] body = in.readNBytes(maxRequestBytes + 1);
+		return body.length > maxRequestBytes ? null : body;
+	}
+
+	/**
+	 * Sends a plain text response
+	 * @param exchange the HTTP request and response
+	 * @param status the HTTP status code
+	 * @param text the response body
+	 * @throws IOException if the connection fails
+	 */
+	private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package ie.atu.sw;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * A TextSimplifier that holds its model in this process, as an EngineSnapshot over the loaded 
+ * vector maps, so the maps, the snapshot and its vocabularies can be read and replaced. 
+ * Features that work on the snapshot, such as the prefilter, the lookup budget, chunk reuse and 
+ * vocabulary editing, need a SnapshotSimplifier.
+ * @see TextFileSimplifier
+ */
+
+public interface SnapshotSimplifier extends TextSimplifier {
+	
+    /**
+     * Getter method that returns the embedding map
+     * @return Embeddings map
+     */
+    public HashMap<String, double[]> getEmbeddingsMap();
+    
+    /**
+     * Getter method that returns the replacement words map
+     * @return  Replacement words map
+     */
+	public HashMap<String, double[]> getReplacementWordsMap();
+	
+	/**
+	 * Setter for setting the embeddings map local variable
+	 * @param embeddingsMap  Embeddings map
+	 */
+	public void setEmbeddingsMap(HashMap<String, double[]> embeddingsMap);
+	
+	/**
+	 * Setter for setting the Replacement words map local variable
+	 * @param replacementWordsMap  Replacement words map
+	 */
+	public void setReplacementWordsMap(HashMap<String, double[]> replacementWordsMap);
+	
+	/**
+	 * Sets both maps at once, building and publishing a single snapshot, so a full reload costs
+	 * one build and no caller sees the new embeddings with the old replacement words
+	 * @param embeddingsMap  Embeddings map
+	 * @param replacementWordsMap  Replacement words map
+	 */
+	public void setMaps(HashMap<String, double[]> embeddingsMap, HashMap<String, double[]> replacementWordsMap);
+	
+	/**
+	 * Getter for the immutable snapshot currently used to process text. The snapshot can be 
+	 * shared freely between threads.
+	 * @see EngineSnapshot
+	 * @return the current snapshot
+	 */
+	public EngineSnapshot getSnapshot();
+	
+	/**
+	 * Replaces the snapshot used to process text. Calls to processText that are already running 
+	 * finish with the snapshot they started with.
+	 * @param snapshot the new snapshot
+	 */
+	public void setSnapshot(EngineSnapshot snapshot);
+
+	/**
+	 * Adds or replaces a named vocabulary of replacement words. The vocabulary shares the loaded 
+	 * embeddings, so only its words are stored.
+	 * @see Vocabulary
+	 * @param name The name requests use to choose the vocabulary
+	 * @param words The replacement words, words without an embedding are ignored
+	 * @return The vocabulary that was added
+	 * @throws IllegalStateException If the embeddings have not been set
+	 */
+	public Vocabulary addVocabulary(String name, Collection<String> words);
+	
+	/**
+	 * Adds words to and removes words from a vocabulary without rebuilding it. Replacements 
+	 * already resolved are kept unless the edit can change them, and text that is already being 
+	 * processed finishes with the vocabulary it started with.
+	 * @see EngineSnapshot#withVocabularyChanges(Collection, Collection)
+	 * @param name The name of the vocabulary, Vocabulary.DEFAULT for the replacement words
+	 * @param added The words to add, words without an embedding are ignored
+	 * @param removed The words to remove
+	 * @return The edited vocabulary
+	 * @throws IllegalArgumentException If there is no vocabulary with that name
+	 */
+	public Vocabulary updateVocabulary(String name, Collection<String> added, Collection<String> removed);
+}
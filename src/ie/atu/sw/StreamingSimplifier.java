@@ -0,0 +1,436 @@
+package ie.atu.sw;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Reactive front end of a TextSimplifier: a Flow.Publisher of simplified text fed by a publisher
+ * of text chunks, so a document can be simplified as it arrives without ever being held whole.
+ * Chunks may split lines and words anywhere. Complete lines are simplified as they arrive and
+ * each chunk that completes a non-empty line is answered with one chunk of simplified text; the
+ * concatenated output is exactly what TextSimplifier#processText returns for the concatenated
+ * input.
+ *
+ * The publisher honours the Flow protocol:
+ * <ul>
+ * <li>Demand driven: a chunk is only simplified when the subscriber has requested output, and at
+ * most the configured number of input chunks is requested ahead, so memory is bounded by that
+ * number of chunks plus the line being assembled.</li>
+ * <li>Asynchronous: simplification and every signal to the subscriber run on the given
+ * executor, one task at a time, so neither the upstream publisher nor the subscriber's request
+ * calls do any simplification.</li>
+ * <li>Cancellable: cancelling the subscription cancels the upstream subscription and discards
+ * the buffered chunks. An upstream error, or a failure to simplify, is passed to the subscriber
+ * at once and cancels the rest.</li>
+ * </ul>
+ * Each publisher serves one subscriber, as its source may only be read once.
+ *
+ * @see TextSimplifier#processStream(Flow.Publisher, Executor, int)
+ */
+public final class StreamingSimplifier implements Flow.Publisher<String> {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	public static final int DEFAULT_BUFFERED_CHUNKS = 16;
+
+	private final TextSimplifier textSimplifier;
+	private final Flow.Publisher<String> source;
+	private final Executor executor;
+	private final int bufferedChunks; //Input chunks requested ahead of demand
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates a publisher of the simplification of a publisher of text chunks. Nothing is read
+	 * until a subscriber subscribes.
+	 * @param textSimplifier simplifies each complete line
+	 * @param source the text, in chunks of any size
+	 * @param executor runs the simplification and the signals to the subscriber
+	 * @param bufferedChunks the most input chunks requested ahead of demand
+	 * @throws IllegalArgumentException if bufferedChunks is below 1
+	 */
+	public StreamingSimplifier(TextSimplifier textSimplifier, Flow.Publisher<String> source, Executor executor,
+			int bufferedChunks) {
+		if (bufferedChunks < 1) {
+			throw new IllegalArgumentException("At least one chunk must be buffered");
+		}
+		this.textSimplifier = Objects.requireNonNull(textSimplifier);
+		this.source = Objects.requireNonNull(source);
+		this.executor = Objects.requireNonNull(executor);
+		this.bufferedChunks = bufferedChunks;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Subscribes to the source on behalf of the subscriber
+	 * @param subscriber receives the simplified chunks
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super String> subscriber) {
+		Objects.requireNonNull(subscriber);
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {}
+				public void cancel() {}
+			});
+			subscriber.onError(new IllegalStateException("A streaming simplifier has only one subscriber"));
+			return;
+		}
+		Relay relay = new Relay(subscriber);
+		subscriber.onSubscribe(relay);
+		source.subscribe(relay);
+	}
+
+	/**
+	 * Publishes the lines of a stream as text chunks, each line after the first preceded by a
+	 * line break, reading the stream only as chunks are requested. The stream is closed when it
+	 * is exhausted or the subscription is cancelled.
+	 * Time Complexity: O(1) per line
+	 *
+	 * @param lines the lines, without line breaks
+	 * @param executor reads the stream and signals the subscriber
+	 * @return a publisher for one subscriber
+	 */
+	public static Flow.Publisher<String> lines(Stream<String> lines, Executor executor) {
+		return new LinePublisher(lines, executor);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Subscribes to the source and serves the subscriber. Signals from either side only queue
+	 * work and schedule a drain, and drains run one at a time on the executor: the classic
+	 * work-in-progress counter makes sure a signal arriving during a drain is picked up by a
+	 * further pass rather than a second, concurrent drain.
+	 */
+	private final class Relay implements Flow.Subscriber<String>, Flow.Subscription {
+
+		private final Flow.Subscriber<? super String> downstream;
+		private final Queue<String> inbound = new ConcurrentLinkedQueue<>(); //At most bufferedChunks
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger work = new AtomicInteger(); //Drains requested, see drain()
+		private volatile Flow.Subscription upstream;
+		private volatile boolean upstreamDone = false;
+		private volatile Throwable error = null;
+		private volatile boolean cancelled = false;
+		private boolean terminated = false; //Only read and written by drains
+
+		//Line state, only used by drains
+		private final StringBuilder pending = new StringBuilder(); //Text after the last complete line
+		private final StringBuilder output = new StringBuilder();
+		private boolean wroteContent = false;
+		private int pendingEmptyLines = 0; //Lines that came out empty since the last content
+		private String finalChunk = null; //Output of the last line, once the source completed
+
+		private Relay(Flow.Subscriber<? super String> downstream) {
+			this.downstream = downstream;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			if (upstream != null) {
+				subscription.cancel(); //Only one source
+				return;
+			}
+			upstream = subscription;
+			if (cancelled) {
+				subscription.cancel();
+			} else {
+				subscription.request(bufferedChunks);
+			}
+		}
+
+		@Override
+		public void onNext(String chunk) {
+			inbound.add(chunk);
+			schedule();
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			schedule();
+		}
+
+		@Override
+		public void onComplete() {
+			upstreamDone = true;
+			schedule();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("Requested " + n + " chunks, must be positive");
+			} else {
+				demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			Flow.Subscription subscription = upstream;
+			if (subscription != null) {
+				subscription.cancel();
+			}
+			schedule();
+		}
+
+		/**
+		 * Runs a drain on the executor unless one is running, which will then run again
+		 */
+		private void schedule() {
+			if (work.getAndIncrement() == 0) {
+				try {
+					executor.execute(this::drain);
+				} catch (RejectedExecutionException e) {
+					cancelled = true;
+					downstream.onError(e);
+				}
+			}
+		}
+
+		/**
+		 * Drains until no signal arrived during the last pass
+		 */
+		private void drain() {
+			int missed = 1;
+			do {
+				drainOnce();
+				missed = work.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		/**
+		 * Simplifies buffered chunks while there is demand, replacing each from upstream, then
+		 * completes or fails the subscriber if the source has ended
+		 */
+		private void drainOnce() {
+			if (terminated) {
+				inbound.clear();
+				return;
+			}
+			if (cancelled) {
+				terminated = true;
+				inbound.clear();
+				return;
+			}
+			try {
+				if (error != null) {
+					fail(error);
+					return;
+				}
+				while (demand.get() > 0) {
+					String chunk = inbound.poll();
+					if (chunk == null) {
+						break;
+					}
+					String simplified = simplify(chunk, false);
+					upstream.request(1);
+					if (!simplified.isEmpty()) {
+						demand.decrementAndGet();
+						downstream.onNext(simplified);
+					}
+					if (cancelled) {
+						return;
+					}
+				}
+				if (upstreamDone && inbound.isEmpty()) {
+					if (finalChunk == null) {
+						finalChunk = simplify("", true);
+					}
+					if (!finalChunk.isEmpty() && demand.get() > 0) {
+						demand.decrementAndGet();
+						downstream.onNext(finalChunk);
+						finalChunk = "";
+					}
+					if (finalChunk.isEmpty()) {
+						terminated = true;
+						downstream.onComplete();
+					}
+				}
+			} catch (RuntimeException e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Cancels the source and passes an error to the subscriber
+		 */
+		private void fail(Throwable throwable) {
+			terminated = true;
+			inbound.clear();
+			Flow.Subscription subscription = upstream;
+			if (subscription != null) {
+				subscription.cancel();
+			}
+			downstream.onError(throwable);
+		}
+
+		/**
+		 * Simplifies the lines a chunk completes. Lines are split as processText splits them,
+		 * and the output joins the non-empty simplified lines with the line separator, empty
+		 * lines between them kept and those before the first or after the last dropped. A
+		 * trailing \r is held back in case the next chunk starts with \n.
+		 * Time Complexity: O(n) for n characters, plus the simplification of each line
+		 *
+		 * @param chunk the next chunk of text
+		 * @param last whether the source has ended, so the text after the last break is a line
+		 * @return the simplified text the chunk completes, possibly empty
+		 */
+		private String simplify(String chunk, boolean last) {
+			pending.append(chunk);
+			output.setLength(0);
+			int start = 0;
+			int length = pending.length();
+			for (int end = 0; end < length; end++) {
+				char c = pending.charAt(end);
+				if (!EngineSnapshot.isLineBreak(c)) {
+					continue;
+				}
+				if (c == '\r' && end + 1 == length && !last) {
+					break; //Maybe the first half of \r\n
+				}
+				simplifyLine(pending.substring(start, end));
+				if (c == '\r' && end + 1 < length && pending.charAt(end + 1) == '\n') {
+					end++;
+				}
+				start = end + 1;
+			}
+			pending.delete(0, start);
+			if (last) {
+				simplifyLine(pending.toString());
+				pending.setLength(0);
+			}
+			return output.toString();
+		}
+
+		/**
+		 * Appends a simplified line to the output, after the separators it follows
+		 */
+		private void simplifyLine(String line) {
+			String simplified = textSimplifier.processText(line);
+			if (simplified.isEmpty()) {
+				if (wroteContent) {
+					pendingEmptyLines++;
+				}
+				return;
+			}
+			if (wroteContent) {
+				output.append(System.lineSeparator().repeat(pendingEmptyLines + 1));
+			}
+			output.append(simplified);
+			wroteContent = true;
+			pendingEmptyLines = 0;
+		}
+	}
+
+	/**
+	 * Publishes the lines of a stream on demand, see {@link StreamingSimplifier#lines}
+	 */
+	private static final class LinePublisher implements Flow.Publisher<String> {
+
+		private final Stream<String> lines;
+		private final Executor executor;
+		private final AtomicBoolean subscribed = new AtomicBoolean();
+
+		private LinePublisher(Stream<String> lines, Executor executor) {
+			this.lines = Objects.requireNonNull(lines);
+			this.executor = Objects.requireNonNull(executor);
+		}
+
+		@Override
+		public void subscribe(Flow.Subscriber<? super String> subscriber) {
+			if (!subscribed.compareAndSet(false, true)) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					public void request(long n) {}
+					public void cancel() {}
+				});
+				subscriber.onError(new IllegalStateException("A stream can only be read once"));
+				return;
+			}
+			subscriber.onSubscribe(new Flow.Subscription() {
+				private final Iterator<String> iterator = lines.iterator();
+				private final AtomicLong demand = new AtomicLong();
+				private final AtomicInteger work = new AtomicInteger();
+				private volatile boolean cancelled = false;
+				private boolean first = true;
+				private boolean done = false;
+
+				@Override
+				public void request(long n) {
+					if (n <= 0) {
+						cancel();
+						subscriber.onError(new IllegalArgumentException("Requested " + n + " lines, must be positive"));
+						return;
+					}
+					demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+					if (work.getAndIncrement() == 0) {
+						executor.execute(this::emit);
+					}
+				}
+
+				@Override
+				public void cancel() {
+					cancelled = true;
+					if (work.getAndIncrement() == 0) {
+						executor.execute(this::emit); //Closes the stream
+					}
+				}
+
+				/**
+				 * Emits lines while there is demand, one pass per request that arrived meanwhile
+				 */
+				private void emit() {
+					int missed = 1;
+					do {
+						try {
+							while (!done && !cancelled && demand.get() > 0 && iterator.hasNext()) {
+								String line = iterator.next();
+								demand.decrementAndGet();
+								subscriber.onNext(first ? line : '\n' + line);
+								first = false;
+							}
+							if (!done && (cancelled || !iterator.hasNext())) {
+								done = true;
+								lines.close();
+								if (!cancelled) {
+									subscriber.onComplete();
+								}
+							}
+						} catch (RuntimeException e) {
+							if (!done) {
+								done = true;
+								lines.close();
+								subscriber.onError(e);
+							}
+						}
+						missed = work.addAndGet(-missed);
+					} while (missed != 0);
+				}
+			});
+		}
+	}
+
+}
@@ -1,205 +1,345 @@
 package ie.atu.sw;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 /**
  * Implementation if the TextSimplifier interface.
- * 
+ *
  * This class processes a text file by replacing words with the closest matching words from a
  * replacement words map based on vector similarity. It supports different similarity calculators,
  * including Dot Product, Cosine Similarity, and Euclidean Distance.
+ *
+ * The setters only record configuration; the work is done by an immutable EngineSnapshot that is
+ * rebuilt whenever the configuration changes. A call to processText reads the current snapshot
+ * once, so one instance can be shared by many threads and a reconfiguration never affects text
+ * that is already being processed.
+ *
+ * Named vocabularies share the snapshot's word index. A request for a vocabulary uses a snapshot
+ * derived from the current one, and a vocabulary built over an older word index (before the
+ * embeddings were reloaded) is rebuilt over the new one on first use. Snapshots memoise the
+ * replacements they resolve, and vocabularies can be edited a few words at a time keeping every
+ * replacement the edit cannot change. With a WorkloadRecorder set, every processed text is
+ * captured with its timing for WorkloadReplay. With a PhraseAutomaton set, multi-word phrases
+ * are replaced in one pass over each line before the remaining words are searched.
+ *
+ * @see EngineSnapshot
  */
 
 
-public class TextFileSimplifier implements TextSimplifier{
-	
+public class TextFileSimplifier implements SnapshotSimplifier{
+
     private HashMap<String, double[]> embeddingsMap = null;
     private HashMap<String, double[]> replacementWordsMap = null;
-    private SimilarityCalculator similarityCalculator; 
     private CalculatorType calcType = CalculatorType.DOT_PRODUCT; //Default calculator type
+    private volatile EngineSnapshot snapshot = null; //null until both maps are set
+    private final Map<String, Vocabulary> vocabularies = new ConcurrentHashMap<>(); //Added vocabularies by name
+    private final Map<String, EngineSnapshot> derived = new ConcurrentHashMap<>(); //Snapshots of added vocabularies, keeping their memos
+    private volatile WorkloadRecorder recorder = null; //null unless the workload is captured
+    private PhraseAutomaton phrases = null; //Phrases replaced before words, null for none
 
-    public TextFileSimplifier() {
-        initialiseSimilarityCalculator();
-    }
-    
     /**
      * {@inheritDoc}
-     * 
-     * This implementation handles reading the text, simplifying each line, 
-     * and returning the modified content.
-     * 
-     * Time complexity: O(n*m). Splitting file into lines takes O(n), where n is the number of lines. 
+     *
+     * This implementation handles reading the text, simplifying each line,
+     * and returning the modified content using the current snapshot.
+     *
+     * Time complexity: O(n*m). Splitting file into lines takes O(n), where n is the number of lines.
      * Each line is then split into m words O(m)
-     * 
-     * @see TextFileSimplifier#processText(String)
+     *
+     * @see EngineSnapshot#processText(String)
      * @param inputText the text to be simplified
      * @return the simplified text as a {@code String}
+     * @throws IllegalStateException if the maps have not been set
      */
     @Override
     public String processText(String inputText) {
-    	
-    	System.out.println("[INFO] Using calc type: " + calcType);
-    	
-        StringBuilder simplifiedContent = new StringBuilder();
-
-        String[] lines = inputText.split("\\R"); // Split by new lines
-        for (String line : lines) {
-            String simplifiedLine = simplify(line);
-            simplifiedContent.append(simplifiedLine).append(System.lineSeparator());
-        }
+        EngineSnapshot current = getSnapshot();
+        long start = System.nanoTime();
+        String simplifiedText = current.processText(inputText);
+        record(current, Vocabulary.DEFAULT, inputText, start);
+        return simplifiedText;
+    }
 
-        return simplifiedContent.toString().trim();
+    /**
+     * {@inheritDoc}
+     *
+     * @see EngineSnapshot#processText(String, Writer)
+     * @throws IllegalStateException if the maps have not been set
+     */
+    @Override
+    public void processText(String inputText, Writer output) throws IOException {
+        EngineSnapshot current = getSnapshot();
+        long start = System.nanoTime();
+        current.processText(inputText, output);
+        record(current, Vocabulary.DEFAULT, inputText, start);
     }
-    
-    /**
-     * Simplifies a single line of text by replacing words with their closest matches.
-     * 
-     * Time complexity: O(n). Splitting lines into words O(n), where n is the number of words. 
-     * Each word is then sent to findReplacementWord() O(1), where m is the number of words in the replacement map
-     * 
-     * @param line the line of text to be simplified
-     * @return the simplified line of text
-     */
-    private String simplify(String line) {
-        String[] words = line.split("\\s+");
-        StringBuilder simplifiedLine = new StringBuilder();
-
-        for (String word : words) {
-            String replacement = findReplacementWord(word);
-            simplifiedLine.append(replacement).append(" ");
-        }
 
-        return simplifiedLine.toString().trim();
+    /**
+     * {@inheritDoc}
+     *
+     * @see EngineSnapshot#withVocabulary(Vocabulary)
+     * @throws IllegalStateException if the maps have not been set
+     */
+    @Override
+    public String processText(String inputText, String vocabulary) {
+        EngineSnapshot current = getSnapshot(vocabulary);
+        long start = System.nanoTime();
+        String simplifiedText = current.processText(inputText);
+        record(current, vocabulary, inputText, start);
+        return simplifiedText;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see EngineSnapshot#withVocabulary(Vocabulary)
+     * @throws IllegalStateException if the maps have not been set
+     */
+    @Override
+    public void processText(String inputText, String vocabulary, Writer output) throws IOException {
+        EngineSnapshot current = getSnapshot(vocabulary);
+        long start = System.nanoTime();
+        current.processText(inputText, output);
+        record(current, vocabulary, inputText, start);
     }
-    
+
     /**
-     * Finds a replacement word for a given word by searching in the replacement words map.
-     * If the word is not found, it finds the closest word based on vector similarity.
-     * 
-     * Time complexity: O(1). HashMap key lookup time.
+     * {@inheritDoc}
      *
-     * @param word the word to find a replacement for
-     * @return the replacement word, or the original word if no suitable replacement is found
+     * Builds the vocabulary over the word index of the current snapshot
+     * Time Complexity: O(m), where m is the number of words
+     *
+     * @throws IllegalArgumentException if the name is that of the default vocabulary
      */
-    private String findReplacementWord(String word) {
-        // Check if the word exists in the replacement words map
-        if (replacementWordsMap.containsKey(word)) {
-            return word; // If found, keep the word the same
+    @Override
+    public Vocabulary addVocabulary(String name, Collection<String> words) {
+        if (name.equals(Vocabulary.DEFAULT)) {
+            throw new IllegalArgumentException("The default vocabulary is set with the replacement words map");
         }
+        Vocabulary vocabulary = new Vocabulary(name, getSnapshot().getWordIndex(), words);
+        vocabularies.put(name, vocabulary);
+        return vocabulary;
+    }
 
-        // If the word is not in replacementWordsMap, check embeddingsMap
-        double[] targetVector = embeddingsMap.get(word);
-        if (targetVector == null) {
-            return word; // If not found in embeddingsMap, keep the word the same
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getVocabularyNames() {
+        Set<String> names = new TreeSet<>(vocabularies.keySet());
+        names.add(Vocabulary.DEFAULT);
+        return names;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Edits the default vocabulary in the current snapshot, or the named vocabulary in its 
+     * derived snapshot. Edits to the default vocabulary last until the replacement words map 
+     * or the embeddings are set again.
+     * Time Complexity: O(m + c + r*a*d), see EngineSnapshot#withVocabularyChanges
+     */
+    @Override
+    public synchronized Vocabulary updateVocabulary(String name, Collection<String> added, Collection<String> removed) {
+        EngineSnapshot edited = getSnapshot(name).withVocabularyChanges(added, removed);
+        if (name.equals(Vocabulary.DEFAULT)) {
+            snapshot = edited;
+        } else {
+            vocabularies.put(name, edited.getVocabulary());
+            derived.put(name, edited);
         }
+        return edited.getVocabulary();
+    }
 
-        // Find the closest word in the replacementWordsMap
-        String closestWord = findClosestWord(targetVector);
-        return closestWord != null ? closestWord : word; // Return the closest word, or the original if none found
+    /**
+     * Starts or stops capturing every processed text, with its timing, into a workload trace
+     * @see WorkloadRecorder
+     * @param recorder the trace to append to, or null to stop capturing
+     */
+    public void setRecorder(WorkloadRecorder recorder) {
+        this.recorder = recorder;
     }
-    
-    /**
-     * Finds the closest word in the replacement words map to a given target vector based on the
-     * selected similarity calculator.
-     * 
-     * Time complexity: O(n) Iterates through replacementWordsMap O(n)
-     *
-     * @param targetVector the vector representation of the target word
-     * @return the closest matching word, or {@code null} if no suitable word is found
-     */
-    private String findClosestWord(double[] targetVector) {
-        String closestWord = null;
-        double bestScore = (calcType == CalculatorType.DOT_PRODUCT || calcType == CalculatorType.COSINE) 
-                ? Double.MIN_VALUE  // For Cosine & Dot Product, use MIN_VALUE
-                : Double.MAX_VALUE; // For Euclidean, use MAX_VALUE
-
-        // Loop through replacement words map to find the closest word
-        for (var entry : replacementWordsMap.entrySet()) {
-            double similarityScore = similarityCalculator.calculate(targetVector, entry.getValue());
-
-            if (calcType == CalculatorType.DOT_PRODUCT || calcType == CalculatorType.COSINE) {
-                // For Cosine and Dot Product, get highest score
-                if (similarityScore > bestScore) {
-                    bestScore = similarityScore;
-                    closestWord = entry.getKey();
-                }
-            } else if (calcType == CalculatorType.EUCLIDEAN) {
-                // For Euclidean, get lowest score
-                if (similarityScore < bestScore) {
-                    bestScore = similarityScore;
-                    closestWord = entry.getKey();
-                }
-            }
+
+    /**
+     * Appends a processed text to the workload trace, if one is being captured
+     */
+    private void record(EngineSnapshot snapshot, String vocabulary, String inputText, long start) {
+        WorkloadRecorder current = recorder;
+        if (current != null) {
+            current.record(snapshot, vocabulary, inputText, start, System.nanoTime() - start);
         }
+    }
 
-        return closestWord;
+    /**
+     * Derives the snapshot for a named vocabulary from the current snapshot, reusing the one 
+     * derived before while the model and metric are unchanged so its memo is kept
+     * Time Complexity: O(1), O(m) the first time a vocabulary is used after a reload
+     *
+     * @param name the name of the vocabulary
+     * @return the snapshot to process text with
+     * @throws IllegalArgumentException if there is no vocabulary with that name
+     */
+    private EngineSnapshot getSnapshot(String name) {
+        EngineSnapshot current = getSnapshot();
+        if (name.equals(Vocabulary.DEFAULT)) {
+            return current;
+        }
+        Vocabulary vocabulary = vocabularies.get(name);
+        if (vocabulary == null) {
+            throw new IllegalArgumentException("Unknown vocabulary: " + name);
+        }
+        if (vocabulary.getIndex() != current.getWordIndex()) {
+            Vocabulary rebound = vocabulary.rebind(current.getWordIndex()); //Embeddings were reloaded
+            vocabularies.replace(name, vocabulary, rebound); //Unless it was replaced meanwhile
+            vocabulary = rebound;
+        }
+        EngineSnapshot previous = derived.get(name);
+        if (previous != null && previous.getVocabulary() == vocabulary
+        		&& previous.getWordIndex() == current.getWordIndex()
+        		&& previous.getCalculatorType() == current.getCalculatorType()
+        		&& previous.getPhrases() == current.getPhrases()) {
+        	return previous;
+        }
+        EngineSnapshot next = current.withVocabulary(vocabulary);
+        derived.put(name, next); //Racing threads derive equivalent snapshots
+        return next;
     }
-    
+
     /**
      * {@inheritDoc}
-     * 
-     * Calls for initialisation of the variable in order to use the specified calculator type 
-     * 
+     *
+     * Rebuilds the snapshot with the specified calculator type, sharing the existing maps
+     *
      * @see CalculatorType
      * @see TextFileSimplifier
      * @param calc calcType the type of calculator to use
      */
     @Override
-    public void setSimilarityCalculator(CalculatorType calc) {
+    public synchronized void setSimilarityCalculator(CalculatorType calc) {
     	this.calcType = calc;
-    	initialiseSimilarityCalculator();
+    	if (snapshot != null) {
+    		snapshot = snapshot.withCalculator(calc);
+    	}
     }
-    
-    private void initialiseSimilarityCalculator() {
-    	switch(calcType) {
-    		case DOT_PRODUCT: 
-    			this.similarityCalculator = new DotProductCalculator();
-    			break;
-    		case COSINE: 
-    			this.similarityCalculator = new CosineCalculator();
-    			break;
-    		case EUCLIDEAN: 
-    			this.similarityCalculator = new EuclideanCalculator();
-    			break;
+
+    /**
+     * Sets the multi-word phrases replaced before the word search, which last until they are 
+     * set again, including across rebuilds of the snapshot
+     *
+     * @see EngineSnapshot#withPhrases(PhraseAutomaton)
+     * @param phrases the compiled phrases, or null to replace words only
+     */
+    public synchronized void setPhrases(PhraseAutomaton phrases) {
+    	this.phrases = phrases;
+    	if (snapshot != null) {
+    		snapshot = snapshot.withPhrases(phrases);
+    	}
+    }
+
+    /**
+     * Builds a new snapshot from the current configuration once both maps are known, memoising 
+     * resolved replacements. The budget, coalescer and parallel scan of the previous snapshot 
+     * are kept; its prefilter and replacement cache belong to the old maps and are dropped.
+     */
+    private void rebuildSnapshot() {
+    	if (embeddingsMap != null && replacementWordsMap != null) {
+    		EngineSnapshot previous = snapshot;
+    		EngineSnapshot next = new EngineSnapshot(embeddingsMap, replacementWordsMap, calcType).withMemo(true)
+    				.withPhrases(phrases);
+    		if (previous != null) {
+    			next = next.withBudget(previous.getBudget()).withCoalescer(previous.getCoalescer())
+    					.withParallelScan(previous.getParallelScan());
+    		}
+    		snapshot = next;
+    	}
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Retrieves the value from local variable
+     * @throws IllegalStateException if the maps have not been set
+     */
+    @Override
+    public EngineSnapshot getSnapshot() {
+    	EngineSnapshot current = snapshot;
+    	if (current == null) {
+    		throw new IllegalStateException("Embeddings and replacement words have not been set");
     	}
+    	return current;
     }
-    
+
     /**
      * {@inheritDoc}
-     * 
-     * Retrieves the value from local variable 
+     *
+     * Stores the input parameter as local variable. The maps returned by the getters remain 
+     * those last passed to the setters.
      */
     @Override
-	public HashMap<String, double[]> getEmbeddingsMap() {
+    public synchronized void setSnapshot(EngineSnapshot snapshot) {
+    	this.snapshot = snapshot;
+    	this.calcType = snapshot.getCalculatorType();
+    	this.phrases = snapshot.getPhrases();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Retrieves the value from local variable
+     */
+    @Override
+	public synchronized HashMap<String, double[]> getEmbeddingsMap() {
 		return embeddingsMap;
 	}
-	
+
 	/**
      * {@inheritDoc}
-     * 
-     * Retrieves the value from local variable 
+     *
+     * Retrieves the value from local variable
      */
 	@Override
-	public HashMap<String, double[]> getReplacementWordsMap() {
+	public synchronized HashMap<String, double[]> getReplacementWordsMap() {
 		return replacementWordsMap;
 	}
-	
+
 	/**
      * {@inheritDoc}
-     * 
-     * Stores the input parameter as local variable
+     *
+     * Stores the input parameter as local variable and rebuilds the snapshot
      */
 	@Override
-	public void setEmbeddingsMap(HashMap<String, double[]> embeddingsMap) {
+	public synchronized void setEmbeddingsMap(HashMap<String, double[]> embeddingsMap) {
 		this.embeddingsMap = embeddingsMap;
+		rebuildSnapshot();
+	}
+
+	/**
+     * {@inheritDoc}
+     *
+     * Stores the input parameter as local variable and rebuilds the snapshot
+     */
+	@Override
+	public synchronized void setReplacementWordsMap(HashMap<String, double[]> replacementWordsMap) {
+		this.replacementWordsMap = replacementWordsMap;
+		rebuildSnapshot();
 	}
-	
+
 	/**
      * {@inheritDoc}
-     * 
-     * Stores the input parameter as local variable
+     *
+     * Stores both input parameters as local variables and rebuilds the snapshot once
      */
 	@Override
-	public void setReplacementWordsMap(HashMap<String, double[]> replacementWordsMap) {
+	public synchronized void setMaps(HashMap<String, double[]> embeddingsMap, 
+			HashMap<String, double[]> replacementWordsMap) {
+		this.embeddingsMap = embeddingsMap;
 		this.replacementWordsMap = replacementWordsMap;
+		rebuildSnapshot();
 	}
 }
@@ -1,10 +1,16 @@
 package ie.atu.sw;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
 
 /**
  * Used to process text by replacing words found in an one map with the closest equivalent words 
  * from another map with the goal of simplifying the text.
+ * @see SnapshotSimplifier for a simplifier that holds its model in this process
  */
 
 public interface TextSimplifier {
@@ -17,34 +23,73 @@ public interface TextSimplifier {
 	public String processText(String inputText);
 	
 	/**
-	 * Setter Method for setting the Enum CalculatorType in order to choose which calculation method
-	 * to use when calculating the similarity of two vectors
-	 * @see CalculatorType
-	 * @param calcType the enum representing the calculator type
+	 * Simplifies text, writing each line to the output as soon as it is ready so writing can 
+	 * overlap with the simplification of later lines
+	 * @param inputText The text to be simplified
+	 * @param output Where the simplified text is written, same content as processText(String)
+	 * @throws IOException If the output cannot be written
 	 */
-    public void setSimilarityCalculator(CalculatorType calcType);
-    
-    /**
-     * Getter method that returns the embedding map
-     * @return Embeddings map
-     */
-    public HashMap<String, double[]> getEmbeddingsMap();
-    
-    /**
-     * Getter method that returns the replacement words map
-     * @return  Replacement words map
-     */
-	public HashMap<String, double[]> getReplacementWordsMap();
+	public void processText(String inputText, Writer output) throws IOException;
+	
+	/**
+	 * Simplifies text into a named vocabulary instead of the default replacement words
+	 * @param inputText The text to be simplified
+	 * @param vocabulary The name of a vocabulary added with addVocabulary, or Vocabulary.DEFAULT
+	 * @return Returns a string of the simplified text
+	 * @throws IllegalArgumentException If there is no vocabulary with that name
+	 */
+	public String processText(String inputText, String vocabulary);
+	
+	/**
+	 * Simplifies text into a named vocabulary, writing each line to the output as soon as it is 
+	 * ready
+	 * @param inputText The text to be simplified
+	 * @param vocabulary The name of a vocabulary added with addVocabulary, or Vocabulary.DEFAULT
+	 * @param output Where the simplified text is written
+	 * @throws IOException If the output cannot be written
+	 * @throws IllegalArgumentException If there is no vocabulary with that name
+	 */
+	public void processText(String inputText, String vocabulary, Writer output) throws IOException;
 	
 	/**
-	 * Setter for setting the embeddings map local variable
-	 * @param embeddingsMap  Embeddings map
+	 * Simplifies text as it arrives from a publisher of text chunks, publishing the simplified 
+	 * text in chunks as the subscriber asks for them. The concatenated output is the same as 
+	 * processText on the concatenated input.
+	 * @see StreamingSimplifier
+	 * @param chunks The text to be simplified, in chunks that may split lines anywhere
+	 * @param executor Runs the simplification and the signals to the subscriber
+	 * @param bufferedChunks The most input chunks read ahead of the subscriber's demand
+	 * @return A publisher of the simplified text for one subscriber
 	 */
-	public void setEmbeddingsMap(HashMap<String, double[]> embeddingsMap);
+	public default Flow.Publisher<String> processStream(Flow.Publisher<String> chunks, Executor executor,
+			int bufferedChunks) {
+		return new StreamingSimplifier(this, chunks, executor, bufferedChunks);
+	}
 	
 	/**
-	 * Setter for setting the Replacement words map local variable
-	 * @param replacementWordsMap  Replacement words map
+	 * Simplifies a stream of lines, such as Files.lines, reading it only as fast as the 
+	 * subscriber asks for simplified text and closing it when done or cancelled
+	 * @see StreamingSimplifier
+	 * @param lines The text to be simplified, one line per element
+	 * @param executor Reads the lines, runs the simplification and signals the subscriber
+	 * @param bufferedChunks The most lines read ahead of the subscriber's demand
+	 * @return A publisher of the simplified text for one subscriber
 	 */
-	public void setReplacementWordsMap(HashMap<String, double[]> replacementWordsMap);
+	public default Flow.Publisher<String> processStream(Stream<String> lines, Executor executor, int bufferedChunks) {
+		return new StreamingSimplifier(this, StreamingSimplifier.lines(lines, executor), executor, bufferedChunks);
+	}
+	
+	/**
+	 * Getter for the names of the vocabularies that can be chosen
+	 * @return Vocabulary.DEFAULT and the names of the added vocabularies
+	 */
+	public Set<String> getVocabularyNames();
+	
+	/**
+	 * Setter Method for setting the Enum CalculatorType in order to choose which calculation method
+	 * to use when calculating the similarity of two vectors
+	 * @see CalculatorType
+	 * @param calcType the enum representing the calculator type
+	 */
+    public void setSimilarityCalculator(CalculatorType calcType);
 }
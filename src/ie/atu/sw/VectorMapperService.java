@@ -1,5 +1,6 @@
 package ie.atu.sw;
 
+import java.io.IOException;
 import java.util.HashMap;
 
 
@@ -21,16 +22,35 @@ public interface VectorMapperService {
 	public HashMap<String, double[]> getReplacementWordsMap();
 	
 	/**
-	 * Setter method to store vector map of word embeddings
+	 * Setter method to store vector map of word embeddings. The stored map is only replaced 
+	 * once the whole file has been read.
 	 * @param path path to file/location where embeddings are located 
+	 * @throws IOException if the file cannot be read to the end
 	 */
-	public void setEmbeddingsMap(String path);
+	public void setEmbeddingsMap(String path) throws IOException;
 	
 	/**
-	 * Setter method to store vector map of replacement words
+	 * Setter method to store vector map of replacement words. The stored map is only replaced 
+	 * once the whole file has been read.
 	 * @param path path to file/location where replacement words are located 
+	 * @throws IOException if the file cannot be read to the end
 	 */
-	public void setReplacementWordsMap(String path);
+	public void setReplacementWordsMap(String path) throws IOException;
+	
+	/**
+	 * Reads another replacement words file against the loaded embeddings without changing the 
+	 * stored replacement words map, e.g. for an additional vocabulary
+	 * @param path path to file/location where the replacement words are located
+	 * @return HashMap of word:vector pairs for the words that have an embedding
+	 * @throws IOException if the file cannot be read to the end
+	 */
+	public HashMap<String, double[]> readReplacementWordsMap(String path) throws IOException;
+	
+	/**
+	 * Getter method to retrieve how much of the current (or last) embeddings load is complete
+	 * @return a fraction between 0.0 and 1.0, 1.0 if nothing is loading
+	 */
+	public double getLoadProgress();
 
 	
 }
@@ -0,0 +1,255 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * A named set of replacement words over a shared WordIndex. The vocabulary holds no vectors of its
+ * own: it keeps the row ids of its words in the index, a small hash table of those rows for
+ * membership tests, and references to the words and vectors in scan order for the search. Any
+ * number of vocabularies can therefore be served from one loaded embeddings file, each costing
+ * a few dozen bytes per word.
+ *
+ * A vocabulary is immutable and belongs to the index it was built over; after the embeddings are
+ * reloaded it is rebuilt over the new index with {@link #rebind(WordIndex)}.
+ *
+ * @see EngineSnapshot#withVocabulary(Vocabulary)
+ */
+public final class Vocabulary {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	public static final String DEFAULT = "default"; //Name of the vocabulary loaded with --replacements
+
+	private final String name;
+	private final WordIndex index;
+	private final int[] rows; //Row ids in the index, in scan order
+	private final String[] words; //Words of rows, in scan order
+	private final double[][] vectors; //Vectors of rows, shared with the index
+	private final int[] members; //Open addressing set of row + 1, 0 marks an empty slot
+	private final int[] positions; //Scan position of the row in each slot of members
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Builds a vocabulary from words. Words that are not in the index are skipped, as the
+	 * replacement words file skips words without an embedding, and repeated words are kept once.
+	 * The words are scanned in the order given, which decides ties between equal scores.
+	 * Time Complexity: O(m*k), where m is the number of words and k their length
+	 *
+	 * @param name the name of the vocabulary
+	 * @param index the index holding the words and their vectors
+	 * @param words the replacement words
+	 */
+	public Vocabulary(String name, WordIndex index, Collection<String> words) {
+		this(name, index, findRows(index, words));
+	}
+
+	/**
+	 * Builds a vocabulary from rows of the index, which must be distinct
+	 */
+	private Vocabulary(String name, WordIndex index, int[] rows) {
+		this.name = name;
+		this.index = index;
+		this.rows = rows;
+		this.members = new int[Integer.highestOneBit(Math.max(2, rows.length * 2) - 1) << 1];
+		this.positions = new int[members.length];
+		this.words = new String[rows.length];
+		this.vectors = new double[rows.length][];
+		for (int i = 0; i < rows.length; i++) {
+			add(rows[i], i);
+			this.words[i] = index.getWord(rows[i]);
+			this.vectors[i] = index.getVector(rows[i]);
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Whether a row of the index is one of this vocabulary's words
+	 * Time Complexity: O(1) expected
+	 *
+	 * @param row a row id returned by WordIndex#find
+	 * @return true if the row is a replacement word of this vocabulary
+	 */
+	public boolean contains(int row) {
+		return indexOf(row) >= 0;
+	}
+
+	/**
+	 * Finds the scan position of a row of the index, i.e. its position in getWords()
+	 * Time Complexity: O(1) expected
+	 *
+	 * @param row a row id returned by WordIndex#find
+	 * @return the position, or -1 if the row is not a replacement word of this vocabulary
+	 */
+	public int indexOf(int row) {
+		int mask = members.length - 1;
+		for (int slot = spread(row) & mask; members[slot] != 0; slot = (slot + 1) & mask) {
+			if (members[slot] == row + 1) {
+				return positions[slot];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Whether a word is one of this vocabulary's words
+	 * Time Complexity: O(k) expected, where k is the length of the word
+	 *
+	 * @param word the word to check
+	 * @return true if the word is a replacement word of this vocabulary
+	 */
+	public boolean contains(String word) {
+		int row = index.find(word);
+		return row >= 0 && contains(row);
+	}
+
+	/**
+	 * Returns a copy of this vocabulary with words removed and added. The remaining words keep 
+	 * their order and the added words are appended in the order given, so a search over the 
+	 * result breaks ties exactly as a search over the old words followed by the new ones. Words 
+	 * that are not in the index, added words that are already members and removed words that 
+	 * are not members are ignored. Nothing is read from disk and no vector is copied.
+	 * Time Complexity: O(m + a*k + r*k), where m is the number of words and a and r the number 
+	 * of added and removed words of length k
+	 *
+	 * @param added the words to add
+	 * @param removed the words to remove
+	 * @return the edited vocabulary
+	 */
+	public Vocabulary edit(Collection<String> added, Collection<String> removed) {
+		Vocabulary dropped = new Vocabulary(name, index, findRows(index, removed));
+		int[] kept = Arrays.stream(rows).filter(row -> !dropped.contains(row)).toArray();
+		int[] appended = Arrays.stream(findRows(index, added))
+				.filter(row -> !contains(row) || dropped.contains(row)).toArray(); //Removed and added again moves to the end
+		int[] edited = Arrays.copyOf(kept, kept.length + appended.length);
+		System.arraycopy(appended, 0, edited, kept.length, appended.length);
+		return new Vocabulary(name, index, edited);
+	}
+
+	/**
+	 * Builds the same vocabulary over another index, after the embeddings have been reloaded
+	 * Time Complexity: O(m*k), see the constructor
+	 *
+	 * @param index the new index
+	 * @return this vocabulary if the index is unchanged, otherwise a new vocabulary
+	 */
+	public Vocabulary rebind(WordIndex index) {
+		return index == this.index ? this : new Vocabulary(name, index, Arrays.asList(words));
+	}
+
+	/**
+	 * Approximate memory used by the vocabulary itself, not counting the shared index
+	 * @return the size in bytes
+	 */
+	public long estimateBytes() {
+		return 4L * rows.length + 8L * words.length + 8L * vectors.length + 8L * members.length + 64;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + rows.length + " words)";
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Finds the distinct rows of the words that are in the index, in the order given
+	 */
+	private static int[] findRows(WordIndex index, Collection<String> words) {
+		BitSet seen = new BitSet(index.capacity());
+		int[] found = new int[words.size()];
+		int count = 0;
+		for (String word : words) {
+			int row = index.find(word);
+			if (row >= 0 && !seen.get(row)) {
+				seen.set(row);
+				found[count++] = row;
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * Adds a row and its scan position to the membership set
+	 */
+	private void add(int row, int position) {
+		int mask = members.length - 1;
+		int slot = spread(row) & mask;
+		while (members[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		members[slot] = row + 1;
+		positions[slot] = position;
+	}
+
+	/**
+	 * Scatters row ids, which are themselves hash slots, across the membership table
+	 */
+	private static int spread(int row) {
+		return row * 0x9E3779B9 >>> 7;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the name
+	 * @return the name of the vocabulary
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Getter for the index the vocabulary is built over
+	 * @return the shared word index
+	 */
+	public WordIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Getter for the number of words
+	 * @return the number of replacement words
+	 */
+	public int size() {
+		return rows.length;
+	}
+
+	/**
+	 * Getter for the rows in scan order. The array is shared and must not be modified.
+	 * @return the row ids of the replacement words
+	 */
+	int[] getRows() {
+		return rows;
+	}
+
+	/**
+	 * Getter for the words in scan order. The array is shared and must not be modified.
+	 * @return the replacement words
+	 */
+	String[] getWords() {
+		return words;
+	}
+
+	/**
+	 * Getter for the vectors in scan order. The array is shared and must not be modified.
+	 * @return the vectors matching getWords()
+	 */
+	double[][] getVectors() {
+		return vectors;
+	}
+
+}
@@ -0,0 +1,164 @@
+package ie.atu.sw;
+
+import java.util.Map;
+
+/**
+ * Open addressing hash index over every word of the embeddings that can be probed with a range of
+ * characters instead of a String. Looking up a word inside a line therefore needs no substring,
+ * no boxing and no map entry, which keeps the per-token path of EngineSnapshot free of
+ * allocation.
+ *
+ * Each slot holds a word, its String hash and its embedding vector. The slot of a word is its
+ * row id: vocabularies refer to their words by row, so one index is shared by all of them.
+ * Hashes are computed exactly as String#hashCode, so a range and the String with the same
+ * characters always land in the same slot. The index is built once and never changes, so it can
+ * be shared by any number of threads and snapshots.
+ *
+ * @see EngineSnapshot
+ * @see Vocabulary
+ */
+public final class WordIndex {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private final String[] words; //null marks an empty slot
+	private final int[] hashes;
+	private final double[][] vectors; //Embedding vector of each word
+	private final int mask; //Table length - 1, the length is a power of two
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Indexes every word of the embeddings
+	 * Time Complexity: O(n), where n is the number of embeddings
+	 *
+	 * @param embeddingsMap map of every known word to its vector
+	 */
+	public WordIndex(Map<String, double[]> embeddingsMap) {
+		int capacity = Integer.highestOneBit(Math.max(2, embeddingsMap.size() * 2) - 1) << 1; //At most half full
+		this.words = new String[capacity];
+		this.hashes = new int[capacity];
+		this.vectors = new double[capacity][];
+		this.mask = capacity - 1;
+
+		for (var entry : embeddingsMap.entrySet()) {
+			vectors[insert(entry.getKey())] = entry.getValue();
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Finds the row of the word made of a range of characters
+	 * Time Complexity: O(k) expected, where k is the length of the word
+	 *
+	 * @param text the characters to look in
+	 * @param start index of the first character of the word
+	 * @param end index after the last character of the word
+	 * @return the row of the word, or -1 if the word is not in the index
+	 */
+	public int find(CharSequence text, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + text.charAt(i); //As String#hashCode
+		}
+		int length = end - start;
+		for (int slot = spread(hash) & mask; words[slot] != null; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && matches(words[slot], text, start, length)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the row of a word
+	 * Time Complexity: O(k) expected, where k is the length of the word
+	 *
+	 * @param word the word to find
+	 * @return the row of the word, or -1 if the word is not in the index
+	 */
+	public int find(String word) {
+		return find(word, 0, word.length());
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Returns the slot of a word, claiming an empty slot if it is not indexed yet
+	 */
+	private int insert(String word) {
+		int hash = word.hashCode();
+		int slot = spread(hash) & mask;
+		while (words[slot] != null && !words[slot].equals(word)) {
+			slot = (slot + 1) & mask;
+		}
+		words[slot] = word;
+		hashes[slot] = hash;
+		return slot;
+	}
+
+	/**
+	 * Mixes the high bits of a hash into the low bits used to pick a slot
+	 */
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Compares a word with a range of characters
+	 */
+	private static boolean matches(String word, CharSequence text, int start, int length) {
+		if (word.length() != length) {
+			return false;
+		}
+		if (text instanceof String string) {
+			return string.regionMatches(start, word, 0, length);
+		}
+		for (int i = 0; i < length; i++) {
+			if (word.charAt(i) != text.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // GETTERS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Getter for the number of rows, including empty ones
+	 * @return one more than the highest row id
+	 */
+	public int capacity() {
+		return words.length;
+	}
+
+	/**
+	 * Getter for the word in a row
+	 * @param row a row returned by find
+	 * @return the indexed String, so callers can return it without copying
+	 */
+	public String getWord(int row) {
+		return words[row];
+	}
+
+	/**
+	 * Getter for the embedding vector of the word in a row
+	 * @param row a row returned by find
+	 * @return the vector
+	 */
+	public double[] getVector(int row) {
+		return vectors[row];
+	}
+
+}
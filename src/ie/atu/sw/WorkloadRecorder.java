@@ -0,0 +1,222 @@
+package ie.atu.sw;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opt-in capture of the texts a TextFileSimplifier processes, written as a compact trace that
+ * WorkloadReplay feeds back through any engine configuration. For every text the trace keeps
+ * when it arrived, how long it took, the vocabulary it asked for, its token stream and how many
+ * of its tokens had no embedding, and the trace starts with a description of the configuration
+ * it was captured with.
+ *
+ * Tokens are written once to a dictionary and referred to by number afterwards, and the stream
+ * is gzip compressed, so a trace costs a few bytes per token. Whitespace is not kept: a text is
+ * replayed as its tokens joined by single spaces, line by line, which the engine simplifies
+ * exactly as the original. With anonymisation, tokens without an embedding (names, numbers,
+ * addresses and other unknown strings) are masked with a run of '#' of the same length, so the
+ * trace keeps the out-of-vocabulary rate and lookup costs but not the unknown strings. Words the
+ * embeddings know are kept, as the search cost depends on them.
+ *
+ * @see WorkloadReplay
+ */
+public class WorkloadRecorder implements AutoCloseable {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	static final int MAGIC = 0x57524B31; //"WRK1"
+	static final int END = 0; //Record type: end of trace
+	static final int TEXT = 1; //Record type: one processed text
+	static final int TOKEN = 2; //Record type: the next dictionary entry
+	static final int LINE_BREAK = 0; //Token id separating lines
+	private static final String MASK = "#"; //Repeated in place of each character of a masked token
+	private static final int MAX_TOKEN_LENGTH = 8192; //Longer tokens are cut, writeUTF is limited to 64 KB
+
+	private final DataOutputStream out;
+	private final boolean anonymise;
+	private final long startNanos = System.nanoTime(); //Arrival times are offsets from here
+	private final Map<String, Integer> dictionary = new HashMap<>(); //Token to id, ids start at 1
+	private long texts = 0;
+	private long words = 0; //Tokens other than line breaks
+	private boolean closed = false;
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates a trace file and writes its header
+	 * @param path the trace file, replaced if it exists
+	 * @param configuration a description of the engine configuration being captured
+	 * @param anonymise whether to mask the tokens that have no embedding
+	 * @throws IOException if the file cannot be created
+	 */
+	public WorkloadRecorder(String path, String configuration, boolean anonymise) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+				Files.newOutputStream(Paths.get(path)), 64 * 1024)));
+		this.anonymise = anonymise;
+		out.writeInt(MAGIC);
+		out.writeLong(System.currentTimeMillis());
+		out.writeUTF(configuration);
+		out.writeBoolean(anonymise);
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Appends a processed text to the trace. Writing errors are reported once and end the
+	 * capture, so they never fail the request that was captured.
+	 * Time Complexity: O(n), where n is the length of the text
+	 *
+	 * @param snapshot the snapshot the text was processed with, to recognise unknown tokens
+	 * @param vocabulary the vocabulary the text asked for
+	 * @param text the text
+	 * @param arrivalNanos System.nanoTime() when processing started
+	 * @param durationNanos how long processing took
+	 */
+	public synchronized void record(EngineSnapshot snapshot, String vocabulary, String text, long arrivalNanos,
+			long durationNanos) {
+		if (closed) {
+			return;
+		}
+		try {
+			int vocabularyId = tokenId(vocabulary);
+			int[] ids = new int[16];
+			int count = 0;
+			int oovTokens = 0;
+			int position = 0;
+			int length = text.length();
+			while (position < length) {
+				char c = text.charAt(position);
+				if (EngineSnapshot.isLineBreak(c)) {
+					if (c != '\n' || position == 0 || text.charAt(position - 1) != '\r') {
+						ids = append(ids, count++, LINE_BREAK); //As split("\\R"), \r\n is one break
+					}
+					position++;
+					continue;
+				}
+				if (EngineSnapshot.isWhitespace(c)) {
+					position++;
+					continue;
+				}
+				int start = position;
+				while (position < length && !EngineSnapshot.isWhitespace(text.charAt(position))
+						&& !EngineSnapshot.isLineBreak(text.charAt(position))) {
+					position++;
+				}
+				boolean known = snapshot.getWordIndex().find(text, start, position) >= 0;
+				oovTokens += known ? 0 : 1;
+				String token = anonymise && !known ? MASK.repeat(position - start) : text.substring(start, position);
+				ids = append(ids, count++, tokenId(token));
+				words++;
+			}
+
+			out.writeByte(TEXT);
+			writeVarLong(out, Math.max(0, arrivalNanos - startNanos));
+			writeVarLong(out, durationNanos);
+			writeVarLong(out, vocabularyId);
+			writeVarLong(out, oovTokens);
+			writeVarLong(out, count);
+			for (int i = 0; i < count; i++) {
+				writeVarLong(out, ids[i]);
+			}
+			texts++;
+		} catch (IOException e) {
+			System.err.println("[Error] Workload capture stopped: " + e.getMessage());
+			closed = true;
+		}
+	}
+
+	/**
+	 * Ends the trace and closes the file
+	 * @throws IOException if the trace cannot be written
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!closed) {
+			out.writeByte(END);
+		}
+		closed = true;
+		out.close();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "capture(" + texts + " texts, " + words + " tokens, " + dictionary.size() + " distinct"
+				+ (anonymise ? ", anonymised)" : ")");
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Returns the id of a token, writing it to the dictionary first if it is new. Dictionary 
+	 * entries are numbered in the order they are written, from 1.
+	 */
+	private int tokenId(String token) throws IOException {
+		if (token.length() > MAX_TOKEN_LENGTH) {
+			token = token.substring(0, MAX_TOKEN_LENGTH);
+		}
+		Integer id = dictionary.get(token);
+		if (id != null) {
+			return id;
+		}
+		id = dictionary.size() + 1;
+		dictionary.put(token, id);
+		out.writeByte(TOKEN);
+		out.writeUTF(token);
+		return id;
+	}
+
+	/**
+	 * Stores a value in a growing array
+	 * @return the array, grown if it was full
+	 */
+	private static int[] append(int[] values, int index, int value) {
+		if (index == values.length) {
+			values = Arrays.copyOf(values, index * 2);
+		}
+		values[index] = value;
+		return values;
+	}
+
+	/**
+	 * Writes a non-negative value in 7 bit groups, low group first
+	 */
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Reads a value written by writeVarLong
+	 */
+	static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+}
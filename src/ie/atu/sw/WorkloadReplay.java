@@ -0,0 +1,313 @@
+package ie.atu.sw;
+
+import static java.lang.System.out;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays a trace written by WorkloadRecorder through any engine configuration, so a change to
+ * the engine can be judged against real traffic before it ships. The model and engine options
+ * are the ones every other mode accepts (--metric, --prefilter-dims, --token-budget, --shards,
+ * ...), and the trace is replayed in one of two ways:
+ * <ul>
+ * <li>fast: a fixed number of workers process the texts back to back, measuring throughput</li>
+ * <li>original: every text is started at its captured arrival time (optionally sped up), and
+ * its latency is measured from that time, so time spent queueing behind slow texts counts</li>
+ * </ul>
+ * The report gives the throughput, latency percentiles, the out-of-vocabulary rate seen at
+ * capture and on this model, and the latencies that were captured for comparison.
+ *
+ * @see WorkloadRecorder
+ */
+public class WorkloadReplay {
+
+	//---------------------------------------------------------------------------------------------
+    // FIELDS
+    //---------------------------------------------------------------------------------------------
+
+	private static final int DEFAULT_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+
+	private final TextSimplifier textSimplifier;
+	private final Trace trace;
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * One captured text
+	 * @param arrivalNanos when it arrived, from the start of the capture
+	 * @param capturedNanos how long it took when it was captured
+	 * @param vocabulary the vocabulary it asked for
+	 * @param text the text rebuilt from its tokens
+	 * @param tokens the number of tokens
+	 * @param oovTokens the number of tokens without an embedding at capture
+	 */
+	record Entry(long arrivalNanos, long capturedNanos, String vocabulary, String text, int tokens, int oovTokens) {}
+
+	/**
+	 * A whole trace
+	 * @param capturedAtMillis when the capture started
+	 * @param configuration the engine configuration it was captured with
+	 * @param anonymised whether unknown tokens were masked
+	 * @param entries the texts in arrival order
+	 */
+	record Trace(long capturedAtMillis, String configuration, boolean anonymised, List<Entry> entries) {}
+
+	//---------------------------------------------------------------------------------------------
+    // CONSTRUCTOR
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Initialises a replay of a trace through a TextSimplifier that already has its model loaded
+	 * @param textSimplifier the engine to replay through
+	 * @param trace the trace to replay
+	 */
+	public WorkloadReplay(TextSimplifier textSimplifier, Trace trace) {
+		this.textSimplifier = textSimplifier;
+		this.trace = trace;
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // MAIN LOGIC METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Runs the replay described by the command line options. Required options are --trace,
+	 * --embeddings and --replacements. Optional options are --timing (fast, the default, or
+	 * original), --concurrency (fast workers, default one per core), --speed (original timing
+	 * sped up by this factor, default 1) and every engine option of batch and serve.
+	 *
+	 * @param options the parsed command line options
+	 * @param fileManager used to load the model
+	 * @param textSimplifier the engine to replay through
+	 * @throws Exception if the trace or the model cannot be read
+	 */
+	public static void run(CommandLineOptions options, FileManagerService fileManager,
+			TextSimplifier textSimplifier) throws Exception {
+		Trace trace = read(options.require("trace"));
+		out.printf("[INFO] Trace of %d texts captured %tF %<tT with: %s%s%n", trace.entries().size(),
+				trace.capturedAtMillis(), trace.configuration(), trace.anonymised() ? " (anonymised)" : "");
+		Runner.loadModel(options, fileManager, textSimplifier);
+
+		WorkloadReplay replay = new WorkloadReplay(textSimplifier, trace);
+		String timing = options.get("timing", "fast");
+		long start = System.nanoTime();
+		long[] latencies = switch (timing) {
+			case "fast" -> replay.replayFast(options.getInt("concurrency", DEFAULT_CONCURRENCY));
+			case "original" -> replay.replayOriginal(Double.parseDouble(options.get("speed", "1")));
+			default -> throw new IllegalArgumentException("--timing must be fast or original");
+		};
+		replay.report(timing, latencies, System.nanoTime() - start);
+	}
+
+	/**
+	 * Replays every text as fast as a fixed number of workers can process them
+	 * Time Complexity: O(t*n*m), where t is the number of texts
+	 *
+	 * @param concurrency the number of workers
+	 * @return the latency of every text in nanoseconds, in trace order
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	public long[] replayFast(int concurrency) throws InterruptedException {
+		List<Entry> entries = trace.entries();
+		long[] latencies = new long[entries.size()];
+		AtomicInteger next = new AtomicInteger();
+		try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < concurrency; i++) {
+				workers.submit(() -> {
+					for (int index; (index = next.getAndIncrement()) < entries.size();) {
+						long start = System.nanoTime();
+						process(entries.get(index));
+						latencies[index] = System.nanoTime() - start;
+					}
+				});
+			}
+		} //close() waits for every worker
+		return latencies;
+	}
+
+	/**
+	 * Replays every text at its captured arrival time, each on its own virtual thread. Latency
+	 * is measured from the time the text was due, not from when it started.
+	 * Time Complexity: O(t*n*m), where t is the number of texts
+	 *
+	 * @param speed how many times faster than captured to replay
+	 * @return the latency of every text in nanoseconds, in trace order
+	 * @throws InterruptedException if interrupted while waiting for a text to be due
+	 */
+	public long[] replayOriginal(double speed) throws InterruptedException {
+		if (speed <= 0) {
+			throw new IllegalArgumentException("--speed must be positive");
+		}
+		List<Entry> entries = trace.entries();
+		long[] latencies = new long[entries.size()];
+		long first = entries.isEmpty() ? 0 : entries.get(0).arrivalNanos();
+		long start = System.nanoTime();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < entries.size(); i++) {
+				Entry entry = entries.get(i);
+				long due = start + (long) ((entry.arrivalNanos() - first) / speed);
+				long wait = due - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				int index = i;
+				executor.submit(() -> {
+					process(entry);
+					latencies[index] = System.nanoTime() - due;
+				});
+			}
+		} //close() waits for the last texts
+		return latencies;
+	}
+
+	/**
+	 * Reads a trace written by WorkloadRecorder. A trace cut short, e.g. because the capturing
+	 * process was killed, is read up to its last complete text.
+	 * Time Complexity: O(n), where n is the size of the trace
+	 *
+	 * @param path the trace file
+	 * @return the trace
+	 * @throws IOException if the file cannot be read or is not a trace
+	 */
+	public static Trace read(String path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(Files.newInputStream(Paths.get(path)), 64 * 1024)))) {
+			if (in.readInt() != WorkloadRecorder.MAGIC) {
+				throw new IOException(path + " is not a workload trace");
+			}
+			long capturedAtMillis = in.readLong();
+			String configuration = in.readUTF();
+			boolean anonymised = in.readBoolean();
+
+			List<String> dictionary = new ArrayList<>();
+			dictionary.add(null); //Id 0 is the line break
+			List<Entry> entries = new ArrayList<>();
+			try {
+				for (int type; (type = in.readUnsignedByte()) != WorkloadRecorder.END;) {
+					if (type == WorkloadRecorder.TOKEN) {
+						dictionary.add(in.readUTF());
+						continue;
+					}
+					if (type != WorkloadRecorder.TEXT) {
+						throw new IOException("Unknown record type " + type + " in " + path);
+					}
+					entries.add(readEntry(in, dictionary));
+				}
+			} catch (EOFException e) {
+				System.err.println("[Error] " + path + " ends early, replaying " + entries.size() + " texts");
+			}
+			entries.sort((a, b) -> Long.compare(a.arrivalNanos(), b.arrivalNanos())); //Written in completion order
+			return new Trace(capturedAtMillis, configuration, anonymised, entries);
+		}
+	}
+
+	//---------------------------------------------------------------------------------------------
+    // HELPER METHODS
+    //---------------------------------------------------------------------------------------------
+
+	/**
+	 * Reads one text record and rebuilds the text from its tokens, one line per line break
+	 */
+	private static Entry readEntry(DataInputStream in, List<String> dictionary) throws IOException {
+		long arrivalNanos = WorkloadRecorder.readVarLong(in);
+		long capturedNanos = WorkloadRecorder.readVarLong(in);
+		String vocabulary = dictionary.get((int) WorkloadRecorder.readVarLong(in));
+		int oovTokens = (int) WorkloadRecorder.readVarLong(in);
+		int count = (int) WorkloadRecorder.readVarLong(in);
+		StringBuilder text = new StringBuilder();
+		int tokens = 0;
+		boolean lineStart = true;
+		for (int i = 0; i < count; i++) {
+			int id = (int) WorkloadRecorder.readVarLong(in);
+			if (id == WorkloadRecorder.LINE_BREAK) {
+				text.append('\n');
+				lineStart = true;
+				continue;
+			}
+			if (!lineStart) {
+				text.append(' ');
+			}
+			text.append(dictionary.get(id));
+			lineStart = false;
+			tokens++;
+		}
+		return new Entry(arrivalNanos, capturedNanos, vocabulary, text.toString(), tokens, oovTokens);
+	}
+
+	/**
+	 * Simplifies one text, counting failures instead of stopping the replay
+	 */
+	private void process(Entry entry) {
+		try {
+			textSimplifier.processText(entry.text(), entry.vocabulary());
+		} catch (RuntimeException e) {
+			if (errors.getAndIncrement() == 0) {
+				System.err.println("[Error] Replaying a text: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Prints the throughput, latency percentiles and out-of-vocabulary rates of a replay next
+	 * to the latencies that were captured
+	 */
+	private void report(String timing, long[] latencies, long elapsedNanos) {
+		List<Entry> entries = trace.entries();
+		long tokens = entries.stream().mapToLong(Entry::tokens).sum();
+		long capturedOov = entries.stream().mapToLong(Entry::oovTokens).sum();
+		long replayOov = trace.anonymised() && capturedOov > 0 ? -1 : countUnknown(entries); //Masked tokens are unknown by design
+		long[] captured = entries.stream().mapToLong(Entry::capturedNanos).sorted().toArray();
+		long[] replayed = latencies.clone();
+		Arrays.sort(replayed);
+		double seconds = Math.max(1, elapsedNanos) / 1_000_000_000.0d;
+
+		out.println(ConsoleColour.GREEN);
+		out.printf("[INFO] Replayed %d texts (%d tokens, %d errors) with %s timing in %.2f s%n",
+				entries.size(), tokens, errors.get(), timing, seconds);
+		out.printf("[INFO] Throughput: %.1f texts/s, %.0f tokens/s%n", entries.size() / seconds, tokens / seconds);
+		if (replayed.length > 0) {
+			out.printf("[INFO] Latency:  p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+					LoadGenerator.percentile(replayed, 0.50d), LoadGenerator.percentile(replayed, 0.95d),
+					LoadGenerator.percentile(replayed, 0.99d), replayed[replayed.length - 1] / 1_000_000.0d);
+			out.printf("[INFO] Captured: p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+					LoadGenerator.percentile(captured, 0.50d), LoadGenerator.percentile(captured, 0.95d),
+					LoadGenerator.percentile(captured, 0.99d), captured[captured.length - 1] / 1_000_000.0d);
+		}
+		out.printf("[INFO] Out of vocabulary: %.2f%% at capture, %s on this model%n",
+				tokens == 0 ? 0.0d : 100.0d * capturedOov / tokens,
+				replayOov < 0 ? "unknown" : String.format("%.2f%%", tokens == 0 ? 0.0d : 100.0d * replayOov / tokens));
+		out.print(ConsoleColour.RESET);
+	}
+
+	/**
+	 * Counts the tokens of the texts that the loaded embeddings do not know
+	 * @return the count, or -1 if it cannot be known
+	 */
+	private long countUnknown(List<Entry> entries) {
+		if (!(textSimplifier instanceof SnapshotSimplifier local)) {
+			return -1; //A sharded simplifier has no local index
+		}
+		WordIndex index = local.getSnapshot().getWordIndex();
+		long unknown = 0;
+		for (Entry entry : entries) {
+			for (String token : entry.text().split("\\s+")) {
+				unknown += !token.isEmpty() && index.find(token) < 0 ? 1 : 0;
+			}
+		}
+		return unknown;
+	}
+
+}